@@ -0,0 +1,136 @@
+package word2vec.lite;
+
+import com.google.common.collect.ImmutableList;
+import word2vec.lite.util.Pair;
+import word2vec.lite.util.TopK;
+
+import java.util.List;
+
+/**
+ * Base of the {@link Searcher} implementations, which only differ in how they store the vectors
+ * <p>
+ * All vectors are compared with unit length, so that dot products are cosine similarities.
+ */
+abstract class AbstractSearcher implements Searcher {
+	final int layerSize;
+
+	AbstractSearcher(int layerSize) {
+		this.layerSize = layerSize;
+	}
+
+	/** @return Vector of unit length for the given word, or null if it is unknown */
+	abstract float[] getVectorOrNull(String word);
+
+	/** @return Word of the given row */
+	abstract String word(int row);
+
+	@Override public List<Match> getMatches(String s, int maxNumMatches) throws UnknownWordException {
+		return getMatches(getVector(s), maxNumMatches);
+	}
+
+	@Override public double cosineDistance(String s1, String s2) throws UnknownWordException {
+		return dot(getVector(s1), getVector(s2));
+	}
+
+	@Override public float[] getRawVector(String word) throws UnknownWordException {
+		return getVector(word);
+	}
+
+	/**
+	 * @return Vector for the given word
+	 * @throws UnknownWordException If word is not in the model's vocabulary and can't be synthesized
+	 */
+	float[] getVector(String word) throws UnknownWordException {
+		final float[] result = getVectorOrNull(word);
+		if (result == null)
+			throw new UnknownWordException(word);
+		return result;
+	}
+
+	/** @return Dot product of the given vectors */
+	static double dot(float[] v1, float[] v2) {
+		double d = 0;
+		for (int a = 0; a < v1.length; a++)
+			d += v1[a] * v2[a];
+		return d;
+	}
+
+	/** @return The given vector scaled to unit length, like the vectors of the model */
+	static float[] normalize(float[] vec) {
+		if (vec == null)
+			return null;
+		double len = 0;
+		for (float v : vec)
+			len += v * v;
+		len = Math.sqrt(len);
+		for (int i = 0; i < vec.length; i++)
+			vec[i] /= len;
+		return vec;
+	}
+
+	/** @return Vector difference from v1 to v2 */
+	private float[] getDifference(float[] v1, float[] v2) {
+		float[] diff = new float[layerSize];
+		for (int i = 0; i < layerSize; i++)
+			diff[i] = v1[i] - v2[i];
+		return diff;
+	}
+
+	@Override public SemanticDifference similarity(String s1, String s2) throws UnknownWordException {
+		float[] v1 = getVector(s1);
+		float[] v2 = getVector(s2);
+		final float[] diff = getDifference(v1, v2);
+
+		return new SemanticDifference() {
+			@Override public List<Match> getMatches(String word, int maxMatches) throws UnknownWordException {
+				float[] target = getDifference(getVector(word), diff);
+				return AbstractSearcher.this.getMatches(target, maxMatches);
+			}
+		};
+	}
+
+	/**
+	 * @return {@link TopK} of the given number of the rows kept by the given candidates, which are removed, ranked
+	 * by the cosine similarity of the given vectors of the rows with the given vector
+	 */
+	static TopK rerank(TopK candidates, float[][] vectors, float[] vec, int maxNumMatches) {
+		int[] rows = new int[candidates.size()];
+		candidates.drainDescending(rows, new double[rows.length]);
+		TopK result = new TopK(Math.min(maxNumMatches, rows.length));
+		for (int row : rows) {
+			double len = Math.sqrt(dot(vectors[row], vectors[row]));
+			result.offer(row, len == 0 ? 0 : dot(vectors[row], vec) / len);
+		}
+		return result;
+	}
+
+	/** @return {@link Match}es of the rows kept by the given {@link TopK}, best first */
+	List<Match> toMatches(TopK top) {
+		int[] rows = new int[top.size()];
+		double[] scores = new double[top.size()];
+		top.drainDescending(rows, scores);
+		ImmutableList.Builder<Match> result = ImmutableList.builder();
+		for (int i = 0; i < rows.length; i++)
+			result.add(new MatchImpl(word(rows[i]), scores[i]));
+		return result.build();
+	}
+
+	/** Implementation of {@link Match} */
+	static class MatchImpl extends Pair<String, Double> implements Match {
+		MatchImpl(String first, Double second) {
+			super(first, second);
+		}
+
+		@Override public String match() {
+			return first;
+		}
+
+		@Override public double distance() {
+			return second;
+		}
+
+		@Override public String toString() {
+			return String.format("%s [%s]", first, second);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package word2vec.lite;
+
+import com.google.common.base.Preconditions;
+import word2vec.lite.Word2VecTrainerBuilder.TrainingProgressListener;
+import word2vec.lite.util.Threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link TrainingProgressListener} which forwards updates to another listener on a single
+ * dispatcher thread, so that a slow listener never stalls the training threads
+ * <p>
+ * Publishing only swaps the update into a lock-free slot.  Updates published faster than the
+ * configured rate are coalesced, i.e. the listener only sees the latest one.  The dispatcher thread mostly
+ * waits, so it is a virtual thread where the JVM supports them.
+ */
+class AsyncProgressDispatcher implements TrainingProgressListener, AutoCloseable {
+	/** Immutable progress update */
+	private static class Update {
+		private final Stage stage;
+		private final double progress;
+
+		private Update(Stage stage, double progress) {
+			this.stage = stage;
+			this.progress = progress;
+		}
+	}
+
+	private final TrainingProgressListener delegate;
+	private final long minIntervalNanos;
+	private final AtomicReference<Update> slot = new AtomicReference<>();
+	private final Thread thread;
+	private volatile boolean closed;
+
+	/**
+	 * @param delegate Listener to forward to
+	 * @param maxUpdatesPerSecond Maximum rate at which the delegate is called
+	 */
+	AsyncProgressDispatcher(TrainingProgressListener delegate, double maxUpdatesPerSecond) {
+		Preconditions.checkArgument(maxUpdatesPerSecond > 0, "Value must be positive");
+		this.delegate = Preconditions.checkNotNull(delegate);
+		this.minIntervalNanos = (long)(TimeUnit.SECONDS.toNanos(1) / maxUpdatesPerSecond);
+		this.thread = Threads.ioThreadFactory("word2vec-progress-%d").newThread(new Runnable() {
+			@Override public void run() {
+				dispatch();
+			}
+		});
+		thread.start();
+	}
+
+	@Override public void update(Stage stage, double progress) {
+		if (slot.getAndSet(new Update(stage, progress)) == null)
+			LockSupport.unpark(thread);
+	}
+
+	/** Delivers the latest update, then waits at least {@link #minIntervalNanos} before the next one */
+	private void dispatch() {
+		while (true) {
+			Update update = slot.getAndSet(null);
+			if (update != null) {
+				delegate.update(update.stage, update.progress);
+				// Publishing unparks this thread, so park again until the interval has really passed
+				long end = System.nanoTime() + minIntervalNanos;
+				for (long remaining = minIntervalNanos; !closed && remaining > 0; remaining = end - System.nanoTime())
+					LockSupport.parkNanos(this, remaining);
+			} else if (closed) {
+				return;
+			} else {
+				LockSupport.park(this);
+			}
+		}
+	}
+
+	/**
+	 * Delivers any pending update and stops the dispatcher thread.  If the calling thread is interrupted while
+	 * waiting, it stops waiting and its interrupt flag is set again.
+	 */
+	@Override public void close() {
+		closed = true;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
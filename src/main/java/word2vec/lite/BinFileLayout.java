@@ -0,0 +1,188 @@
+package word2vec.lite;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import word2vec.lite.util.MappedFile;
+import word2vec.lite.util.Utf8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Offsets of the records of a binary file written by the C version of word2vec, found by a single scan
+ * <p>
+ * Each record is a word, a space and layerSize floats, optionally preceded by a newline.  Since the words have
+ * variable lengths, record i can only be found by scanning the records before it.  Once scanned, the words and
+ * vectors can be decoded in any order, e.g. in parallel.
+ */
+final class BinFileLayout {
+	/** Maximum length of a word in bytes, far above the C version's limit of 100 */
+	static final int MAX_WORD_BYTES = 4096;
+
+	final int vocabSize;
+	final int layerSize;
+	/** Length of the header line, including its newline */
+	final int headerLength;
+	/** Position of the first byte of each word */
+	final long[] wordOffsets;
+	/** Length of each word in bytes */
+	final int[] wordLengths;
+
+	private BinFileLayout(int vocabSize, int layerSize, int headerLength, long[] wordOffsets, int[] wordLengths) {
+		this.vocabSize = vocabSize;
+		this.layerSize = layerSize;
+		this.headerLength = headerLength;
+		this.wordOffsets = wordOffsets;
+		this.wordLengths = wordLengths;
+	}
+
+	/** @return Position of the vector of the given record */
+	long vectorOffset(int i) {
+		return wordOffsets[i] + wordLengths[i] + 1;
+	}
+
+	/** @return Overlap to map the file with, so that every word and vector can be read from a single segment */
+	static int overlap(int layerSize) {
+		return MAX_WORD_BYTES + 4 * layerSize + 1;
+	}
+
+	/** @return {@link BinFileLayout} with only the header of the given file, whose records aren't scanned yet */
+	static BinFileLayout readHeader(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			StringBuilder sb = new StringBuilder();
+			int c;
+			while ((c = raf.read()) != '\n') {
+				Preconditions.checkState(c != -1 && sb.length() < 100, "Expected a header line in file '%s'", file.getAbsolutePath());
+				sb.append((char)c);
+			}
+			return parseHeader("file '" + file.getAbsolutePath() + "'", sb.toString(), sb.length() + 1);
+		}
+	}
+
+	/**
+	 * @param source Description of where the line was read from, for error messages
+	 * @return {@link BinFileLayout} with the header parsed from the given first line
+	 */
+	static BinFileLayout parseHeader(String source, String firstLine, int headerLength) {
+		firstLine = firstLine.trim();
+		int index = firstLine.indexOf(' ');
+		Preconditions.checkState(index != -1,
+				"Expected a space in the first line of %s: '%s'",
+				source, firstLine);
+		int vocabSize = Integer.parseInt(firstLine.substring(0, index).trim());
+		int layerSize = Integer.parseInt(firstLine.substring(index + 1).trim());
+		return new BinFileLayout(vocabSize, layerSize, headerLength, null, null);
+	}
+
+	/** @return {@link BinFileLayout} of the given mapped file with the given header, with all of its records scanned */
+	static BinFileLayout scan(MappedFile file, BinFileLayout header) {
+		return scan(file, header, header.vocabSize);
+	}
+
+	/** @return {@link BinFileLayout} of the first maxRecords records of the given mapped file with the given header */
+	static BinFileLayout scan(MappedFile file, BinFileLayout header, int maxRecords) {
+		return scan(file, header, maxRecords, null);
+	}
+
+	/**
+	 * @param words Words of the records to keep, or null to keep all of them
+	 * @return {@link BinFileLayout} of the records amongst the first maxRecords records of the given mapped file with
+	 * the given header whose words are in the given set, the first one of each word.  Other records are skipped
+	 * without decoding their words, and the scan stops once every word is found.
+	 */
+	static BinFileLayout scan(MappedFile file, BinFileLayout header, int maxRecords, WordSet words) {
+		int count = Math.min(header.vocabSize, maxRecords);
+		int capacity = words == null ? count : Math.min(count, words.size());
+		long[] wordOffsets = new long[capacity];
+		int[] wordLengths = new int[capacity];
+		boolean[] found = words == null ? null : new boolean[words.size()];
+		int kept = 0;
+		long vectorBytes = 4L * header.layerSize;
+		long size = file.size();
+		long position = header.headerLength;
+		for (int i = 0; i < count && kept < capacity; i++) {
+			// Ignore newlines in front of words, some binary files have them and some don't
+			while (position < size && file.get(position) == '\n')
+				position++;
+			long start = position;
+			while (position < size && file.get(position) != ' ')
+				position++;
+			Preconditions.checkState(position + 1 + vectorBytes <= size,
+					"Unexpected end of file after %s of %s records", i, header.vocabSize);
+			Preconditions.checkState(position - start <= MAX_WORD_BYTES,
+					"Word of record %s is longer than %s bytes", i, MAX_WORD_BYTES);
+			int length = (int)(position - start);
+			position += 1 + vectorBytes;
+			if (words != null) {
+				int index = words.indexOf(file, start, length);
+				if (index < 0 || found[index])
+					continue;
+				found[index] = true;
+			}
+			wordOffsets[kept] = start;
+			wordLengths[kept] = length;
+			kept++;
+		}
+		if (kept < capacity) {
+			wordOffsets = Arrays.copyOf(wordOffsets, kept);
+			wordLengths = Arrays.copyOf(wordLengths, kept);
+		}
+		return new BinFileLayout(kept, header.layerSize, header.headerLength, wordOffsets, wordLengths);
+	}
+
+	/** Set of words which are compared with the words of a file as UTF-8 bytes, so that those aren't decoded */
+	static final class WordSet {
+		/** Marks an empty slot of the hash table */
+		private static final int EMPTY = -1;
+
+		private final byte[][] words;
+		/** Hash table of indexes into words */
+		private final int[] table;
+
+		WordSet(Collection<String> words) {
+			Set<String> unique = new HashSet<>(words);
+			this.words = new byte[unique.size()][];
+			this.table = new int[Integer.highestOneBit(Math.max(2 * unique.size(), 2) - 1) << 1];
+			Arrays.fill(table, EMPTY);
+			int i = 0;
+			for (String word : unique) {
+				this.words[i] = Utf8.encode(word);
+				int slot = MappedWord2VecModel.slot(Utf8.hash(this.words[i], 0, this.words[i].length), table.length - 1);
+				while (table[slot] != EMPTY)
+					slot = (slot + 1) & (table.length - 1);
+				table[slot] = i++;
+			}
+		}
+
+		/** @return Number of words */
+		int size() {
+			return words.length;
+		}
+
+		/** @return Index of the word equal to the given number of bytes at the given position of the given file, or -1 */
+		int indexOf(MappedFile file, long position, int length) {
+			ByteBuffer segment = file.segment(position);
+			int offset = MappedFile.offset(position);
+			int slot = MappedWord2VecModel.slot(Utf8.hash(segment, offset, length), table.length - 1);
+			while (table[slot] != EMPTY) {
+				if (Utf8.equals(segment, offset, length, words[table[slot]]))
+					return table[slot];
+				slot = (slot + 1) & (table.length - 1);
+			}
+			return -1;
+		}
+	}
+
+	/** @return Word of the given record */
+	String word(MappedFile file, int i) {
+		byte[] bytes = new byte[wordLengths[i]];
+		file.get(wordOffsets[i], bytes, bytes.length);
+		return new String(bytes, Charsets.UTF_8);
+	}
+}
@@ -0,0 +1,322 @@
+package word2vec.lite;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import word2vec.lite.util.MappedFile;
+import word2vec.lite.util.PrefetchingChannel;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads and writes the binary model files of the C version of word2vec
+ * <p>
+ * Files are read in two phases: a single scan finds the offset of every record, see {@link BinFileLayout}, then
+ * ranges of records are decoded in parallel.  Words are decoded as UTF-8, and positions are longs throughout,
+ * so files larger than 2GB need no special handling.
+ * <p>
+ * Streams, e.g. compressed ones, are read sequentially instead, see {@link #read(ReadableByteChannel, ByteOrder)}.
+ * <p>
+ * Files are written in the same two phases: blocks of records are encoded in parallel into direct buffers,
+ * then each batch of blocks is written in order with a single gathering write.
+ */
+public final class BinFiles {
+	/** Target size of the blocks of records encoded by each task */
+	static final int BLOCK_BYTES = 4 << 20;
+
+	private BinFiles() { }
+
+	/** @return {@link Word2VecModel} read from the given file in the given byte order, using all available processors */
+	public static Word2VecModel read(File file, ByteOrder byteOrder) throws IOException {
+		return read(file, byteOrder, Runtime.getRuntime().availableProcessors());
+	}
+
+	/** @return {@link Word2VecModel} read from the given file in the given byte order, decoding on numThreads threads */
+	public static Word2VecModel read(File file, ByteOrder byteOrder, int numThreads) throws IOException {
+		return read(file, byteOrder, Integer.MAX_VALUE, null, numThreads);
+	}
+
+	/**
+	 * @return {@link Word2VecModel} of the first maxWords records of the given file in the given byte order, which are
+	 * those of the most frequent words in files written by the C version.  The rest of the file isn't read.
+	 */
+	public static Word2VecModel readFirst(File file, ByteOrder byteOrder, int maxWords) throws IOException {
+		Preconditions.checkArgument(maxWords > 0, "Value must be positive");
+		return read(file, byteOrder, maxWords, null, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @return {@link Word2VecModel} of the records of the given words in the given file in the given byte order,
+	 * in file order.  The words of the records are compared as UTF-8 bytes, so the other records are skipped
+	 * without being decoded, and the rest of the file isn't read once all of the words are found.
+	 */
+	public static Word2VecModel readWords(File file, ByteOrder byteOrder, Collection<String> words) throws IOException {
+		return read(file, byteOrder, Integer.MAX_VALUE, new BinFileLayout.WordSet(words), Runtime.getRuntime().availableProcessors());
+	}
+
+	/** @return {@link Word2VecModel} of the records amongst the first maxRecords records whose words are in the given set, or all of them if it is null */
+	private static Word2VecModel read(File file, ByteOrder byteOrder, int maxRecords, BinFileLayout.WordSet words, int numThreads) throws IOException {
+		BinFileLayout header = BinFileLayout.readHeader(file);
+		MappedFile mapped = MappedFile.map(file, byteOrder, BinFileLayout.overlap(header.layerSize));
+		BinFileLayout layout = BinFileLayout.scan(mapped, header, maxRecords, words);
+		Preconditions.checkState(layout.vocabSize > 0, "No words to read from file '%s'", file.getAbsolutePath());
+
+		String[] vocab = new String[layout.vocabSize];
+		float[][] vectors = new float[layout.vocabSize][layout.layerSize];
+		decode(mapped, layout, vocab, vectors, numThreads);
+		return new Word2VecModel(Arrays.asList(vocab), vectors);
+	}
+
+	/**
+	 * @return {@link Word2VecModel} read from the given stream in the given byte order, decompressing it if it is
+	 * gzipped; the stream is not closed
+	 */
+	public static Word2VecModel read(InputStream in, ByteOrder byteOrder) throws IOException {
+		return read(channel(in), byteOrder);
+	}
+
+	/** @return Channel reading the given stream, decompressing it if it is gzipped */
+	static ReadableByteChannel channel(InputStream in) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+		buffered.mark(2);
+		boolean gzipped = buffered.read() == (GZIPInputStream.GZIP_MAGIC & 0xFF) && buffered.read() == GZIPInputStream.GZIP_MAGIC >>> 8;
+		buffered.reset();
+		return Channels.newChannel(gzipped ? new GZIPInputStream(buffered, 1 << 16) : buffered);
+	}
+
+	/**
+	 * @return {@link Word2VecModel} read from the given channel in the given byte order; the channel is not closed
+	 * <p>
+	 * The channel is read ahead on another thread, e.g. decompressing while the records read so far are decoded,
+	 * and the vectors are allocated up front from the header.
+	 */
+	public static Word2VecModel read(ReadableByteChannel channel, ByteOrder byteOrder) throws IOException {
+		try (PrefetchingChannel prefetching = new PrefetchingChannel(channel, BLOCK_BYTES, 2)) {
+			BinRecordReader reader = new BinRecordReader(prefetching, byteOrder, "stream");
+			Preconditions.checkState(reader.vocabSize > 0, "No words to read from stream");
+			String[] vocab = new String[reader.vocabSize];
+			float[][] vectors = new float[reader.vocabSize][reader.layerSize];
+			for (int i = 0; i < vocab.length; i++) {
+				vocab[i] = reader.readWord();
+				reader.readVector(vectors[i]);
+			}
+			return new Word2VecModel(Arrays.asList(vocab), vectors);
+		}
+	}
+
+	/** Decodes the words and vectors of the scanned records into the given arrays, splitting the records evenly amongst the threads */
+	private static void decode(final MappedFile mapped, final BinFileLayout layout, final String[] words, final float[][] vectors, int numThreads) throws IOException {
+		ListeningExecutorService ex = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(numThreads,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("word2vec-read-%d").build()));
+		try {
+			List<ListenableFuture<Void>> futures = new ArrayList<>(numThreads);
+			for (int thread = 0; thread < numThreads; thread++) {
+				final int start = (int)((long)layout.vocabSize * thread / numThreads);
+				final int end = (int)((long)layout.vocabSize * (thread + 1) / numThreads);
+				futures.add(ex.submit(new Callable<Void>() {
+					@Override public Void call() {
+						for (int i = start; i < end; i++) {
+							words[i] = layout.word(mapped, i);
+							readVector(mapped, layout.vectorOffset(i), vectors[i]);
+						}
+						return null;
+					}
+				}));
+			}
+			Futures.allAsList(futures).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading model");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Error reading model", e.getCause());
+		} finally {
+			ex.shutdownNow();
+		}
+	}
+
+	/** Copies the vector at the given position of the mapping into the given array */
+	static void readVector(MappedFile mapped, long position, float[] dst) {
+		ByteBuffer segment = mapped.segment(position);
+		int offset = MappedFile.offset(position);
+		for (int a = 0; a < dst.length; a++)
+			dst[a] = segment.getFloat(offset + 4 * a);
+	}
+
+	/** Writes the given model to the given file, using all available processors */
+	public static void write(Word2VecModel model, File file) throws IOException {
+		write(model, file, Runtime.getRuntime().availableProcessors(), false);
+	}
+
+	/**
+	 * Writes the given model to the given file, byte for byte like the C version of word2vec
+	 * @param numThreads Number of threads encoding blocks of records
+	 * @param preallocate Whether to set the length of the file before writing, which lets the file system
+	 * allocate it contiguously
+	 */
+	public static void write(final Word2VecModel model, File file, int numThreads, boolean preallocate) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			FileChannel channel = raf.getChannel();
+			raf.setLength(0);
+			if (preallocate)
+				raf.setLength(size(model));
+
+			write(channel, new ByteBuffer[] { ByteBuffer.wrap(header(model)) });
+			writeBlocks(channel, model.vocab.size(), recordsPerBlock(model.layerSize), numThreads, new BlockEncoder() {
+				@Override public ByteBuffer encode(int start, int end, ByteBuffer buffer) {
+					return BinFiles.encode(model, start, end, buffer, true);
+				}
+			});
+			channel.truncate(channel.position());
+		}
+	}
+
+	/** @return Number of records of vectors of the given size encoded per block, for a typical length of their words */
+	static int recordsPerBlock(int layerSize) {
+		return Math.max(1, BLOCK_BYTES / (4 * layerSize + 32));
+	}
+
+	/** Encodes blocks of records for {@link #writeBlocks(FileChannel, int, int, int, BlockEncoder)} */
+	interface BlockEncoder {
+		/**
+		 * @param buffer Buffer to reuse if it is large enough, or null
+		 * @return Buffer holding the records [start, end) between its position and limit, preferably direct
+		 */
+		ByteBuffer encode(int start, int end, ByteBuffer buffer) throws IOException;
+	}
+
+	/**
+	 * Writes numRecords records at the position of the given channel, encoding blocks of recordsPerBlock records
+	 * on numThreads threads, then writing each batch of blocks in order with a single gathering write
+	 */
+	static void writeBlocks(FileChannel channel, int numRecords, int recordsPerBlock, int numThreads, BlockEncoder encoder) throws IOException {
+		ListeningExecutorService ex = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(numThreads,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("word2vec-write-%d").build()));
+		try {
+			writeBlocks(channel, numRecords, recordsPerBlock, encoder, ex, new ByteBuffer[numThreads]);
+		} finally {
+			ex.shutdownNow();
+		}
+	}
+
+	/**
+	 * Like {@link #writeBlocks(FileChannel, int, int, int, BlockEncoder)}, encoding on the given executor
+	 * @param buffers Buffers reused by the encoder, or nulls, one per thread
+	 */
+	static void writeBlocks(FileChannel channel, final int numRecords, final int recordsPerBlock, final BlockEncoder encoder,
+			ListeningExecutorService ex, final ByteBuffer[] buffers) throws IOException {
+		int numThreads = buffers.length;
+		try {
+			for (int wave = 0; wave < numRecords; wave += numThreads * recordsPerBlock) {
+				List<ListenableFuture<ByteBuffer>> futures = new ArrayList<>(numThreads);
+				for (int thread = 0; thread < numThreads; thread++) {
+					final int slot = thread;
+					final int start = wave + thread * recordsPerBlock;
+					if (start >= numRecords)
+						break;
+					futures.add(ex.submit(new Callable<ByteBuffer>() {
+						@Override public ByteBuffer call() throws IOException {
+							return encoder.encode(start, Math.min(start + recordsPerBlock, numRecords), buffers[slot]);
+						}
+					}));
+				}
+				List<ByteBuffer> blocks = Futures.allAsList(futures).get();
+				for (int i = 0; i < blocks.size(); i++)
+					buffers[i] = blocks.get(i);
+				write(channel, blocks.toArray(new ByteBuffer[blocks.size()]));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing model");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Error writing model", e.getCause());
+		}
+	}
+
+	/** Writes the given model to the given stream, byte for byte like the C version of word2vec; the stream is not closed */
+	public static void write(Word2VecModel model, OutputStream out) throws IOException {
+		out.write(header(model));
+		int rowsPerBlock = recordsPerBlock(model.layerSize);
+		ByteBuffer buffer = null;
+		for (int start = 0; start < model.vocab.size(); start += rowsPerBlock) {
+			buffer = encode(model, start, Math.min(start + rowsPerBlock, model.vocab.size()), buffer, false);
+			out.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+		}
+		out.flush();
+	}
+
+	/** @return Header line of the given model, its number of words and the size of its vectors */
+	static byte[] header(Word2VecModel model) {
+		return (model.vocab.size() + " " + model.layerSize + "\n").getBytes(Charsets.UTF_8);
+	}
+
+	/** @return Size of the file of the given model */
+	private static long size(Word2VecModel model) {
+		long size = header(model).length;
+		for (int i = 0; i < model.vocab.size(); i++)
+			size += model.vocab.utf8Length(i) + 2 + 4L * model.layerSize;
+		return size;
+	}
+
+	/** Writes all of the given buffers at the position of the given channel */
+	static void write(FileChannel channel, ByteBuffer[] buffers) throws IOException {
+		long remaining = 0;
+		for (ByteBuffer buffer : buffers)
+			remaining += buffer.remaining();
+		while (remaining > 0)
+			remaining -= channel.write(buffers);
+	}
+
+	/**
+	 * Encodes the records [start, end) of the given model as a word, a space, the little-endian floats of the vector
+	 * and a newline each, like the C version
+	 * @param buffer Buffer to reuse if it is large enough, or null
+	 * @param direct Whether to allocate a direct buffer, for channels, or a heap buffer, for streams
+	 * @return Buffer holding the records between its position and limit
+	 */
+	static ByteBuffer encode(Word2VecModel model, int start, int end, ByteBuffer buffer, boolean direct) {
+		long size = 0;
+		for (int i = start; i < end; i++)
+			size += model.vocab.utf8Length(i) + 2 + 4L * model.layerSize;
+		Preconditions.checkState(size <= Integer.MAX_VALUE, "Records %s to %s are too large", start, end);
+		if (buffer == null || buffer.capacity() < size) {
+			buffer = direct
+					? ByteBuffer.allocateDirect((int)size)
+					: ByteBuffer.allocate((int)size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);	// The C version uses this byte order.
+		}
+		buffer.clear();
+
+		for (int i = start; i < end; i++) {
+			model.vocab.putUtf8(i, buffer);
+			buffer.put((byte)' ');
+			for (float v : model.vectors[i])
+				buffer.putFloat(v);
+			buffer.put((byte)'\n');
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
@@ -0,0 +1,115 @@
+package word2vec.lite;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads the records of a binary file written by the C version of word2vec from a channel, one at a time
+ * <p>
+ * Unlike {@link BinFileLayout}, which needs the whole file mapped, this only needs sequential access, e.g. to a
+ * decompressed stream.  Bytes are read into a window with large bulk reads, and each record is decoded straight
+ * from the window, which only grows if a record doesn't fit in it.  The channel is not closed.
+ */
+final class BinRecordReader implements RecordReader {
+	/** Initial size of the window */
+	private static final int WINDOW_BYTES = 1 << 20;
+	/** Maximum length of the header line */
+	private static final int MAX_HEADER_BYTES = 100;
+
+	private final ReadableByteChannel channel;
+	/** Description of where the records are read from, for error messages */
+	private final String source;
+	private ByteBuffer window;
+	private boolean endOfChannel;
+	private int records;
+
+	final int vocabSize;
+	final int layerSize;
+
+	/** Reads the header from the given channel */
+	BinRecordReader(ReadableByteChannel channel, ByteOrder byteOrder, String source) throws IOException {
+		this.channel = channel;
+		this.source = source;
+		this.window = ByteBuffer.allocate(WINDOW_BYTES).order(byteOrder);
+		window.flip();
+
+		int length = 0;
+		while (true) {
+			Preconditions.checkState(fill(length + 1) && length < MAX_HEADER_BYTES, "Expected a header line in %s", source);
+			if (window.get(window.position() + length) == '\n')
+				break;
+			length++;
+		}
+		String header = new String(window.array(), window.arrayOffset() + window.position(), length, Charsets.UTF_8);
+		window.position(window.position() + length + 1);
+		BinFileLayout layout = BinFileLayout.parseHeader(source, header, length + 1);
+		this.vocabSize = layout.vocabSize;
+		this.layerSize = layout.layerSize;
+	}
+
+	@Override public int getVocabSize() {
+		return vocabSize;
+	}
+
+	@Override public int getLayerSize() {
+		return layerSize;
+	}
+
+	@Override public String readWord() throws IOException {
+		if (records == vocabSize)
+			return null;
+		// Ignore newlines in front of words, some binary files have them and some don't
+		while (true) {
+			checkFill(1);
+			if (window.get(window.position()) != '\n')
+				break;
+			window.position(window.position() + 1);
+		}
+		int length = 0;
+		while (true) {
+			checkFill(length + 1);
+			if (window.get(window.position() + length) == ' ')
+				break;
+			length++;
+			Preconditions.checkState(length <= BinFileLayout.MAX_WORD_BYTES,
+					"Word of record %s is longer than %s bytes", records, BinFileLayout.MAX_WORD_BYTES);
+		}
+		String word = new String(window.array(), window.arrayOffset() + window.position(), length, Charsets.UTF_8);
+		window.position(window.position() + length + 1);
+		return word;
+	}
+
+	@Override public void readVector(float[] dst) throws IOException {
+		Preconditions.checkArgument(dst.length == layerSize, "Expected an array of %s floats", layerSize);
+		checkFill(4 * layerSize);
+		window.asFloatBuffer().get(dst);
+		window.position(window.position() + 4 * layerSize);
+		records++;
+	}
+
+	private void checkFill(int bytes) throws IOException {
+		Preconditions.checkState(fill(bytes), "Unexpected end of %s after %s of %s records", source, records, vocabSize);
+	}
+
+	/** @return true if the window holds at least the given number of bytes, reading more if it doesn't */
+	private boolean fill(int bytes) throws IOException {
+		if (window.remaining() >= bytes)
+			return true;
+		if (window.capacity() < bytes) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(bytes, 2 * window.capacity())).order(window.order());
+			larger.put(window);
+			window = larger;
+		} else {
+			window.compact();
+		}
+		while (window.position() < bytes && !endOfChannel)
+			endOfChannel = channel.read(window) < 0;
+		window.flip();
+		return window.remaining() >= bytes;
+	}
+}
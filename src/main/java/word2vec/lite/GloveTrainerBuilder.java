@@ -0,0 +1,227 @@
+package word2vec.lite;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Multiset;
+
+import word2vec.lite.Word2VecTrainerBuilder.TrainingProgressListener;
+import word2vec.lite.Word2VecTrainerBuilder.TrainingProgressListener.Stage;
+import word2vec.lite.glove.GloveConfig;
+import word2vec.lite.glove.GloveTrainer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Builder pattern for training a new {@link Word2VecModel} with GloVe rather than a neural network
+ * <p>
+ * This is a port of the open source C implementation of GloVe.  The corpus is read once to count the
+ * co-occurrences of the tokens of the vocabulary within a window, spilling sorted runs of counts to disk and
+ * merging them, so the counts needn't fit in memory.  Each iteration is then a pass of AdaGrad over the
+ * co-occurrence counts, which is far cheaper than a pass over the text, so more iterations are affordable.
+ * <p>
+ * The vocabulary is built like {@link Word2VecTrainerBuilder}'s, and the model is a regular {@link Word2VecModel}.
+ */
+public class GloveTrainerBuilder {
+
+	private Integer layerSize;
+	private Integer windowSize;
+	private Integer numThreads;
+	private Multiset<String> vocab;
+	private Integer minFrequency;
+	private Integer iterations;
+	private Double initialLearningRate;
+	private Double xMax;
+	private Double alpha;
+	private Integer maxEntriesPerThread;
+	private File tempDirectory;
+	private TrainingProgressListener listener;
+	private Double maxListenerRate;
+
+	GloveTrainerBuilder() {
+	}
+
+	/**
+	 * Size of the vectors
+	 * <p>
+	 * Defaults to 100
+	 */
+	public GloveTrainerBuilder setLayerSize(int layerSize) {
+		Preconditions.checkArgument(layerSize > 0, "Value must be positive");
+		this.layerSize = layerSize;
+		return this;
+	}
+
+	/**
+	 * Size of the window to count co-occurrences in, on either side of each token
+	 * <p>
+	 * Defaults to 10 tokens
+	 */
+	public GloveTrainerBuilder setWindowSize(int windowSize) {
+		Preconditions.checkArgument(windowSize > 0, "Value must be positive");
+		this.windowSize = windowSize;
+		return this;
+	}
+
+	/**
+	 * Specify number of threads to use for parallelization
+	 * <p>
+	 * Defaults to {@link Runtime#availableProcessors()}
+	 */
+	public GloveTrainerBuilder useNumThreads(int numThreads) {
+		Preconditions.checkArgument(numThreads > 0, "Value must be positive");
+		this.numThreads = numThreads;
+		return this;
+	}
+
+	/**
+	 * Use a pre-built vocabulary
+	 * <p>
+	 * If this is not specified, the vocabulary is learned from the training data
+	 * @param vocab {@link Multiset} of tokens and their frequency
+	 */
+	public GloveTrainerBuilder useVocab(Multiset<String> vocab) {
+		this.vocab = Preconditions.checkNotNull(vocab);
+		return this;
+	}
+
+	/** Use a pre-built vocabulary from a file written by {@link VocabFiles} or by the C version's <code>-save-vocab</code> option */
+	public GloveTrainerBuilder useVocab(File vocabFile) throws IOException {
+		return useVocab(VocabFiles.read(vocabFile));
+	}
+
+	/**
+	 * Specify the minimum frequency for a valid token to be considered
+	 * part of the vocabulary
+	 * <p>
+	 * Defaults to 5
+	 */
+	public GloveTrainerBuilder setMinVocabFrequency(int minFrequency) {
+		Preconditions.checkArgument(minFrequency >= 0, "Value must be non-negative");
+		this.minFrequency = minFrequency;
+		return this;
+	}
+
+	/**
+	 * Set the number of passes over the co-occurrence counts
+	 * <p>
+	 * Defaults to 15
+	 */
+	public GloveTrainerBuilder setNumIterations(int iterations) {
+		Preconditions.checkArgument(iterations > 0, "Value must be positive");
+		this.iterations = iterations;
+		return this;
+	}
+
+	/**
+	 * Set the learning rate of AdaGrad
+	 * <p>
+	 * Defaults to 0.05
+	 */
+	public GloveTrainerBuilder setInitialLearningRate(double initialLearningRate) {
+		Preconditions.checkArgument(initialLearningRate > 0, "Value must be positive");
+		this.initialLearningRate = initialLearningRate;
+		return this;
+	}
+
+	/**
+	 * Set the weighting of the co-occurrence counts: counts of at least xMax get the full weight, and smaller
+	 * counts x get the weight (x / xMax)^alpha
+	 * <p>
+	 * Defaults to xMax 100 and alpha 0.75
+	 */
+	public GloveTrainerBuilder setWeighting(double xMax, double alpha) {
+		Preconditions.checkArgument(xMax > 0 && alpha > 0, "Value must be positive");
+		this.xMax = xMax;
+		this.alpha = alpha;
+		return this;
+	}
+
+	/**
+	 * Set the number of distinct co-occurrences each thread counts in memory before spilling them to disk,
+	 * about 24 bytes each
+	 * <p>
+	 * Defaults to 2 million
+	 */
+	public GloveTrainerBuilder setMaxEntriesPerThread(int maxEntriesPerThread) {
+		Preconditions.checkArgument(maxEntriesPerThread > 0, "Value must be positive");
+		this.maxEntriesPerThread = maxEntriesPerThread;
+		return this;
+	}
+
+	/**
+	 * Set the directory for the co-occurrence counts spilled to disk, which are deleted once training is done
+	 * <p>
+	 * Defaults to the <code>java.io.tmpdir</code> directory
+	 */
+	public GloveTrainerBuilder setTempDirectory(File tempDirectory) {
+		this.tempDirectory = Preconditions.checkNotNull(tempDirectory);
+		return this;
+	}
+
+	/** Set a progress listener */
+	public GloveTrainerBuilder setListener(TrainingProgressListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * Set the maximum number of times per second the progress listener is called
+	 * <p>
+	 * Defaults to 10
+	 */
+	public GloveTrainerBuilder setMaxListenerRate(double updatesPerSecond) {
+		Preconditions.checkArgument(updatesPerSecond > 0, "Value must be positive");
+		this.maxListenerRate = updatesPerSecond;
+		return this;
+	}
+
+	/** Train the model */
+	public Word2VecModel train(Iterable<List<String>> sentences) throws InterruptedException, IOException {
+		this.numThreads = MoreObjects.firstNonNull(numThreads, Runtime.getRuntime().availableProcessors());
+		this.layerSize = MoreObjects.firstNonNull(layerSize, 100);
+		this.windowSize = MoreObjects.firstNonNull(windowSize, 10);
+		this.minFrequency = MoreObjects.firstNonNull(minFrequency, 5);
+		this.iterations = MoreObjects.firstNonNull(iterations, 15);
+		this.initialLearningRate = MoreObjects.firstNonNull(initialLearningRate, 0.05);
+		this.xMax = MoreObjects.firstNonNull(xMax, 100.0);
+		this.alpha = MoreObjects.firstNonNull(alpha, 0.75);
+		this.maxEntriesPerThread = MoreObjects.firstNonNull(maxEntriesPerThread, 2_000_000);
+		this.tempDirectory = MoreObjects.firstNonNull(tempDirectory, new File(System.getProperty("java.io.tmpdir")));
+		this.maxListenerRate = MoreObjects.firstNonNull(maxListenerRate, 10.0);
+		this.listener = MoreObjects.firstNonNull(listener, new TrainingProgressListener() {
+			@Override
+			public void update(Stage stage, double progress) {
+				System.out.println(String.format("Stage %s, progress %s%%", stage, progress));
+			}
+		});
+
+		try (AsyncProgressDispatcher dispatcher = new AsyncProgressDispatcher(listener, maxListenerRate)) {
+			dispatcher.update(Stage.ACQUIRE_VOCAB, 0.0);
+			Multiset<String> counts = vocab == null
+					? Word2VecTrainer.count(Iterables.concat(sentences))
+					: vocab;
+
+			dispatcher.update(Stage.FILTER_SORT_VOCAB, 0.0);
+			ImmutableMultiset<String> vocab = Word2VecTrainer.filterAndSort(counts, minFrequency);
+			List<String> tokens = ImmutableList.copyOf(vocab.elementSet());
+
+			GloveConfig config = new GloveConfig(
+					numThreads,
+					iterations,
+					layerSize,
+					windowSize,
+					initialLearningRate,
+					xMax,
+					alpha,
+					maxEntriesPerThread,
+					tempDirectory
+				);
+			return new Word2VecModel(tokens, new GloveTrainer(config, tokens, dispatcher).train(sentences));
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package word2vec.lite;
+
+import word2vec.lite.util.HalfFloat;
+import word2vec.lite.util.TopK;
+
+import java.util.List;
+
+/** Implementation of {@link Searcher} for a {@link HalfWord2VecModel}, widening the values as it scans them */
+class HalfSearcher extends AbstractSearcher {
+	private final HalfWord2VecModel model;
+
+	HalfSearcher(HalfWord2VecModel model) {
+		super(model.layerSize);
+		this.model = model;
+	}
+
+	@Override public boolean contains(String word) {
+		return model.vocab.row(word) >= 0;
+	}
+
+	@Override float[] getVectorOrNull(String word) {
+		int row = model.vocab.row(word);
+		return row < 0 ? null : model.vector(row);
+	}
+
+	@Override String word(int row) {
+		return model.vocab.get(row);
+	}
+
+	@Override public List<Match> getMatches(float[] vec, int maxNumMatches) {
+		short[] values = model.values;
+		HalfFloat format = model.format;
+		TopK top = new TopK(Math.min(maxNumMatches, model.vocab.size()));
+		for (int row = 0, offset = 0; row < model.vocab.size(); row++, offset += layerSize) {
+			double d = 0;
+			for (int a = 0; a < layerSize; a++)
+				d += vec[a] * format.decode(values[offset + a]);
+			top.offer(row, d);
+		}
+		return toMatches(top);
+	}
+}
@@ -0,0 +1,157 @@
+package word2vec.lite;
+
+import com.google.common.base.Preconditions;
+import word2vec.lite.util.HalfFloat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ShortBuffer;
+
+/**
+ * Word2vec model whose vectors are stored as {@link HalfFloat}s, taking half the memory of a {@link Word2VecModel}
+ * <p>
+ * The vectors are scaled to unit length before they are rounded, like those of {@link Word2VecModel#forSearch()},
+ * so the {@link Searcher} only widens the values of each row as it computes its dot product.
+ */
+public final class HalfWord2VecModel {
+	/** Magic number at the start of half precision model files, "W2VH" */
+	private static final int MAGIC = 0x57325648;
+	private static final int VERSION = 1;
+
+	final Vocabulary vocab;
+	final int layerSize;
+	final HalfFloat format;
+	/** Values of the vectors scaled to unit length, row after row */
+	final short[] values;
+
+	private HalfWord2VecModel(Vocabulary vocab, int layerSize, HalfFloat format, short[] values) {
+		this.vocab = vocab;
+		this.layerSize = layerSize;
+		this.format = format;
+		this.values = values;
+	}
+
+	/** @return {@link HalfWord2VecModel} of the given model in the given format; the given model is left unchanged */
+	public static HalfWord2VecModel of(Word2VecModel model, HalfFloat format) {
+		int vocabSize = model.vocab.size();
+		int layerSize = model.layerSize;
+		Preconditions.checkArgument((long)vocabSize * layerSize <= Integer.MAX_VALUE, "Model is too large: %s words", vocabSize);
+		short[] values = new short[vocabSize * layerSize];
+		ShortBuffer buffer = ShortBuffer.wrap(values);
+		for (int i = 0; i < vocabSize; i++)
+			encode(model.vectors[i], format, buffer);
+		return new HalfWord2VecModel(model.vocab, layerSize, format, values);
+	}
+
+	/** Puts the values of the given vector scaled to unit length in the given format into the given buffer */
+	static void encode(float[] vector, HalfFloat format, ShortBuffer dst) {
+		double len = Math.sqrt(AbstractSearcher.dot(vector, vector));
+		for (float v : vector)
+			dst.put(format.encode(len == 0 ? 0 : (float)(v / len)));
+	}
+
+	/** @return Size of the vectors */
+	public int getLayerSize() {
+		return layerSize;
+	}
+
+	/** @return Format of the values of the vectors */
+	public HalfFloat getFormat() {
+		return format;
+	}
+
+	/** @return Vocabulary, shared with the {@link Word2VecModel} this was made from */
+	public Vocabulary getVocab() {
+		return vocab;
+	}
+
+	/** @return {@link Searcher} for searching */
+	public Searcher forSearch() {
+		return new HalfSearcher(this);
+	}
+
+	/** @return {@link Word2VecModel} with the vectors of this model widened to floats */
+	public Word2VecModel toWord2VecModel() {
+		float[][] vectors = new float[vocab.size()][];
+		for (int i = 0; i < vectors.length; i++)
+			vectors[i] = vector(i);
+		return new Word2VecModel(vocab, vectors);
+	}
+
+	/** @return Vector of the given row widened to floats */
+	float[] vector(int row) {
+		float[] vector = new float[layerSize];
+		for (int a = 0; a < layerSize; a++)
+			vector[a] = format.decode(values[row * layerSize + a]);
+		return vector;
+	}
+
+	/** @return {@link HalfWord2VecModel} read from the given file, see {@link #toFile(OutputStream)} */
+	public static HalfWord2VecModel fromFile(File file) throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			return fromFile(in);
+		}
+	}
+
+	/** @return {@link HalfWord2VecModel} read from the given stream; the stream is not closed */
+	public static HalfWord2VecModel fromFile(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+		int magic = data.readInt();
+		Preconditions.checkState(magic == MAGIC, "Not a half precision model file, found magic %s", Integer.toHexString(magic));
+		int version = data.readInt();
+		Preconditions.checkState(version == VERSION, "Unsupported half precision model version %s", version);
+
+		int vocabSize = data.readInt();
+		int layerSize = data.readInt();
+		int format = data.readInt();
+		Preconditions.checkState(vocabSize >= 0 && layerSize > 0 && (long)vocabSize * layerSize <= Integer.MAX_VALUE,
+				"Invalid model size: %s words of %s values", vocabSize, layerSize);
+		Preconditions.checkState(format >= 0 && format < HalfFloat.values().length, "Unsupported format %s", format);
+		Vocabulary vocab = Vocabulary.readFrom(data, vocabSize);
+		short[] values = new short[vocabSize * layerSize];
+		for (int i = 0; i < values.length; i++)
+			values[i] = data.readShort();
+		return new HalfWord2VecModel(vocab, layerSize, HalfFloat.values()[format], values);
+	}
+
+	/** Writes this model to the given file, see {@link #toFile(OutputStream)} */
+	public void toFile(File file) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			toFile(out);
+		}
+	}
+
+	/**
+	 * Writes this model to the given stream; the stream is flushed but not closed
+	 * <p>
+	 * The layout is the magic number, a version, the number of words, the size of the vectors, the ordinal of the
+	 * {@link HalfFloat} format, then for each word its UTF-8 byte length and its bytes, and the values row after row.
+	 * All integers and values are big endian.
+	 */
+	public void toFile(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+		writeHeader(data, vocab.size(), layerSize, format);
+		vocab.writeTo(data);
+		for (short value : values)
+			data.writeShort(value);
+		data.flush();
+	}
+
+	/** Writes the header of a file of the given number of words, which has the same length for any number */
+	static void writeHeader(DataOutput out, int vocabSize, int layerSize, HalfFloat format) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(vocabSize);
+		out.writeInt(layerSize);
+		out.writeInt(format.ordinal());
+	}
+}
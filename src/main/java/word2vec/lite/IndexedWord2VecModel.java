@@ -0,0 +1,328 @@
+package word2vec.lite;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.UnsignedBytes;
+import word2vec.lite.util.ChannelWriter;
+import word2vec.lite.util.MappedFile;
+import word2vec.lite.util.Utf8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Word2vec model served straight from a memory-mapped file in the indexed format of this library
+ * <p>
+ * Unlike the binary format of the C version, where words and vectors are interleaved, the indexed format keeps
+ * every part of the model at a known position, so opening a model only maps the file and reads its header,
+ * whatever its size.  All values are little-endian.  The file holds, in order:
+ * <ul>
+ * <li>a header of {@value #HEADER_BYTES} bytes, see {@link #open(File)}</li>
+ * <li>the vectors as a contiguous matrix of floats, one row per word, starting at a multiple of {@value #MATRIX_ALIGNMENT} bytes</li>
+ * <li>the inverse norm of every vector</li>
+ * <li>the rank of every word amongst the words sorted by their UTF-8 bytes</li>
+ * <li>a hash table from the UTF-8 bytes of the words to their rows, with the hash of the word in each slot</li>
+ * <li>the sorted words, front coded in buckets of {@value #BUCKET_SIZE}: the first word of a bucket is stored as its
+ * length and bytes, the others as the length of the prefix they share with the previous word, and the length and
+ * bytes of the rest, all lengths as varints</li>
+ * <li>the position of every bucket</li>
+ * </ul>
+ * Looking up a word hashes its bytes, probes the table and decodes at most one bucket.  Like the vectors of
+ * {@link Word2VecModel#forSearch()}, the vectors returned by the {@link Searcher} have unit length.
+ */
+public final class IndexedWord2VecModel implements MappedVectors {
+	/** Magic number at the start of indexed files, "W2VN" */
+	private static final int MAGIC = 0x5732564E;
+	private static final int VERSION = 1;
+	/** Size of the header, which is also the position of the matrix */
+	private static final int HEADER_BYTES = 64;
+	private static final int MATRIX_ALIGNMENT = 64;
+	/** Number of words front coded together */
+	private static final int BUCKET_SIZE = 16;
+	/** Marks an empty slot of the hash table */
+	private static final int EMPTY = -1;
+
+	private final MappedFile file;
+	private final int vocabSize;
+	private final int layerSize;
+	private final long matrixOffset;
+	private final long normsOffset;
+	private final long bucketsOffset;
+	private final long ranksOffset;
+	private final long tableOffset;
+	private final int tableMask;
+
+	private IndexedWord2VecModel(MappedFile file) {
+		this.file = file;
+		this.vocabSize = file.getInt(8);
+		this.layerSize = file.getInt(12);
+		this.matrixOffset = file.getLong(16);
+		this.normsOffset = file.getLong(24);
+		this.bucketsOffset = file.getLong(32);
+		this.ranksOffset = file.getLong(40);
+		this.tableOffset = file.getLong(48);
+		this.tableMask = file.getInt(56) - 1;
+	}
+
+	/**
+	 * @return {@link IndexedWord2VecModel} of the given file, which starts with the magic number "W2VN", the version,
+	 * the number of words and the size of the vectors as ints, the positions of the matrix, the norms, the bucket
+	 * positions, the ranks and the hash table as longs, then the size of the hash table and of the buckets as ints
+	 */
+	public static IndexedWord2VecModel open(File file) throws IOException {
+		MappedFile header = MappedFile.map(file, ByteOrder.LITTLE_ENDIAN, 0);
+		Preconditions.checkState(header.size() >= HEADER_BYTES && header.getInt(0) == MAGIC,
+				"File '%s' is not an indexed model", file.getAbsolutePath());
+		Preconditions.checkState(header.getInt(4) == VERSION && header.getInt(60) == BUCKET_SIZE,
+				"Unsupported version %s of indexed model '%s'", header.getInt(4), file.getAbsolutePath());
+		int layerSize = header.getInt(12);
+		return new IndexedWord2VecModel(MappedFile.map(file, ByteOrder.LITTLE_ENDIAN, Math.max(4 * layerSize, 8)));
+	}
+
+	/** Writes the given model to the given file in the indexed format */
+	public static void write(final Word2VecModel model, File file) throws IOException {
+		byte[][] words = new byte[model.vocab.size()][];
+		for (int i = 0; i < words.length; i++)
+			words[i] = model.vocab.utf8(i);
+		write(file, words, model.layerSize, new Vectors() {
+			@Override public void get(int row, float[] dst) {
+				System.arraycopy(model.vectors[row], 0, dst, 0, dst.length);
+			}
+		});
+	}
+
+	/**
+	 * Converts the given binary file written by the C version of word2vec using the given byte order to the indexed
+	 * format, reading the vectors straight from a mapping of the binary file
+	 */
+	public static void fromBinFile(File binFile, ByteOrder byteOrder, File file) throws IOException {
+		BinFileLayout header = BinFileLayout.readHeader(binFile);
+		final MappedFile bin = MappedFile.map(binFile, byteOrder, BinFileLayout.overlap(header.layerSize));
+		final BinFileLayout layout = BinFileLayout.scan(bin, header);
+		byte[][] words = new byte[layout.vocabSize][];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = new byte[layout.wordLengths[i]];
+			bin.get(layout.wordOffsets[i], words[i], words[i].length);
+		}
+		write(file, words, layout.layerSize, new Vectors() {
+			@Override public void get(int row, float[] dst) {
+				BinFiles.readVector(bin, layout.vectorOffset(row), dst);
+			}
+		});
+	}
+
+	/** Writes this model to the given file, byte for byte like the C version of word2vec */
+	public void toBinFile(File binFile) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(binFile, "rw")) {
+			raf.setLength(0);
+			// The C version uses this byte order.
+			try (ChannelWriter out = new ChannelWriter(raf.getChannel(), ByteOrder.LITTLE_ENDIAN, 1 << 20)) {
+				byte[] header = Utf8.encode(vocabSize + " " + layerSize + "\n");
+				out.put(header, 0, header.length);
+				for (int row = 0; row < vocabSize; row++) {
+					byte[] word = getWordBytes(row);
+					out.put(word, 0, word.length);
+					out.putByte((byte)' ');
+					long position = vectorOffset(row);
+					for (int a = 0; a < layerSize; a++)
+						out.putFloat(file.getFloat(position + 4 * a));
+					out.putByte((byte)'\n');
+				}
+			}
+		}
+	}
+
+	/** Source of the vectors written to an indexed file */
+	private interface Vectors {
+		/** Copies the vector of the given row into the given array */
+		void get(int row, float[] dst);
+	}
+
+	private static void write(File file, final byte[][] words, int layerSize, Vectors vectors) throws IOException {
+		int vocabSize = words.length;
+		Integer[] sorted = new Integer[vocabSize];
+		for (int i = 0; i < vocabSize; i++)
+			sorted[i] = i;
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			private final Comparator<byte[]> bytes = UnsignedBytes.lexicographicalComparator();
+
+			@Override public int compare(Integer a, Integer b) {
+				return bytes.compare(words[a], words[b]);
+			}
+		});
+		int[] ranks = new int[vocabSize];
+		for (int rank = 0; rank < vocabSize; rank++)
+			ranks[sorted[rank]] = rank;
+
+		int tableSize = Integer.highestOneBit(Math.max(2 * vocabSize, 2) - 1) << 1;
+		int[] tableRows = new int[tableSize];
+		int[] tableHashes = new int[tableSize];
+		Arrays.fill(tableRows, EMPTY);
+		for (int i = 0; i < vocabSize; i++) {
+			int hash = Utf8.hash(words[i], 0, words[i].length);
+			int slot = MappedWord2VecModel.slot(hash, tableSize - 1);
+			while (tableRows[slot] != EMPTY)
+				slot = (slot + 1) & (tableSize - 1);
+			tableRows[slot] = i;
+			tableHashes[slot] = hash;
+		}
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			FileChannel channel = raf.getChannel();
+			raf.setLength(0);
+			long normsOffset, ranksOffset, tableOffset, bucketsOffset;
+			try (ChannelWriter out = new ChannelWriter(channel, ByteOrder.LITTLE_ENDIAN, 1 << 20)) {
+				out.put(new byte[HEADER_BYTES], 0, HEADER_BYTES);
+				out.align(MATRIX_ALIGNMENT);
+				float[] vector = new float[layerSize];
+				float[] inverseNorms = new float[vocabSize];
+				for (int i = 0; i < vocabSize; i++) {
+					vectors.get(i, vector);
+					double len = 0;
+					for (float v : vector) {
+						out.putFloat(v);
+						len += v * v;
+					}
+					inverseNorms[i] = len == 0 ? 0 : (float)(1 / Math.sqrt(len));
+				}
+
+				normsOffset = out.position();
+				for (float inverseNorm : inverseNorms)
+					out.putFloat(inverseNorm);
+				ranksOffset = out.position();
+				for (int rank : ranks)
+					out.putInt(rank);
+				out.align(8);
+				tableOffset = out.position();
+				for (int slot = 0; slot < tableSize; slot++) {
+					out.putInt(tableRows[slot]);
+					out.putInt(tableHashes[slot]);
+				}
+
+				long[] buckets = new long[(vocabSize + BUCKET_SIZE - 1) / BUCKET_SIZE];
+				byte[] previous = null;
+				for (int rank = 0; rank < vocabSize; rank++) {
+					byte[] word = words[sorted[rank]];
+					if (rank % BUCKET_SIZE == 0) {
+						buckets[rank / BUCKET_SIZE] = out.position();
+						out.putVarInt(word.length);
+						out.put(word, 0, word.length);
+					} else {
+						int shared = 0;
+						while (shared < Math.min(previous.length, word.length) && previous[shared] == word[shared])
+							shared++;
+						out.putVarInt(shared);
+						out.putVarInt(word.length - shared);
+						out.put(word, shared, word.length - shared);
+					}
+					previous = word;
+				}
+				out.align(8);
+				bucketsOffset = out.position();
+				for (long bucket : buckets)
+					out.putLong(bucket);
+			}
+
+			channel.position(0);
+			try (ChannelWriter out = new ChannelWriter(channel, ByteOrder.LITTLE_ENDIAN, HEADER_BYTES)) {
+				out.putInt(MAGIC);
+				out.putInt(VERSION);
+				out.putInt(vocabSize);
+				out.putInt(layerSize);
+				out.putLong(HEADER_BYTES);
+				out.putLong(normsOffset);
+				out.putLong(bucketsOffset);
+				out.putLong(ranksOffset);
+				out.putLong(tableOffset);
+				out.putInt(tableSize);
+				out.putInt(BUCKET_SIZE);
+			}
+		}
+	}
+
+	@Override public int getLayerSize() {
+		return layerSize;
+	}
+
+	@Override public int getVocabSize() {
+		return vocabSize;
+	}
+
+	@Override public String getWord(int row) {
+		return new String(getWordBytes(row), Charsets.UTF_8);
+	}
+
+	/** @return Vocabulary, decoded from the mapping while iterating */
+	public Iterable<String> getVocab() {
+		return MappedSearcher.vocab(this);
+	}
+
+	/** @return {@link Searcher} reading from the mapping */
+	public Searcher forSearch() {
+		return new MappedSearcher(this);
+	}
+
+	@Override public int row(CharSequence word) {
+		byte[] bytes = Utf8.encode(word);
+		int hash = Utf8.hash(bytes, 0, bytes.length);
+		int slot = MappedWord2VecModel.slot(hash, tableMask);
+		while (true) {
+			long position = tableOffset + 8L * slot;
+			int row = file.getInt(position);
+			if (row == EMPTY)
+				return -1;
+			if (file.getInt(position + 4) == hash && Arrays.equals(getWordBytes(row), bytes))
+				return row;
+			slot = (slot + 1) & tableMask;
+		}
+	}
+
+	/** @return UTF-8 bytes of the word of the given row, decoded from its bucket */
+	private byte[] getWordBytes(int row) {
+		Preconditions.checkElementIndex(row, vocabSize);
+		int rank = file.getInt(ranksOffset + 4L * row);
+		long[] position = { file.getLong(bucketsOffset + 8L * (rank / BUCKET_SIZE)) };
+		byte[] word = new byte[readVarInt(position)];
+		readBytes(position, word, 0, word.length);
+		for (int i = 0; i < rank % BUCKET_SIZE; i++) {
+			int shared = readVarInt(position);
+			int suffix = readVarInt(position);
+			word = Arrays.copyOf(word, shared + suffix);
+			readBytes(position, word, shared, suffix);
+		}
+		return word;
+	}
+
+	/** @return Unsigned LEB128 varint at the given position, which is advanced past it */
+	private int readVarInt(long[] position) {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = file.get(position[0]++);
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+	}
+
+	private void readBytes(long[] position, byte[] dst, int offset, int length) {
+		for (int i = 0; i < length; i++)
+			dst[offset + i] = file.get(position[0]++);
+	}
+
+	@Override public long vectorOffset(int row) {
+		return matrixOffset + 4L * layerSize * row;
+	}
+
+	@Override public float inverseNorm(int row) {
+		return file.getFloat(normsOffset + 4L * row);
+	}
+
+	@Override public MappedFile vectors() {
+		return file;
+	}
+}
@@ -0,0 +1,70 @@
+package word2vec.lite;
+
+import com.google.common.collect.AbstractIterator;
+import word2vec.lite.util.MappedFile;
+import word2vec.lite.util.TopK;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+
+/** Implementation of {@link Searcher} which reads the vectors of a {@link MappedVectors} from its mapping */
+class MappedSearcher extends AbstractSearcher {
+	private final MappedVectors model;
+
+	MappedSearcher(MappedVectors model) {
+		super(model.getLayerSize());
+		this.model = model;
+	}
+
+	@Override public boolean contains(String word) {
+		return model.row(word) >= 0;
+	}
+
+	@Override float[] getVectorOrNull(String word) {
+		int row = model.row(word);
+		if (row < 0)
+			return null;
+		float[] result = new float[layerSize];
+		model.vectors().getFloats(model.vectorOffset(row), result);
+		float inverseNorm = model.inverseNorm(row);
+		for (int a = 0; a < layerSize; a++)
+			result[a] *= inverseNorm;
+		return result;
+	}
+
+	@Override String word(int row) {
+		return model.getWord(row);
+	}
+
+	/** Scans the vectors in the mapping, only decoding the words of the best matches */
+	@Override public List<Match> getMatches(float[] vec, int maxNumMatches) {
+		MappedFile vectors = model.vectors();
+		TopK top = new TopK(Math.min(maxNumMatches, model.getVocabSize()));
+		for (int row = 0; row < model.getVocabSize(); row++) {
+			long position = model.vectorOffset(row);
+			ByteBuffer segment = vectors.segment(position);
+			int offset = MappedFile.offset(position);
+			double d = 0;
+			for (int a = 0; a < layerSize; a++)
+				d += vec[a] * segment.getFloat(offset + 4 * a);
+			top.offer(row, d * model.inverseNorm(row));
+		}
+		return toMatches(top);
+	}
+
+	/** @return Vocabulary of the given model, decoded from the mapping while iterating */
+	static Iterable<String> vocab(final MappedVectors model) {
+		return new Iterable<String>() {
+			@Override public Iterator<String> iterator() {
+				return new AbstractIterator<String>() {
+					private int row;
+
+					@Override protected String computeNext() {
+						return row < model.getVocabSize() ? model.getWord(row++) : endOfData();
+					}
+				};
+			}
+		};
+	}
+}
@@ -0,0 +1,27 @@
+package word2vec.lite;
+
+import word2vec.lite.util.MappedFile;
+
+/** Model whose vectors are read from a {@link MappedFile}, served by {@link MappedSearcher} */
+interface MappedVectors {
+	/** @return Number of words */
+	int getVocabSize();
+
+	/** @return Size of the vectors */
+	int getLayerSize();
+
+	/** @return Word of the given row */
+	String getWord(int row);
+
+	/** @return Row of the given word, or -1 if it isn't in the vocabulary */
+	int row(CharSequence word);
+
+	/** @return Mapping holding the vectors */
+	MappedFile vectors();
+
+	/** @return Position of the vector of the given row in {@link #vectors()} */
+	long vectorOffset(int row);
+
+	/** @return Inverse of the norm of the vector of the given row, 0 for a zero vector */
+	float inverseNorm(int row);
+}
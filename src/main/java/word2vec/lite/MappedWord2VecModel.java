@@ -0,0 +1,236 @@
+package word2vec.lite;
+
+import com.google.common.base.Preconditions;
+import word2vec.lite.util.ChannelWriter;
+import word2vec.lite.util.MappedFile;
+import word2vec.lite.util.Utf8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Word2vec model served straight from a memory-mapped binary file written by the C version of word2vec
+ * <p>
+ * Unlike {@link Word2VecModel#fromBinFile(File)}, neither the words nor the vectors are copied onto the heap.
+ * Instead, a companion index file next to the model holds the offset of every record, the norm of every vector
+ * and a hash table from the UTF-8 bytes of the words to their records.  The index is built by a single scan
+ * the first time a model is opened, and rebuilt when the model file changes.  After that, opening a model only
+ * maps both files, whatever their size, and several JVMs on one host share the mapped pages through the page cache.
+ * <p>
+ * The {@link Searcher} reads the vectors from the mapping, so the first searches after opening fault in the pages
+ * of the file.  Like the vectors of {@link Word2VecModel#forSearch()}, the vectors it returns have unit length.
+ */
+public final class MappedWord2VecModel implements MappedVectors {
+	/** Magic number at the start of index files, "W2VI" */
+	private static final int INDEX_MAGIC = 0x57325649;
+	private static final int INDEX_VERSION = 1;
+	/** Suffix of the index file next to a model file */
+	public static final String INDEX_SUFFIX = ".idx";
+	private static final int HEADER_BYTES = 48;
+	/** Marks an empty slot of the hash table */
+	private static final int EMPTY = -1;
+
+	private final MappedFile bin;
+	private final ByteBuffer index;
+	private final int vocabSize;
+	private final int layerSize;
+	private final int tableMask;
+	private final int lengthsOffset;
+	private final int normsOffset;
+	private final int tableOffset;
+
+	private MappedWord2VecModel(MappedFile bin, ByteBuffer index) {
+		this.bin = bin;
+		this.index = index;
+		this.vocabSize = index.getInt(24);
+		this.layerSize = index.getInt(28);
+		this.tableMask = index.getInt(36) - 1;
+		this.lengthsOffset = HEADER_BYTES + 8 * vocabSize;
+		this.normsOffset = lengthsOffset + 4 * vocabSize;
+		this.tableOffset = normsOffset + 4 * vocabSize;
+	}
+
+	/** Forwards to {@link #open(File, ByteOrder)} with the default ByteOrder.LITTLE_ENDIAN */
+	public static MappedWord2VecModel open(File binFile) throws IOException {
+		return open(binFile, ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * @return {@link MappedWord2VecModel} of the given binary file written by the C version of word2vec using the
+	 * given byte order, indexed by the file with the {@link #INDEX_SUFFIX} next to it, which is written if it is
+	 * missing or out of date
+	 */
+	public static MappedWord2VecModel open(File binFile, ByteOrder byteOrder) throws IOException {
+		return open(binFile, new File(binFile.getPath() + INDEX_SUFFIX), byteOrder);
+	}
+
+	/**
+	 * Like {@link #open(File, ByteOrder)}, with the index at the given location, e.g. when the directory of the
+	 * model isn't writable
+	 */
+	public static MappedWord2VecModel open(File binFile, File indexFile, ByteOrder byteOrder) throws IOException {
+		if (!isIndexCurrent(binFile, indexFile, byteOrder))
+			writeIndex(binFile, indexFile, byteOrder);
+
+		ByteBuffer index;
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+			FileChannel channel = raf.getChannel();
+			Preconditions.checkState(channel.size() <= Integer.MAX_VALUE, "Index file '%s' is too large", indexFile.getAbsolutePath());
+			index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		int layerSize = index.getInt(28);
+		return new MappedWord2VecModel(MappedFile.map(binFile, byteOrder, BinFileLayout.overlap(layerSize)), index);
+	}
+
+	/** @return true if the given index file was written for the current contents of the given model file */
+	private static boolean isIndexCurrent(File binFile, File indexFile, ByteOrder byteOrder) throws IOException {
+		if (!indexFile.isFile() || indexFile.length() < HEADER_BYTES)
+			return false;
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			raf.getChannel().read(header, 0);
+			return header.getInt(0) == INDEX_MAGIC
+					&& header.getInt(4) == INDEX_VERSION
+					&& header.getLong(8) == binFile.length()
+					&& header.getLong(16) == binFile.lastModified()
+					&& header.getInt(32) == (byteOrder == ByteOrder.BIG_ENDIAN ? 1 : 0);
+		}
+	}
+
+	/**
+	 * Writes the index of the given model file to the given index file, replacing it atomically
+	 * <p>
+	 * The index holds a header, the offset of each word, the length of each word, the inverse norm of each vector
+	 * and a hash table of row numbers, all little-endian.
+	 */
+	public static void writeIndex(File binFile, File indexFile, ByteOrder byteOrder) throws IOException {
+		BinFileLayout header = BinFileLayout.readHeader(binFile);
+		MappedFile bin = MappedFile.map(binFile, byteOrder, BinFileLayout.overlap(header.layerSize));
+		BinFileLayout layout = BinFileLayout.scan(bin, header);
+		int vocabSize = layout.vocabSize;
+
+		int tableSize = Integer.highestOneBit(Math.max(2 * vocabSize, 2) - 1) << 1;
+		Preconditions.checkState(HEADER_BYTES + 16L * vocabSize + 4L * tableSize <= Integer.MAX_VALUE,
+				"Too many words to index: %s", vocabSize);
+		int[] table = new int[tableSize];
+		Arrays.fill(table, EMPTY);
+		byte[] word = new byte[BinFileLayout.MAX_WORD_BYTES];
+		for (int i = 0; i < vocabSize; i++) {
+			bin.get(layout.wordOffsets[i], word, layout.wordLengths[i]);
+			int slot = slot(Utf8.hash(word, 0, layout.wordLengths[i]), tableSize - 1);
+			while (table[slot] != EMPTY)
+				slot = (slot + 1) & (tableSize - 1);
+			table[slot] = i;
+		}
+
+		File tmp = new File(indexFile.getPath() + ".tmp");
+		try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+			raf.setLength(0);
+			try (ChannelWriter out = new ChannelWriter(raf.getChannel(), ByteOrder.LITTLE_ENDIAN, 1 << 20)) {
+				out.putInt(INDEX_MAGIC);
+				out.putInt(INDEX_VERSION);
+				out.putLong(binFile.length());
+				out.putLong(binFile.lastModified());
+				out.putInt(vocabSize);
+				out.putInt(layout.layerSize);
+				out.putInt(byteOrder == ByteOrder.BIG_ENDIAN ? 1 : 0);
+				out.putInt(tableSize);
+				out.putLong(0);
+				for (int i = 0; i < vocabSize; i++)
+					out.putLong(layout.wordOffsets[i]);
+				for (int i = 0; i < vocabSize; i++)
+					out.putInt(layout.wordLengths[i]);
+				for (int i = 0; i < vocabSize; i++)
+					out.putFloat(inverseNorm(bin, layout.vectorOffset(i), layout.layerSize));
+				for (int row : table)
+					out.putInt(row);
+			}
+		}
+		Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/** @return Inverse of the norm of the vector at the given position, 0 for a zero vector */
+	static float inverseNorm(MappedFile bin, long position, int layerSize) {
+		ByteBuffer segment = bin.segment(position);
+		int offset = MappedFile.offset(position);
+		double len = 0;
+		for (int a = 0; a < layerSize; a++) {
+			float v = segment.getFloat(offset + 4 * a);
+			len += v * v;
+		}
+		return len == 0 ? 0 : (float)(1 / Math.sqrt(len));
+	}
+
+	/** @return Slot of the hash table of the given size - 1 where the probing for the given hash starts */
+	static int slot(int hash, int mask) {
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/** @return Size of the vectors */
+	@Override public int getLayerSize() {
+		return layerSize;
+	}
+
+	/** @return Number of words */
+	@Override public int getVocabSize() {
+		return vocabSize;
+	}
+
+	/** @return Word of the given row */
+	@Override public String getWord(int row) {
+		Preconditions.checkElementIndex(row, vocabSize);
+		long position = wordOffset(row);
+		return Utf8.decode(bin.segment(position), MappedFile.offset(position), wordLength(row));
+	}
+
+	/** @return Vocabulary, decoded from the mapping while iterating */
+	public Iterable<String> getVocab() {
+		return MappedSearcher.vocab(this);
+	}
+
+	/** @return {@link Searcher} reading from the mapping */
+	public Searcher forSearch() {
+		return new MappedSearcher(this);
+	}
+
+	@Override public int row(CharSequence word) {
+		byte[] bytes = Utf8.encode(word);
+		int slot = slot(Utf8.hash(bytes, 0, bytes.length), tableMask);
+		while (true) {
+			int row = index.getInt(tableOffset + 4 * slot);
+			if (row == EMPTY)
+				return -1;
+			long position = wordOffset(row);
+			if (Utf8.equals(bin.segment(position), MappedFile.offset(position), wordLength(row), bytes))
+				return row;
+			slot = (slot + 1) & tableMask;
+		}
+	}
+
+	private long wordOffset(int row) {
+		return index.getLong(HEADER_BYTES + 8 * row);
+	}
+
+	private int wordLength(int row) {
+		return index.getInt(lengthsOffset + 4 * row);
+	}
+
+	@Override public long vectorOffset(int row) {
+		return wordOffset(row) + wordLength(row) + 1;
+	}
+
+	@Override public float inverseNorm(int row) {
+		return index.getFloat(normsOffset + 4 * row);
+	}
+
+	@Override public MappedFile vectors() {
+		return bin;
+	}
+}
@@ -0,0 +1,457 @@
+package word2vec.lite;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import word2vec.lite.util.HalfFloat;
+import word2vec.lite.util.PrefetchingChannel;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+/**
+ * Builder pattern for converting a model file from one format to another without reading the whole model
+ * <p>
+ * Records are read one at a time from the input, see {@link RecordReader}, filtered and normalized as they are read,
+ * and written in batches of a few blocks per thread, each block encoded in parallel like
+ * {@link BinFiles#write(Word2VecModel, File)}.  Only one batch of vectors is held at a time, so the memory used
+ * doesn't depend on the size of the model, and the input is read ahead on another thread, e.g. decompressing
+ * while the previous batch is written.
+ * <p>
+ * If records are filtered, or the input is GloVe, the number of words in the header line of the word2vec formats is
+ * only known at the end.  It is then written padded with leading spaces to the width of its upper bound, and
+ * rewritten in place once the input is read; the C version and this library skip the spaces.  The formats of
+ * {@link HalfWord2VecModel} and {@link QuantizedWord2VecModel} store all of the words before all of the values, so
+ * the values are spilled to a temporary file next to the output, which is appended once all of the words are written.
+ */
+public class ModelConverterBuilder {
+	/** Formats of model files */
+	public enum Format {
+		/** Binary format of the C version of word2vec, see {@link BinFiles} */
+		BIN,
+		/** Text format of the C version of word2vec, with a header line, see {@link TextFiles} */
+		TEXT,
+		/** Text format of GloVe, without a header line, see {@link TextFiles} */
+		GLOVE,
+		/** Format of {@link HalfWord2VecModel}, only written */
+		HALF,
+		/** Format of {@link QuantizedWord2VecModel}, only written */
+		QUANTIZED,
+	}
+
+	private Integer numThreads;
+	private ByteOrder byteOrder;
+	private Integer maxWords;
+	private Set<String> words;
+	private boolean normalize;
+	private HalfFloat halfFloat;
+
+	ModelConverterBuilder() {
+	}
+
+	/**
+	 * Specify number of threads to use for encoding the output
+	 * <p>
+	 * Defaults to {@link Runtime#availableProcessors()}
+	 */
+	public ModelConverterBuilder useNumThreads(int numThreads) {
+		Preconditions.checkArgument(numThreads > 0, "Value must be positive");
+		this.numThreads = numThreads;
+		return this;
+	}
+
+	/**
+	 * Byte order of the floats of a {@link Format#BIN} input; the output is always written like the C version
+	 * <p>
+	 * Defaults to {@link ByteOrder#LITTLE_ENDIAN}
+	 */
+	public ModelConverterBuilder setByteOrder(ByteOrder byteOrder) {
+		this.byteOrder = Preconditions.checkNotNull(byteOrder);
+		return this;
+	}
+
+	/**
+	 * Only convert the first maxWords records of the input, which are those of the most frequent words in files
+	 * written by the C version.  The rest of the input isn't read.
+	 * <p>
+	 * Defaults to all of the records
+	 */
+	public ModelConverterBuilder setMaxWords(int maxWords) {
+		Preconditions.checkArgument(maxWords > 0, "Value must be positive");
+		this.maxWords = maxWords;
+		return this;
+	}
+
+	/**
+	 * Only convert the first record of each of the given words, in input order.  The rest of the input isn't read
+	 * once all of the words are found.
+	 * <p>
+	 * Defaults to all of the words
+	 */
+	public ModelConverterBuilder setWords(Collection<String> words) {
+		this.words = ImmutableSet.copyOf(words);
+		return this;
+	}
+
+	/**
+	 * Scale the vectors to unit length, leaving zero vectors as they are.  Vectors are always scaled in the
+	 * {@link Format#HALF} and {@link Format#QUANTIZED} formats.
+	 * <p>
+	 * Disabled by default
+	 */
+	public ModelConverterBuilder normalize() {
+		this.normalize = true;
+		return this;
+	}
+
+	/**
+	 * Format of the values of a {@link Format#HALF} output
+	 * <p>
+	 * Defaults to {@link HalfFloat#FLOAT16}
+	 */
+	public ModelConverterBuilder setHalfFloat(HalfFloat halfFloat) {
+		this.halfFloat = Preconditions.checkNotNull(halfFloat);
+		return this;
+	}
+
+	/**
+	 * Converts the given file, which may be gzipped, into the given output file
+	 * @return Number of words written
+	 */
+	public int convert(File input, Format inputFormat, File output, Format outputFormat) throws IOException {
+		try (InputStream in = new FileInputStream(input)) {
+			return convert(BinFiles.channel(in), "file '" + input.getAbsolutePath() + "'", inputFormat, output, outputFormat);
+		}
+	}
+
+	/**
+	 * Converts the given stream, decompressing it if it is gzipped, into the given output file; the stream is not closed
+	 * @return Number of words written
+	 */
+	public int convert(InputStream in, Format inputFormat, File output, Format outputFormat) throws IOException {
+		return convert(BinFiles.channel(in), "stream", inputFormat, output, outputFormat);
+	}
+
+	private int convert(ReadableByteChannel channel, String source, Format inputFormat, File output, Format outputFormat) throws IOException {
+		Preconditions.checkArgument(inputFormat != Format.HALF && inputFormat != Format.QUANTIZED, "Can't convert from %s", inputFormat);
+		int numThreads = MoreObjects.firstNonNull(this.numThreads, Runtime.getRuntime().availableProcessors());
+		ByteOrder byteOrder = MoreObjects.firstNonNull(this.byteOrder, ByteOrder.LITTLE_ENDIAN);
+		int maxWords = MoreObjects.firstNonNull(this.maxWords, Integer.MAX_VALUE);
+
+		ListeningExecutorService ex = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(numThreads,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("word2vec-convert-%d").build()));
+		try (PrefetchingChannel prefetching = new PrefetchingChannel(channel, BinFiles.BLOCK_BYTES, 2);
+				RandomAccessFile raf = new RandomAccessFile(output, "rw")) {
+			RecordReader reader = inputFormat == Format.BIN
+					? new BinRecordReader(prefetching, byteOrder, source)
+					: new TextRecordReader(prefetching, source);
+			int layerSize = reader.getLayerSize();
+			int maxRecords = Math.min(maxWords, words == null ? Integer.MAX_VALUE : words.size());
+			if (reader.getVocabSize() >= 0)
+				maxRecords = Math.min(maxRecords, reader.getVocabSize());
+
+			raf.setLength(0);
+			try (Output out = output(outputFormat, raf.getChannel(), output, layerSize)) {
+				out.start(maxRecords);
+				int batchSize = numThreads * out.recordsPerBlock();
+				float[][] vectors = new float[batchSize][layerSize];
+				List<String> batch = new ArrayList<>(batchSize);
+				ByteBuffer[] buffers = new ByteBuffer[numThreads];
+				Set<String> found = new HashSet<>();
+				int records = 0;
+				int written = 0;
+				String word;
+				while (records < maxWords && (words == null || found.size() < words.size()) && (word = reader.readWord()) != null) {
+					records++;
+					if (words != null && !(words.contains(word) && found.add(word))) {
+						reader.readVector(vectors[batch.size()]);
+						continue;
+					}
+					float[] vector = vectors[batch.size()];
+					reader.readVector(vector);
+					if (normalize)
+						normalize(vector);
+					batch.add(word);
+					if (batch.size() == batchSize) {
+						written += write(out, batch, vectors, ex, buffers);
+						batch.clear();
+					}
+				}
+				if (!batch.isEmpty())
+					written += write(out, batch, vectors, ex, buffers);
+				Preconditions.checkState(written > 0, "No words to convert in %s", source);
+				out.finish(written);
+				return written;
+			}
+		} finally {
+			ex.shutdownNow();
+		}
+	}
+
+	/** @return Number of words of the given batch, after writing them with the first vectors */
+	private static int write(Output out, List<String> batch, float[][] vectors, ListeningExecutorService ex, ByteBuffer[] buffers) throws IOException {
+		out.write(new Word2VecModel(batch, Arrays.copyOf(vectors, batch.size())), ex, buffers);
+		return batch.size();
+	}
+
+	/** Scales the given vector to unit length, unless it is a zero vector */
+	private static void normalize(float[] vector) {
+		double len = Math.sqrt(AbstractSearcher.dot(vector, vector));
+		if (len > 0) {
+			for (int a = 0; a < vector.length; a++)
+				vector[a] /= len;
+		}
+	}
+
+	private Output output(Format format, FileChannel channel, File file, int layerSize) {
+		switch (format) {
+			case BIN:
+			case TEXT:
+			case GLOVE:
+				return new RecordOutput(channel, layerSize, format);
+			case HALF:
+				return new HalfOutput(channel, file, layerSize, MoreObjects.firstNonNull(halfFloat, HalfFloat.FLOAT16));
+			case QUANTIZED:
+				return new QuantizedOutput(channel, file, layerSize);
+			default:
+				throw new IllegalArgumentException("Unknown format " + format);
+		}
+	}
+
+	/** Writes the records of a model file in batches, at the position of a channel */
+	private abstract static class Output implements Closeable {
+		final FileChannel channel;
+		final int layerSize;
+
+		Output(FileChannel channel, int layerSize) {
+			this.channel = channel;
+			this.layerSize = layerSize;
+		}
+
+		/** @return Number of records encoded by each task */
+		abstract int recordsPerBlock();
+
+		/** Writes the start of the file, for at most the given number of records */
+		abstract void start(int maxRecords) throws IOException;
+
+		/** Writes the records of the given batch, encoding blocks on the given executor into the given buffers */
+		abstract void write(Word2VecModel batch, ListeningExecutorService ex, ByteBuffer[] buffers) throws IOException;
+
+		/** Completes the file with the given number of records written */
+		abstract void finish(int numRecords) throws IOException;
+
+		@Override public void close() throws IOException {
+		}
+	}
+
+	/** Writes the word2vec and GloVe formats, whose records are written as they come */
+	private static final class RecordOutput extends Output {
+		private final Format format;
+		/** Width of the number of words in the header line */
+		private int width;
+
+		RecordOutput(FileChannel channel, int layerSize, Format format) {
+			super(channel, layerSize);
+			this.format = format;
+		}
+
+		@Override int recordsPerBlock() {
+			return format == Format.BIN ? BinFiles.recordsPerBlock(layerSize) : TextFiles.recordsPerBlock(layerSize);
+		}
+
+		@Override void start(int maxRecords) throws IOException {
+			if (format != Format.GLOVE) {
+				width = Integer.toString(maxRecords).length();
+				BinFiles.write(channel, new ByteBuffer[] { header(maxRecords) });
+			}
+		}
+
+		@Override void write(final Word2VecModel batch, ListeningExecutorService ex, ByteBuffer[] buffers) throws IOException {
+			BinFiles.writeBlocks(channel, batch.vocab.size(), recordsPerBlock(), new BinFiles.BlockEncoder() {
+				@Override public ByteBuffer encode(int start, int end, ByteBuffer buffer) {
+					return format == Format.BIN
+							? BinFiles.encode(batch, start, end, buffer, true)
+							: TextFiles.encode(batch, start, end, buffer, format == Format.TEXT);
+				}
+			}, ex, buffers);
+		}
+
+		@Override void finish(int numRecords) throws IOException {
+			channel.truncate(channel.position());
+			if (format != Format.GLOVE) {
+				ByteBuffer header = header(numRecords);
+				for (long position = 0; header.hasRemaining(); )
+					position += channel.write(header, position);
+			}
+		}
+
+		/** @return Header line of the given number of words, padded to the width of the header line written first */
+		private ByteBuffer header(int numRecords) {
+			return ByteBuffer.wrap(String.format("%" + width + "d %d\n", numRecords, layerSize).getBytes(Charsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Writes the formats of the models of this library, which store all of the words, then all of the values.
+	 * Words are written as they come and values are spilled to a temporary file, appended at the end.
+	 */
+	private abstract static class SectionedOutput extends Output {
+		private final File file;
+		private DataOutputStream data;
+		private File valuesFile;
+		private RandomAccessFile values;
+		/** Number of records written so far */
+		int recordsWritten;
+
+		SectionedOutput(FileChannel channel, File file, int layerSize) {
+			super(channel, layerSize);
+			this.file = file;
+		}
+
+		/** Writes the header of a file of the given number of words, which has the same length for any number */
+		abstract void writeHeader(DataOutput out, int numRecords) throws IOException;
+
+		/** Encodes the values of the records [start, end) of the given batch, which are the records [offset + start, offset + end) of the file */
+		abstract ByteBuffer encode(Word2VecModel batch, int offset, int start, int end, ByteBuffer buffer);
+
+		/** Writes what the format stores between the words and the values of the given number of records */
+		void writeMiddle(DataOutput out, int numRecords) throws IOException {
+		}
+
+		@Override void start(int maxRecords) throws IOException {
+			data = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+			writeHeader(data, maxRecords);
+			File dir = file.getAbsoluteFile().getParentFile();
+			valuesFile = File.createTempFile(file.getName(), ".values", dir);
+			values = new RandomAccessFile(valuesFile, "rw");
+		}
+
+		@Override void write(final Word2VecModel batch, ListeningExecutorService ex, ByteBuffer[] buffers) throws IOException {
+			final int offset = recordsWritten;
+			batch.vocab.writeTo(data);
+			BinFiles.writeBlocks(values.getChannel(), batch.vocab.size(), recordsPerBlock(), new BinFiles.BlockEncoder() {
+				@Override public ByteBuffer encode(int start, int end, ByteBuffer buffer) {
+					return SectionedOutput.this.encode(batch, offset, start, end, buffer);
+				}
+			}, ex, buffers);
+			recordsWritten += batch.vocab.size();
+		}
+
+		@Override void finish(int numRecords) throws IOException {
+			writeMiddle(data, numRecords);
+			data.flush();
+			FileChannel valuesChannel = values.getChannel();
+			for (long position = 0, size = valuesChannel.size(); position < size; )
+				position += valuesChannel.transferTo(position, size - position, channel);
+			channel.truncate(channel.position());
+
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			writeHeader(new DataOutputStream(header), numRecords);
+			ByteBuffer buffer = ByteBuffer.wrap(header.toByteArray());
+			for (long position = 0; buffer.hasRemaining(); )
+				position += channel.write(buffer, position);
+		}
+
+		@Override public void close() throws IOException {
+			if (values != null)
+				values.close();
+			if (valuesFile != null && !valuesFile.delete())
+				valuesFile.deleteOnExit();
+		}
+	}
+
+	/** Writes the format of {@link HalfWord2VecModel} */
+	private static final class HalfOutput extends SectionedOutput {
+		private final HalfFloat format;
+
+		HalfOutput(FileChannel channel, File file, int layerSize, HalfFloat format) {
+			super(channel, file, layerSize);
+			this.format = format;
+		}
+
+		@Override int recordsPerBlock() {
+			return Math.max(1, BinFiles.BLOCK_BYTES / (2 * layerSize));
+		}
+
+		@Override void writeHeader(DataOutput out, int numRecords) throws IOException {
+			HalfWord2VecModel.writeHeader(out, numRecords, layerSize, format);
+		}
+
+		@Override ByteBuffer encode(Word2VecModel batch, int offset, int start, int end, ByteBuffer buffer) {
+			int size = 2 * (end - start) * layerSize;
+			if (buffer == null || buffer.capacity() < size)
+				buffer = ByteBuffer.allocateDirect(size);
+			buffer.clear();
+			ShortBuffer shorts = buffer.asShortBuffer();
+			for (int i = start; i < end; i++)
+				HalfWord2VecModel.encode(batch.vectors[i], format, shorts);
+			buffer.limit(size);
+			return buffer;
+		}
+	}
+
+	/** Writes the format of {@link QuantizedWord2VecModel}, keeping the scales, a float per word, in memory */
+	private static final class QuantizedOutput extends SectionedOutput {
+		private float[] scales = new float[1 << 10];
+
+		QuantizedOutput(FileChannel channel, File file, int layerSize) {
+			super(channel, file, layerSize);
+		}
+
+		@Override int recordsPerBlock() {
+			return Math.max(1, BinFiles.BLOCK_BYTES / layerSize);
+		}
+
+		@Override void writeHeader(DataOutput out, int numRecords) throws IOException {
+			QuantizedWord2VecModel.writeHeader(out, numRecords, layerSize);
+		}
+
+		@Override void write(Word2VecModel batch, ListeningExecutorService ex, ByteBuffer[] buffers) throws IOException {
+			int size = recordsWritten + batch.vocab.size();
+			if (size > scales.length)
+				scales = Arrays.copyOf(scales, (int)Math.min(Integer.MAX_VALUE - 8, Math.max(size, 2L * scales.length)));
+			super.write(batch, ex, buffers);
+		}
+
+		@Override ByteBuffer encode(Word2VecModel batch, int offset, int start, int end, ByteBuffer buffer) {
+			int size = (end - start) * layerSize;
+			if (buffer == null || buffer.capacity() < size)
+				buffer = ByteBuffer.allocate(size);
+			buffer.clear();
+			for (int i = start; i < end; i++)
+				scales[offset + i] = QuantizedWord2VecModel.quantizeUnit(batch.vectors[i], buffer.array(), (i - start) * layerSize);
+			buffer.limit(size);
+			return buffer;
+		}
+
+		@Override void writeMiddle(DataOutput out, int numRecords) throws IOException {
+			for (int i = 0; i < numRecords; i++)
+				out.writeFloat(scales[i]);
+		}
+	}
+}
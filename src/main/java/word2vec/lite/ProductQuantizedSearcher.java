@@ -0,0 +1,73 @@
+package word2vec.lite;
+
+import word2vec.lite.util.TopK;
+
+import java.util.List;
+
+/**
+ * Implementation of {@link Searcher} for a {@link ProductQuantizedWord2VecModel}
+ * <p>
+ * Distances are asymmetric: the vector searched for isn't quantized.  Instead, its dot product with every centroid
+ * of every subspace is computed once per search into a lookup table, and the scan over the words only adds up one
+ * table entry per byte of their codes.
+ */
+class ProductQuantizedSearcher extends AbstractSearcher {
+	private final ProductQuantizedWord2VecModel model;
+	/** Model the vectors were quantized from, or null to rank by the quantized vectors only */
+	private final Word2VecModel original;
+	private final int rerankDepth;
+
+	ProductQuantizedSearcher(ProductQuantizedWord2VecModel model, Word2VecModel original, int rerankDepth) {
+		super(model.layerSize);
+		this.model = model;
+		this.original = original;
+		this.rerankDepth = rerankDepth;
+	}
+
+	@Override public boolean contains(String word) {
+		return model.vocab.row(word) >= 0;
+	}
+
+	@Override float[] getVectorOrNull(String word) {
+		int row = model.vocab.row(word);
+		if (row < 0)
+			return null;
+		return normalize(original == null
+				? model.reconstruct(row)
+				: original.vectors[row].clone());
+	}
+
+	@Override String word(int row) {
+		return model.vocab.get(row);
+	}
+
+	@Override public List<Match> getMatches(float[] vec, int maxNumMatches) {
+		int numSubspaces = model.numSubspaces;
+		int numCentroids = model.numCentroids;
+		float[] table = new float[numSubspaces * numCentroids];
+		for (int m = 0; m < numSubspaces; m++) {
+			int start = model.bounds[m];
+			int dims = model.bounds[m + 1] - start;
+			float[] codebook = model.codebooks[m];
+			for (int c = 0; c < numCentroids; c++) {
+				float d = 0;
+				for (int a = 0; a < dims; a++)
+					d += vec[start + a] * codebook[c * dims + a];
+				table[m * numCentroids + c] = d;
+			}
+		}
+
+		byte[] codes = model.codes;
+		int vocabSize = model.vocab.size();
+		TopK top = new TopK(Math.min(original == null ? maxNumMatches : Math.max(maxNumMatches, rerankDepth), vocabSize));
+		for (int row = 0, offset = 0; row < vocabSize; row++, offset += numSubspaces) {
+			float d = 0;
+			for (int m = 0; m < numSubspaces; m++)
+				d += table[m * numCentroids + (codes[offset + m] & 0xFF)];
+			top.offer(row, d);
+		}
+		return toMatches(original == null
+				? top
+				: rerank(top, original.vectors, vec, maxNumMatches));
+	}
+}
@@ -0,0 +1,185 @@
+package word2vec.lite;
+
+import com.google.common.base.Preconditions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Word2vec model whose vectors are product quantized, taking a byte per subspace for each word
+ * <p>
+ * The dimensions of the vectors are split into subspaces of consecutive dimensions.  Each subspace has a codebook of
+ * up to 256 centroids, learned with k-means over the parts of the vectors scaled to unit length in that subspace,
+ * and each word is stored as the index of the nearest centroid in each subspace.  Instances are obtained via
+ * {@link #builder()} or {@link #fromFile(File)}.
+ * <p>
+ * The {@link Searcher} computes, for each search, the dot products of the vector searched for with every centroid,
+ * so that the score of a word is the sum of one table entry per subspace.  It can rerank the best candidates with
+ * the original vectors, see {@link #forSearch(Word2VecModel, int)}.
+ */
+public final class ProductQuantizedWord2VecModel {
+	/** Magic number at the start of product quantized model files, "W2VP" */
+	private static final int MAGIC = 0x57325650;
+	private static final int VERSION = 1;
+	/** Number of candidates reranked by {@link #forSearch(Word2VecModel)} */
+	public static final int DEFAULT_RERANK_DEPTH = 100;
+
+	final Vocabulary vocab;
+	final int layerSize;
+	final int numSubspaces;
+	final int numCentroids;
+	/** First dimension of each subspace, and the layer size */
+	final int[] bounds;
+	/** Centroids of each subspace, one after the other */
+	final float[][] codebooks;
+	/** Centroid of each subspace of the vectors, row after row */
+	final byte[] codes;
+
+	ProductQuantizedWord2VecModel(Vocabulary vocab, int layerSize, int numCentroids, float[][] codebooks, byte[] codes) {
+		this.vocab = vocab;
+		this.layerSize = layerSize;
+		this.numSubspaces = codebooks.length;
+		this.numCentroids = numCentroids;
+		this.bounds = bounds(layerSize, numSubspaces);
+		this.codebooks = codebooks;
+		this.codes = codes;
+	}
+
+	/** @return First dimension of each of the given number of subspaces, which differ in size by at most 1, and the layer size */
+	static int[] bounds(int layerSize, int numSubspaces) {
+		int[] bounds = new int[numSubspaces + 1];
+		for (int m = 0; m <= numSubspaces; m++)
+			bounds[m] = layerSize * m / numSubspaces;
+		return bounds;
+	}
+
+	/** @return {@link ProductQuantizerBuilder} for quantizing a model */
+	public static ProductQuantizerBuilder builder() {
+		return new ProductQuantizerBuilder();
+	}
+
+	/** @return Size of the vectors */
+	public int getLayerSize() {
+		return layerSize;
+	}
+
+	/** @return Number of subspaces, which is the number of bytes stored per word */
+	public int getNumSubspaces() {
+		return numSubspaces;
+	}
+
+	/** @return Vocabulary, shared with the {@link Word2VecModel} this was made from */
+	public Vocabulary getVocab() {
+		return vocab;
+	}
+
+	/** @return {@link Searcher} ranking matches by their quantized vectors only */
+	public Searcher forSearch() {
+		return new ProductQuantizedSearcher(this, null, 0);
+	}
+
+	/** Forwards to {@link #forSearch(Word2VecModel, int)} with {@link #DEFAULT_RERANK_DEPTH} */
+	public Searcher forSearch(Word2VecModel original) {
+		return forSearch(original, DEFAULT_RERANK_DEPTH);
+	}
+
+	/**
+	 * @param original Model this was quantized from, whose vectors are used for the words searched for and for
+	 * reranking; it is left unchanged
+	 * @param rerankDepth Number of the best matches by quantized vectors which are reranked with the original vectors,
+	 * at least the number of matches asked for
+	 * @return {@link Searcher} ranking matches by their quantized vectors, then reranking the best of them
+	 */
+	public Searcher forSearch(Word2VecModel original, int rerankDepth) {
+		Preconditions.checkArgument(original.vocab.equals(vocab) && original.layerSize == layerSize,
+				"Model is not the original of this model");
+		Preconditions.checkArgument(rerankDepth > 0, "Value must be positive");
+		return new ProductQuantizedSearcher(this, original, rerankDepth);
+	}
+
+	/** @return {@link ProductQuantizedWord2VecModel} read from the given file, see {@link #toFile(OutputStream)} */
+	public static ProductQuantizedWord2VecModel fromFile(File file) throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			return fromFile(in);
+		}
+	}
+
+	/** @return {@link ProductQuantizedWord2VecModel} read from the given stream; the stream is not closed */
+	public static ProductQuantizedWord2VecModel fromFile(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+		int magic = data.readInt();
+		Preconditions.checkState(magic == MAGIC, "Not a product quantized model file, found magic %s", Integer.toHexString(magic));
+		int version = data.readInt();
+		Preconditions.checkState(version == VERSION, "Unsupported product quantized model version %s", version);
+
+		int vocabSize = data.readInt();
+		int layerSize = data.readInt();
+		int numSubspaces = data.readInt();
+		int numCentroids = data.readInt();
+		Preconditions.checkState(vocabSize >= 0 && 0 < numSubspaces && numSubspaces <= layerSize
+				&& (long)vocabSize * numSubspaces <= Integer.MAX_VALUE,
+				"Invalid model size: %s words of %s subspaces of %s values", vocabSize, numSubspaces, layerSize);
+		Preconditions.checkState(0 < numCentroids && numCentroids <= 256, "Invalid number of centroids %s", numCentroids);
+		Vocabulary vocab = Vocabulary.readFrom(data, vocabSize);
+		int[] bounds = bounds(layerSize, numSubspaces);
+		float[][] codebooks = new float[numSubspaces][];
+		for (int m = 0; m < numSubspaces; m++) {
+			codebooks[m] = new float[numCentroids * (bounds[m + 1] - bounds[m])];
+			for (int i = 0; i < codebooks[m].length; i++)
+				codebooks[m][i] = data.readFloat();
+		}
+		byte[] codes = new byte[vocabSize * numSubspaces];
+		data.readFully(codes);
+		return new ProductQuantizedWord2VecModel(vocab, layerSize, numCentroids, codebooks, codes);
+	}
+
+	/** Writes this model to the given file, see {@link #toFile(OutputStream)} */
+	public void toFile(File file) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			toFile(out);
+		}
+	}
+
+	/**
+	 * Writes this model to the given stream; the stream is flushed but not closed
+	 * <p>
+	 * The layout is the magic number, a version, the number of words, the size of the vectors, the number of
+	 * subspaces and of centroids per subspace, then for each word its UTF-8 byte length and its bytes, the centroids
+	 * of each subspace, and the codes row after row.  All integers and floats are big endian.
+	 */
+	public void toFile(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(vocab.size());
+		data.writeInt(layerSize);
+		data.writeInt(numSubspaces);
+		data.writeInt(numCentroids);
+		vocab.writeTo(data);
+		for (float[] codebook : codebooks) {
+			for (float v : codebook)
+				data.writeFloat(v);
+		}
+		data.write(codes);
+		data.flush();
+	}
+
+	/** @return Vector of the given row, made of the centroids of its codes */
+	float[] reconstruct(int row) {
+		float[] vector = new float[layerSize];
+		for (int m = 0; m < numSubspaces; m++) {
+			int dims = bounds[m + 1] - bounds[m];
+			int centroid = codes[row * numSubspaces + m] & 0xFF;
+			System.arraycopy(codebooks[m], centroid * dims, vector, bounds[m], dims);
+		}
+		return vector;
+	}
+}
@@ -0,0 +1,221 @@
+package word2vec.lite;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builder pattern for quantizing a {@link Word2VecModel} into a {@link ProductQuantizedWord2VecModel}
+ * <p>
+ * The codebook of each subspace is learned with Lloyd's k-means over a sample of the vectors, scaled to unit length,
+ * starting from distinct vectors of the sample.  Centroids left without vectors are moved to a random vector of the
+ * sample.  Subspaces are learned and encoded in parallel, each with a random generator of its own, so the result
+ * doesn't depend on the number of threads.
+ */
+public class ProductQuantizerBuilder {
+	private Integer numSubspaces;
+	private Integer numCentroids;
+	private Integer iterations;
+	private Integer sampleSize;
+	private Integer numThreads;
+
+	ProductQuantizerBuilder() {
+	}
+
+	/**
+	 * Number of subspaces the dimensions are split into, which is the number of bytes stored per word
+	 * <p>
+	 * Defaults to an eighth of the layer size
+	 */
+	public ProductQuantizerBuilder setNumSubspaces(int numSubspaces) {
+		Preconditions.checkArgument(numSubspaces > 0, "Value must be positive");
+		this.numSubspaces = numSubspaces;
+		return this;
+	}
+
+	/**
+	 * Number of centroids of each subspace, at most 256 so that codes fit in a byte
+	 * <p>
+	 * Defaults to 256
+	 */
+	public ProductQuantizerBuilder setNumCentroids(int numCentroids) {
+		Preconditions.checkArgument(numCentroids > 0 && numCentroids <= 256, "Value must be between 1 and 256");
+		this.numCentroids = numCentroids;
+		return this;
+	}
+
+	/**
+	 * Number of iterations of k-means
+	 * <p>
+	 * Defaults to 25
+	 */
+	public ProductQuantizerBuilder setIterations(int iterations) {
+		Preconditions.checkArgument(iterations > 0, "Value must be positive");
+		this.iterations = iterations;
+		return this;
+	}
+
+	/**
+	 * Number of vectors the codebooks are learned from
+	 * <p>
+	 * Defaults to 100,000
+	 */
+	public ProductQuantizerBuilder setSampleSize(int sampleSize) {
+		Preconditions.checkArgument(sampleSize > 0, "Value must be positive");
+		this.sampleSize = sampleSize;
+		return this;
+	}
+
+	/**
+	 * Specify number of threads to use for learning and encoding
+	 * <p>
+	 * Defaults to {@link Runtime#availableProcessors()}
+	 */
+	public ProductQuantizerBuilder useNumThreads(int numThreads) {
+		Preconditions.checkArgument(numThreads > 0, "Value must be positive");
+		this.numThreads = numThreads;
+		return this;
+	}
+
+	/** @return {@link ProductQuantizedWord2VecModel} of the given model, which is left unchanged */
+	public ProductQuantizedWord2VecModel quantize(Word2VecModel model) throws InterruptedException {
+		this.numSubspaces = MoreObjects.firstNonNull(numSubspaces, Math.max(1, model.layerSize / 8));
+		this.numCentroids = MoreObjects.firstNonNull(numCentroids, 256);
+		this.iterations = MoreObjects.firstNonNull(iterations, 25);
+		this.sampleSize = MoreObjects.firstNonNull(sampleSize, 100_000);
+		this.numThreads = MoreObjects.firstNonNull(numThreads, Runtime.getRuntime().availableProcessors());
+		Preconditions.checkArgument(numSubspaces <= model.layerSize, "More subspaces than dimensions: %s", numSubspaces);
+
+		final float[][] vectors = model.vectors;
+		final int vocabSize = vectors.length;
+		Preconditions.checkArgument((long)vocabSize * numSubspaces <= Integer.MAX_VALUE, "Model is too large to quantize: %s words", vocabSize);
+		final float[] inverseNorms = new float[vocabSize];
+		for (int i = 0; i < vocabSize; i++) {
+			double len = Math.sqrt(AbstractSearcher.dot(vectors[i], vectors[i]));
+			inverseNorms[i] = len == 0 ? 0 : (float)(1 / len);
+		}
+
+		List<Integer> rows = new ArrayList<>(vocabSize);
+		for (int i = 0; i < vocabSize; i++)
+			rows.add(i);
+		Collections.shuffle(rows, new Random(1));
+		final int[] sample = new int[Math.min(sampleSize, vocabSize)];
+		for (int i = 0; i < sample.length; i++)
+			sample[i] = rows.get(i);
+		final int k = Math.min(numCentroids, sample.length);
+
+		final int[] bounds = ProductQuantizedWord2VecModel.bounds(model.layerSize, numSubspaces);
+		final float[][] codebooks = new float[numSubspaces][];
+		final byte[] codes = new byte[vocabSize * numSubspaces];
+		ExecutorService ex = Executors.newFixedThreadPool(numThreads,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("product-quantizer-%d").build());
+		try {
+			List<Future<?>> futures = new ArrayList<>(numSubspaces);
+			for (int m = 0; m < numSubspaces; m++) {
+				final int subspace = m;
+				futures.add(ex.submit(new Callable<Void>() {
+					@Override public Void call() {
+						Subspace s = new Subspace(vectors, inverseNorms, bounds[subspace], bounds[subspace + 1] - bounds[subspace], k);
+						s.learn(sample, iterations, new Random(subspace));
+						for (int i = 0; i < vocabSize; i++)
+							codes[i * numSubspaces + subspace] = (byte)s.nearest(i);
+						codebooks[subspace] = s.centroids;
+						return null;
+					}
+				}));
+			}
+			for (Future<?> future : futures)
+				future.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Error quantizing model", e.getCause());
+		} finally {
+			ex.shutdownNow();
+		}
+		return new ProductQuantizedWord2VecModel(model.vocab, model.layerSize, k, codebooks, codes);
+	}
+
+	/** Codebook of the dimensions [start, start + dims) of the vectors scaled to unit length */
+	private static class Subspace {
+		private final float[][] vectors;
+		private final float[] inverseNorms;
+		private final int start;
+		private final int dims;
+		private final int k;
+		/** Centroids one after the other */
+		private final float[] centroids;
+
+		Subspace(float[][] vectors, float[] inverseNorms, int start, int dims, int k) {
+			this.vectors = vectors;
+			this.inverseNorms = inverseNorms;
+			this.start = start;
+			this.dims = dims;
+			this.k = k;
+			this.centroids = new float[k * dims];
+		}
+
+		/** Runs k-means over the given rows, which are distinct and at least k */
+		void learn(int[] sample, int iterations, Random random) {
+			for (int c = 0; c < k; c++)
+				copy(sample[c], centroids, c * dims);
+
+			double[] sums = new double[k * dims];
+			int[] counts = new int[k];
+			for (int iter = 0; iter < iterations; iter++) {
+				Arrays.fill(sums, 0);
+				Arrays.fill(counts, 0);
+				for (int row : sample) {
+					int c = nearest(row);
+					counts[c]++;
+					float[] vector = vectors[row];
+					for (int a = 0; a < dims; a++)
+						sums[c * dims + a] += vector[start + a] * inverseNorms[row];
+				}
+				for (int c = 0; c < k; c++) {
+					if (counts[c] == 0) {
+						copy(sample[random.nextInt(sample.length)], centroids, c * dims);
+						continue;
+					}
+					for (int a = 0; a < dims; a++)
+						centroids[c * dims + a] = (float)(sums[c * dims + a] / counts[c]);
+				}
+			}
+		}
+
+		/** @return Index of the centroid nearest to the given row */
+		int nearest(int row) {
+			float[] vector = vectors[row];
+			float inverseNorm = inverseNorms[row];
+			int best = 0;
+			double bestDistance = Double.MAX_VALUE;
+			for (int c = 0, offset = 0; c < k; c++, offset += dims) {
+				double distance = 0;
+				for (int a = 0; a < dims; a++) {
+					double d = vector[start + a] * inverseNorm - centroids[offset + a];
+					distance += d * d;
+				}
+				if (distance < bestDistance) {
+					bestDistance = distance;
+					best = c;
+				}
+			}
+			return best;
+		}
+
+		/** Copies the dimensions of the given row, scaled to unit length, into the given array at the given offset */
+		private void copy(int row, float[] dst, int offset) {
+			for (int a = 0; a < dims; a++)
+				dst[offset + a] = vectors[row][start + a] * inverseNorms[row];
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package word2vec.lite;
+
+import word2vec.lite.util.TopK;
+
+import java.util.List;
+
+/**
+ * Implementation of {@link Searcher} for a {@link QuantizedWord2VecModel}
+ * <p>
+ * The vector searched for is quantized like the rows, so that the dot product with each row is a sum of products
+ * of bytes, accumulated in an int and scaled once.  The loop over a row only reads bytes and adds ints, which the
+ * JIT compiler can vectorize, and the bytes of a whole model stay in cache four times longer than floats do.
+ */
+class QuantizedSearcher extends AbstractSearcher {
+	private final QuantizedWord2VecModel model;
+	/** Model the vectors were quantized from, or null to rank by the quantized vectors only */
+	private final Word2VecModel original;
+	private final int rerankDepth;
+
+	QuantizedSearcher(QuantizedWord2VecModel model, Word2VecModel original, int rerankDepth) {
+		super(model.layerSize);
+		this.model = model;
+		this.original = original;
+		this.rerankDepth = rerankDepth;
+	}
+
+	@Override public boolean contains(String word) {
+		return model.vocab.row(word) >= 0;
+	}
+
+	@Override float[] getVectorOrNull(String word) {
+		int row = model.vocab.row(word);
+		if (row < 0)
+			return null;
+		return normalize(original == null
+				? model.dequantize(row)
+				: original.vectors[row].clone());
+	}
+
+	@Override String word(int row) {
+		return model.vocab.get(row);
+	}
+
+	@Override public List<Match> getMatches(float[] vec, int maxNumMatches) {
+		byte[] query = new byte[layerSize];
+		double queryScale = QuantizedWord2VecModel.quantize(vec, query, 0);
+		byte[] codes = model.codes;
+		float[] scales = model.scales;
+
+		TopK top = new TopK(Math.min(original == null ? maxNumMatches : Math.max(maxNumMatches, rerankDepth), scales.length));
+		for (int row = 0, offset = 0; row < scales.length; row++, offset += layerSize) {
+			int d = 0;
+			for (int a = 0; a < layerSize; a++)
+				d += codes[offset + a] * query[a];
+			top.offer(row, d * scales[row] * queryScale);
+		}
+		return toMatches(original == null
+				? top
+				: rerank(top, original.vectors, vec, maxNumMatches));
+	}
+}
@@ -0,0 +1,188 @@
+package word2vec.lite;
+
+import com.google.common.base.Preconditions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Word2vec model whose vectors are quantized to bytes, taking a quarter of the memory of a {@link Word2VecModel}
+ * <p>
+ * Every vector is scaled to unit length, then each of its values is rounded to a multiple of a scale of its own,
+ * chosen so that the largest absolute value maps to 127.  The {@link Searcher} computes the dot products of a
+ * search on the bytes with integer arithmetic, and can rerank the best candidates with the original vectors,
+ * see {@link #forSearch(Word2VecModel, int)}.
+ */
+public final class QuantizedWord2VecModel {
+	/** Magic number at the start of quantized model files, "W2VQ" */
+	private static final int MAGIC = 0x57325651;
+	private static final int VERSION = 1;
+	/** Largest absolute value of a quantized value */
+	static final int MAX_CODE = 127;
+	/** Number of candidates reranked by {@link #forSearch(Word2VecModel)} */
+	public static final int DEFAULT_RERANK_DEPTH = 100;
+
+	final Vocabulary vocab;
+	final int layerSize;
+	/** Quantized values of the vectors, row after row */
+	final byte[] codes;
+	/** Value of a code of 1 in each row */
+	final float[] scales;
+
+	private QuantizedWord2VecModel(Vocabulary vocab, int layerSize, byte[] codes, float[] scales) {
+		this.vocab = vocab;
+		this.layerSize = layerSize;
+		this.codes = codes;
+		this.scales = scales;
+	}
+
+	/** @return {@link QuantizedWord2VecModel} of the given model, which is left unchanged */
+	public static QuantizedWord2VecModel quantize(Word2VecModel model) {
+		int vocabSize = model.vocab.size();
+		Preconditions.checkArgument((long)vocabSize * model.layerSize <= Integer.MAX_VALUE, "Model is too large to quantize: %s words", vocabSize);
+		byte[] codes = new byte[vocabSize * model.layerSize];
+		float[] scales = new float[vocabSize];
+		for (int i = 0; i < vocabSize; i++)
+			scales[i] = quantizeUnit(model.vectors[i], codes, i * model.layerSize);
+		return new QuantizedWord2VecModel(model.vocab, model.layerSize, codes, scales);
+	}
+
+	/**
+	 * Quantizes the given vector into the given array at the given offset
+	 * @return Value of a code of 1 in the given vector scaled to unit length, 0 for a zero vector
+	 */
+	static float quantizeUnit(float[] vector, byte[] codes, int offset) {
+		double len = 0;
+		for (float v : vector)
+			len += v * v;
+		return len > 0 ? (float)(quantize(vector, codes, offset) / Math.sqrt(len)) : 0;
+	}
+
+	/**
+	 * Quantizes the given vector into the given array at the given offset
+	 * @return Value of a code of 1, 0 for a zero vector
+	 */
+	static float quantize(float[] vector, byte[] codes, int offset) {
+		float max = 0;
+		for (float v : vector)
+			max = Math.max(max, Math.abs(v));
+		if (max == 0)
+			return 0;
+		float scale = max / MAX_CODE;
+		float inverse = MAX_CODE / max;
+		for (int a = 0; a < vector.length; a++)
+			codes[offset + a] = (byte)Math.round(vector[a] * inverse);
+		return scale;
+	}
+
+	/** @return Size of the vectors */
+	public int getLayerSize() {
+		return layerSize;
+	}
+
+	/** @return Vocabulary, shared with the {@link Word2VecModel} this was made from */
+	public Vocabulary getVocab() {
+		return vocab;
+	}
+
+	/** @return {@link Searcher} ranking matches by their quantized vectors only */
+	public Searcher forSearch() {
+		return new QuantizedSearcher(this, null, 0);
+	}
+
+	/** Forwards to {@link #forSearch(Word2VecModel, int)} with {@link #DEFAULT_RERANK_DEPTH} */
+	public Searcher forSearch(Word2VecModel original) {
+		return forSearch(original, DEFAULT_RERANK_DEPTH);
+	}
+
+	/**
+	 * @param original Model this was quantized from, whose vectors are used for the words searched for and for
+	 * reranking; it is left unchanged
+	 * @param rerankDepth Number of the best matches by quantized vectors which are reranked with the original vectors,
+	 * at least the number of matches asked for
+	 * @return {@link Searcher} ranking matches by their quantized vectors, then reranking the best of them
+	 */
+	public Searcher forSearch(Word2VecModel original, int rerankDepth) {
+		Preconditions.checkArgument(original.vocab.equals(vocab) && original.layerSize == layerSize,
+				"Model is not the original of this model");
+		Preconditions.checkArgument(rerankDepth > 0, "Value must be positive");
+		return new QuantizedSearcher(this, original, rerankDepth);
+	}
+
+	/** @return {@link QuantizedWord2VecModel} read from the given file, see {@link #toFile(OutputStream)} */
+	public static QuantizedWord2VecModel fromFile(File file) throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			return fromFile(in);
+		}
+	}
+
+	/** @return {@link QuantizedWord2VecModel} read from the given stream; the stream is not closed */
+	public static QuantizedWord2VecModel fromFile(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+		int magic = data.readInt();
+		Preconditions.checkState(magic == MAGIC, "Not a quantized model file, found magic %s", Integer.toHexString(magic));
+		int version = data.readInt();
+		Preconditions.checkState(version == VERSION, "Unsupported quantized model version %s", version);
+
+		int vocabSize = data.readInt();
+		int layerSize = data.readInt();
+		Preconditions.checkState(vocabSize >= 0 && layerSize > 0 && (long)vocabSize * layerSize <= Integer.MAX_VALUE,
+				"Invalid model size: %s words of %s values", vocabSize, layerSize);
+		Vocabulary vocab = Vocabulary.readFrom(data, vocabSize);
+		float[] scales = new float[vocabSize];
+		for (int i = 0; i < vocabSize; i++)
+			scales[i] = data.readFloat();
+		byte[] codes = new byte[vocabSize * layerSize];
+		data.readFully(codes);
+		return new QuantizedWord2VecModel(vocab, layerSize, codes, scales);
+	}
+
+	/** Writes this model to the given file, see {@link #toFile(OutputStream)} */
+	public void toFile(File file) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			toFile(out);
+		}
+	}
+
+	/**
+	 * Writes this model to the given stream; the stream is flushed but not closed
+	 * <p>
+	 * The layout is the magic number, a version, the number of words, the size of the vectors, then for each word
+	 * its UTF-8 byte length and its bytes, the scale of each row, and the codes row after row.  All integers and
+	 * floats are big endian.
+	 */
+	public void toFile(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+		writeHeader(data, vocab.size(), layerSize);
+		vocab.writeTo(data);
+		for (float scale : scales)
+			data.writeFloat(scale);
+		data.write(codes);
+		data.flush();
+	}
+
+	/** Writes the header of a file of the given number of words, which has the same length for any number */
+	static void writeHeader(DataOutput out, int vocabSize, int layerSize) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(vocabSize);
+		out.writeInt(layerSize);
+	}
+
+	/** @return Vector of the given row, scaled back from its codes */
+	float[] dequantize(int row) {
+		float[] vector = new float[layerSize];
+		for (int a = 0; a < layerSize; a++)
+			vector[a] = codes[row * layerSize + a] * scales[row];
+		return vector;
+	}
+}
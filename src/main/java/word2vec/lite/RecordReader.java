@@ -0,0 +1,18 @@
+package word2vec.lite;
+
+import java.io.IOException;
+
+/** Reads the records of a model file, a word and its vector each, one at a time from a stream */
+interface RecordReader {
+	/** @return Number of records, or -1 if the file doesn't say */
+	int getVocabSize();
+
+	/** @return Size of the vectors */
+	int getLayerSize();
+
+	/** @return Word of the next record, whose vector must be read next, or null after the last record */
+	String readWord() throws IOException;
+
+	/** Reads the vector of the record whose word was just read into the given array */
+	void readVector(float[] dst) throws IOException;
+}
@@ -10,7 +10,10 @@ public interface Searcher {
 	/** @return true if a word is inside the model's vocabulary. */
 	boolean contains(String word);
 	
-	/** @return Raw word vector */
+	/** 
+	 * @return Raw word vector.  For a model trained with hashed buckets, the vector of a word outside of
+	 * the vocabulary is its word bucket's vector, or else is synthesized from its character n-grams.
+	 */
 	float[] getRawVector(String word) throws UnknownWordException;
 	
 	/** @return Top matches to the given word */
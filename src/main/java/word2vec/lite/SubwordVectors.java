@@ -0,0 +1,51 @@
+package word2vec.lite;
+
+import word2vec.lite.neuralnetwork.WordHashing;
+
+/**
+ * Vectors of the word buckets and character n-gram buckets of a model trained with {@link WordHashing},
+ * which synthesize vectors for words outside of the vocabulary
+ * <p>
+ * While training, a word hashed into a bucket is replaced by the bucket's token, whose input vector is the
+ * bucket's vector alone.  So is the vector of such a word, if its bucket was trained.  Otherwise, it is
+ * the average of the vectors of its character n-grams, without the word's own vector that it lacks.
+ */
+class SubwordVectors {
+	private final WordHashing hashing;
+	/** Vector of each word bucket, null for buckets that weren't in the vocabulary */
+	private final float[][] bucketVectors;
+	private final float[][] nGramVectors;
+
+	SubwordVectors(WordHashing hashing, float[][] bucketVectors, float[][] nGramVectors) {
+		this.hashing = hashing;
+		this.bucketVectors = bucketVectors;
+		this.nGramVectors = nGramVectors;
+	}
+
+	/** @return Synthesized vector for the given word, or null if it has neither a trained word bucket nor n-grams */
+	float[] synthesize(String word, int layerSize) {
+		if (hashing.getNumWordBuckets() > 0) {
+			float[] bucket = bucketVectors[hashing.wordBucket(word)];
+			if (bucket != null)
+				return bucket.clone();
+		}
+		double[] sum = new double[layerSize];
+		int count = 0;
+		for (int nGram : hashing.nGramBuckets(word)) {
+			add(sum, nGramVectors[nGram]);
+			count++;
+		}
+		if (count == 0)
+			return null;
+
+		float[] result = new float[layerSize];
+		for (int i = 0; i < layerSize; i++)
+			result[i] = (float)(sum[i] / count);
+		return result;
+	}
+
+	private static void add(double[] sum, float[] vector) {
+		for (int i = 0; i < sum.length; i++)
+			sum[i] += vector[i];
+	}
+}
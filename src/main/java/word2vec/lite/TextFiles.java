@@ -0,0 +1,410 @@
+package word2vec.lite;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import word2vec.lite.util.MappedFile;
+import word2vec.lite.util.Utf8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads and writes text model files, one word and its values separated by spaces per line, as written by the C
+ * version of word2vec, after a header line with the number of words and the size of the vectors, or by GloVe,
+ * without a header line
+ * <p>
+ * Files are mapped and split into chunks at line boundaries, which are parsed in parallel.  Values are parsed
+ * straight from the mapped bytes, exactly in float arithmetic when they have few enough digits, which those of
+ * both versions do, and by {@link Float#parseFloat(String)} otherwise.
+ * <p>
+ * Files are written like {@link BinFiles} does, encoding blocks of lines in parallel.
+ */
+public final class TextFiles {
+	/** Maximum length of a line in bytes */
+	static final int MAX_LINE_BYTES = 1 << 20;
+	/** Target size of the chunks of lines parsed by each task */
+	private static final int CHUNK_BYTES = 16 << 20;
+	/** Largest mantissa which is exact as a float */
+	private static final long MAX_EXACT_MANTISSA = 1 << 24;
+	/** Powers of ten which are exact as floats */
+	private static final float[] POWERS_OF_TEN = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+	/** Number of decimals written, like the %lf of the C version */
+	private static final int DECIMALS = 6;
+	private static final long DECIMAL_SCALE = 1_000_000;
+	/** Values this large are written by {@link Float#toString(float)} instead */
+	private static final float MAX_FIXED_VALUE = 1e9f;
+	/** Maximum length of a written value, including its separator */
+	private static final int MAX_VALUE_BYTES = 21;
+
+	private TextFiles() { }
+
+	/** @return {@link Word2VecModel} read from the given file, using all available processors */
+	public static Word2VecModel read(File file) throws IOException {
+		return read(file, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @return {@link Word2VecModel} read from the given file, parsing chunks of lines on numThreads threads.  The first
+	 * line is a header if it has exactly two integers, otherwise the size of the vectors is that of the first line.
+	 */
+	public static Word2VecModel read(File file, int numThreads) throws IOException {
+		final MappedFile mapped = MappedFile.map(file, ByteOrder.LITTLE_ENDIAN, MAX_LINE_BYTES);
+		long size = mapped.size();
+		long firstLineEnd = lineEnd(mapped, 0);
+		byte[] bytes = new byte[(int)firstLineEnd];
+		mapped.get(0, bytes, bytes.length);
+		final Header header = Header.parse("file '" + file.getAbsolutePath() + "'", new String(bytes, Charsets.UTF_8));
+		long start = header.vocabSize >= 0 ? Math.min(firstLineEnd + 1, size) : 0;
+
+		int numChunks = (int)Math.max(numThreads, (size - start + CHUNK_BYTES - 1) / CHUNK_BYTES);
+		long[] bounds = new long[numChunks + 1];
+		for (int i = 0; i <= numChunks; i++)
+			bounds[i] = lineStart(mapped, start, start + (size - start) * i / numChunks);
+
+		List<Chunk> chunks;
+		ListeningExecutorService ex = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(numThreads,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("word2vec-read-%d").build()));
+		try {
+			List<ListenableFuture<Chunk>> futures = new ArrayList<>(numChunks);
+			for (int i = 0; i < numChunks; i++) {
+				final long from = bounds[i];
+				final long to = bounds[i + 1];
+				futures.add(ex.submit(new Callable<Chunk>() {
+					@Override public Chunk call() {
+						return parse(mapped, from, to, header.layerSize);
+					}
+				}));
+			}
+			chunks = Futures.allAsList(futures).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading model");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Error reading model from file '" + file.getAbsolutePath() + "'", e.getCause());
+		} finally {
+			ex.shutdownNow();
+		}
+
+		List<String> vocab = new ArrayList<>();
+		List<float[]> vectors = new ArrayList<>();
+		for (Chunk chunk : chunks) {
+			vocab.addAll(chunk.words);
+			vectors.addAll(chunk.vectors);
+		}
+		Preconditions.checkState(header.vocabSize < 0 || vocab.size() == header.vocabSize,
+				"Expected %s words in file '%s', found %s", header.vocabSize, file.getAbsolutePath(), vocab.size());
+		Preconditions.checkState(!vocab.isEmpty(), "No words to read from file '%s'", file.getAbsolutePath());
+		return new Word2VecModel(vocab, vectors.toArray(new float[vectors.size()][]));
+	}
+
+	/** @return Position of the newline ending the line at the given position, or the size of the file */
+	private static long lineEnd(MappedFile mapped, long position) {
+		long limit = Math.min(mapped.size(), position + MAX_LINE_BYTES);
+		while (position < limit && mapped.get(position) != '\n')
+			position++;
+		Preconditions.checkState(position == mapped.size() || mapped.get(position) == '\n', "Line longer than %s bytes", MAX_LINE_BYTES);
+		return position;
+	}
+
+	/** @return Start of the first line starting at or after the given position, and not before the given start */
+	private static long lineStart(MappedFile mapped, long start, long position) {
+		if (position <= start)
+			return start;
+		return Math.min(lineEnd(mapped, position - 1) + 1, mapped.size());
+	}
+
+	/** Number of words and size of the vectors of a text file */
+	static final class Header {
+		/** Number of words, or -1 if the file has no header line */
+		final int vocabSize;
+		final int layerSize;
+
+		private Header(int vocabSize, int layerSize) {
+			this.vocabSize = vocabSize;
+			this.layerSize = layerSize;
+		}
+
+		/**
+		 * @param source Description of where the line was read from, for error messages
+		 * @return {@link Header} of the given first line, which is a header line if it has exactly two integers,
+		 * otherwise a word and its values
+		 */
+		static Header parse(String source, String firstLine) {
+			String[] tokens = CharMatcher.WHITESPACE.trimFrom(firstLine).split("[ \t]+");
+			if (tokens.length == 2 && CharMatcher.DIGIT.matchesAllOf(tokens[0]) && CharMatcher.DIGIT.matchesAllOf(tokens[1]))
+				return new Header(Integer.parseInt(tokens[0]), Integer.parseInt(tokens[1]));
+			Preconditions.checkState(tokens.length > 1, "Expected a header or a word and its values in the first line of %s", source);
+			return new Header(-1, tokens.length - 1);
+		}
+	}
+
+	/** Words and vectors of a chunk of lines */
+	private static final class Chunk {
+		final List<String> words = new ArrayList<>();
+		final List<float[]> vectors = new ArrayList<>();
+	}
+
+	/** @return {@link Chunk} of the lines starting in [from, to) of the given mapped file, ignoring empty lines */
+	private static Chunk parse(MappedFile mapped, long from, long to, int layerSize) {
+		Chunk chunk = new Chunk();
+		LineParser parser = new LineParser(layerSize);
+		float[] vector = new float[layerSize];
+		long position = from;
+		while (position < to) {
+			ByteBuffer segment = mapped.segment(position);
+			int start = MappedFile.offset(position);
+			String word = parser.parseLine(segment, start, start + (int)Math.min(mapped.size() - position, MAX_LINE_BYTES), vector);
+			if (word != null) {
+				chunk.words.add(word);
+				chunk.vectors.add(vector);
+				vector = new float[layerSize];
+			}
+			long end = position + parser.end() - start;
+			Preconditions.checkState(end == mapped.size() || mapped.get(end) == '\n', "Line longer than %s bytes", MAX_LINE_BYTES);
+			position = end + 1;
+		}
+		return chunk;
+	}
+
+	/** Parses lines straight from the bytes of a buffer, reading each byte once */
+	static final class LineParser {
+		private final int layerSize;
+		/** Buffer of the current line */
+		private ByteBuffer segment;
+		/** Index of the next byte of the current line in its buffer */
+		private int index;
+		/** Index in the buffer past which the current line can't extend */
+		private int limit;
+
+		LineParser(int layerSize) {
+			this.layerSize = layerSize;
+		}
+
+		/**
+		 * Parses the line starting at the given index of the given buffer up to its newline, or to the given limit
+		 * @return Word of the line, whose values are parsed into the given vector, or null if the line is empty
+		 */
+		String parseLine(ByteBuffer buffer, int start, int limit, float[] vector) {
+			this.segment = buffer;
+			this.index = start;
+			this.limit = limit;
+			skipSpaces();
+			if (atLineEnd())
+				return null;
+			int wordStart = index;
+			while (!atLineEnd() && !isSpace(segment.get(index)))
+				index++;
+			String word = Utf8.decode(segment, wordStart, index - wordStart);
+			for (int a = 0; a < layerSize; a++) {
+				skipSpaces();
+				Preconditions.checkState(!atLineEnd(), "Expected %s values in the line of word '%s', found %s", layerSize, word, a);
+				vector[a] = parseFloat();
+			}
+			skipSpaces();
+			Preconditions.checkState(atLineEnd(), "Expected %s values in the line of word '%s', found more", layerSize, word);
+			return word;
+		}
+
+		/** @return Index of the newline of the line parsed last, or the limit if it has none before it */
+		int end() {
+			return index;
+		}
+
+		private boolean atLineEnd() {
+			return index == limit || segment.get(index) == '\n';
+		}
+
+		private void skipSpaces() {
+			while (index < limit && isSpace(segment.get(index)))
+				index++;
+		}
+
+		/**
+		 * @return Value of the number at the current index, computed exactly in float arithmetic if its mantissa and
+		 * the power of ten it is scaled by are exact floats, so that a single multiplication or division rounds it
+		 * correctly, and by {@link Float#parseFloat(String)} otherwise
+		 */
+		private float parseFloat() {
+			int start = index;
+			byte b = segment.get(index);
+			boolean negative = b == '-';
+			if (negative || b == '+')
+				index++;
+			long mantissa = 0;
+			int digits = 0;
+			int exponent = 0;
+			while (index < limit && (b = segment.get(index)) >= '0' && b <= '9') {
+				mantissa = 10 * mantissa + (b - '0');
+				digits++;
+				index++;
+				if (mantissa > MAX_EXACT_MANTISSA)
+					return parseFloatSlowly(start);
+			}
+			if (index < limit && b == '.') {
+				index++;
+				while (index < limit && (b = segment.get(index)) >= '0' && b <= '9') {
+					mantissa = 10 * mantissa + (b - '0');
+					digits++;
+					exponent--;
+					index++;
+					if (mantissa > MAX_EXACT_MANTISSA)
+						return parseFloatSlowly(start);
+				}
+			}
+			if (digits == 0)
+				return parseFloatSlowly(start);
+			if (index < limit && (b == 'e' || b == 'E')) {
+				index++;
+				boolean negativeExponent = index < limit && segment.get(index) == '-';
+				if (index < limit && (negativeExponent || segment.get(index) == '+'))
+					index++;
+				int e = 0;
+				int exponentStart = index;
+				while (index < limit && (b = segment.get(index)) >= '0' && b <= '9' && index - exponentStart < 3) {
+					e = 10 * e + (b - '0');
+					index++;
+				}
+				if (index == exponentStart)
+					return parseFloatSlowly(start);
+				exponent += negativeExponent ? -e : e;
+			}
+			if (index < limit && !isSpace(segment.get(index)) && segment.get(index) != '\n')
+				return parseFloatSlowly(start);
+			float value;
+			if (mantissa == 0)
+				value = 0;
+			else if (exponent < 0 && -exponent < POWERS_OF_TEN.length)
+				value = mantissa / POWERS_OF_TEN[-exponent];
+			else if (exponent >= 0 && exponent < POWERS_OF_TEN.length)
+				value = mantissa * POWERS_OF_TEN[exponent];
+			else
+				return parseFloatSlowly(start);
+			return negative ? -value : value;
+		}
+
+		/** @return Value of the number starting at the given index, parsed by {@link Float#parseFloat(String)} */
+		private float parseFloatSlowly(int start) {
+			index = start;
+			while (!atLineEnd() && !isSpace(segment.get(index)))
+				index++;
+			String s = Utf8.decode(segment, start, index - start);
+			try {
+				return Float.parseFloat(s);
+			} catch (NumberFormatException e) {
+				throw new IllegalStateException("Not a number: '" + s + "'", e);
+			}
+		}
+	}
+
+	/** @return true for the separators of words and values within a line, including the carriage returns of CRLF */
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+
+	/** Writes the given model to the given file with a header line like the C version, using all available processors */
+	public static void write(Word2VecModel model, File file) throws IOException {
+		write(model, file, true, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Writes the given model to the given file, with values with six decimals like the %lf of the C version
+	 * @param header Whether to write a header line and a space after every value, byte for byte like the C version
+	 * of word2vec, or neither, like GloVe
+	 * @param numThreads Number of threads encoding blocks of lines
+	 */
+	public static void write(final Word2VecModel model, File file, final boolean header, int numThreads) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			FileChannel channel = raf.getChannel();
+			raf.setLength(0);
+			if (header)
+				BinFiles.write(channel, new ByteBuffer[] { ByteBuffer.wrap(BinFiles.header(model)) });
+			BinFiles.writeBlocks(channel, model.vocab.size(), recordsPerBlock(model.layerSize), numThreads, new BinFiles.BlockEncoder() {
+				@Override public ByteBuffer encode(int start, int end, ByteBuffer buffer) {
+					return TextFiles.encode(model, start, end, buffer, header);
+				}
+			});
+		}
+	}
+
+	/** @return Number of lines of vectors of the given size encoded per block, for a typical length of their words */
+	static int recordsPerBlock(int layerSize) {
+		return Math.max(1, BinFiles.BLOCK_BYTES / (2 + layerSize * MAX_VALUE_BYTES + 32));
+	}
+
+	/**
+	 * Encodes the lines [start, end) of the given model into a direct buffer
+	 * @param buffer Buffer to reuse if it is large enough, or null
+	 * @return Buffer holding the lines between its position and limit
+	 */
+	static ByteBuffer encode(Word2VecModel model, int start, int end, ByteBuffer buffer, boolean trailingSpace) {
+		long size = 0;
+		for (int i = start; i < end; i++)
+			size += model.vocab.utf8Length(i) + 2 + (long)model.layerSize * MAX_VALUE_BYTES;
+		Preconditions.checkState(size <= Integer.MAX_VALUE, "Lines %s to %s are too large", start, end);
+		if (buffer == null || buffer.capacity() < size)
+			buffer = ByteBuffer.allocateDirect((int)size);
+		buffer.clear();
+
+		for (int i = start; i < end; i++) {
+			model.vocab.putUtf8(i, buffer);
+			for (float v : model.vectors[i]) {
+				buffer.put((byte)' ');
+				putFloat(buffer, v);
+			}
+			if (trailingSpace)
+				buffer.put((byte)' ');
+			buffer.put((byte)'\n');
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Writes the given value with six decimals, rounded half to even like the %lf of the C version, or by
+	 * {@link Float#toString(float)} if it is too large for that, or not finite
+	 */
+	static void putFloat(ByteBuffer buffer, float value) {
+		float abs = Math.abs(value);
+		if (!(abs < MAX_FIXED_VALUE)) {
+			buffer.put(Float.toString(value).getBytes(Charsets.US_ASCII));
+			return;
+		}
+		if (Float.floatToRawIntBits(value) < 0)
+			buffer.put((byte)'-');
+		// Exact ties are exact in double arithmetic, and other values are too far from ties to round across them
+		long scaled = (long)Math.rint((double)abs * DECIMAL_SCALE);
+		putDigits(buffer, scaled / DECIMAL_SCALE, 1);
+		buffer.put((byte)'.');
+		putDigits(buffer, scaled % DECIMAL_SCALE, DECIMALS);
+	}
+
+	/** Writes the given non-negative number with at least the given number of digits, padded with zeros */
+	private static void putDigits(ByteBuffer buffer, long value, int minDigits) {
+		int digits = 1;
+		for (long v = value / 10; v > 0; v /= 10)
+			digits++;
+		digits = Math.max(digits, minDigits);
+		int end = buffer.position() + digits;
+		for (int i = end - 1; i >= buffer.position(); i--) {
+			buffer.put(i, (byte)('0' + value % 10));
+			value /= 10;
+		}
+		buffer.position(end);
+	}
+}
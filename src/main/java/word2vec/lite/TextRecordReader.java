@@ -0,0 +1,93 @@
+package word2vec.lite;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads the lines of a text file, as read by {@link TextFiles}, from a channel, one at a time
+ * <p>
+ * Like {@link BinRecordReader}, bytes are read into a window with large bulk reads, and each line is parsed
+ * straight from the window, which is refilled whenever it may not hold a whole line.  The channel is not closed.
+ */
+final class TextRecordReader implements RecordReader {
+	/** Size of the window, several times the maximum length of a line so that it is rarely compacted */
+	private static final int WINDOW_BYTES = 8 * TextFiles.MAX_LINE_BYTES;
+
+	private final ReadableByteChannel channel;
+	/** Description of where the lines are read from, for error messages */
+	private final String source;
+	private final ByteBuffer window;
+	private boolean endOfChannel;
+	private final TextFiles.Header header;
+	private final TextFiles.LineParser parser;
+	/** Vector of the line whose word was read last */
+	private final float[] vector;
+	private int records;
+
+	/** Reads the first line from the given channel, which is a header line or the first record */
+	TextRecordReader(ReadableByteChannel channel, String source) throws IOException {
+		this.channel = channel;
+		this.source = source;
+		this.window = ByteBuffer.allocate(WINDOW_BYTES);
+		window.flip();
+
+		fill();
+		int length = 0;
+		while (length < window.remaining() && window.get(window.position() + length) != '\n')
+			length++;
+		Preconditions.checkState(length <= TextFiles.MAX_LINE_BYTES, "Line longer than %s bytes in %s", TextFiles.MAX_LINE_BYTES, source);
+		this.header = TextFiles.Header.parse(source, new String(window.array(), window.position(), length, Charsets.UTF_8));
+		if (header.vocabSize >= 0)
+			window.position(Math.min(window.position() + length + 1, window.limit()));
+		this.parser = new TextFiles.LineParser(header.layerSize);
+		this.vector = new float[header.layerSize];
+	}
+
+	@Override public int getVocabSize() {
+		return header.vocabSize;
+	}
+
+	@Override public int getLayerSize() {
+		return header.layerSize;
+	}
+
+	@Override public String readWord() throws IOException {
+		while (true) {
+			fill();
+			if (!window.hasRemaining()) {
+				Preconditions.checkState(header.vocabSize < 0 || records == header.vocabSize,
+						"Expected %s words in %s, found %s", header.vocabSize, source, records);
+				return null;
+			}
+			int start = window.position();
+			String word = parser.parseLine(window, start, Math.min(window.limit(), start + TextFiles.MAX_LINE_BYTES), vector);
+			int end = parser.end();
+			Preconditions.checkState(end < window.limit() ? window.get(end) == '\n' : endOfChannel,
+					"Line longer than %s bytes in %s", TextFiles.MAX_LINE_BYTES, source);
+			window.position(Math.min(end + 1, window.limit()));
+			if (word != null) {
+				records++;
+				return word;
+			}
+		}
+	}
+
+	@Override public void readVector(float[] dst) {
+		Preconditions.checkArgument(dst.length == vector.length, "Expected an array of %s floats", vector.length);
+		System.arraycopy(vector, 0, dst, 0, vector.length);
+	}
+
+	/** Reads more bytes unless the window holds a whole line of the maximum length and its newline */
+	private void fill() throws IOException {
+		if (window.remaining() > TextFiles.MAX_LINE_BYTES || endOfChannel)
+			return;
+		window.compact();
+		while (window.hasRemaining() && !endOfChannel)
+			endOfChannel = channel.read(window) < 0;
+		window.flip();
+	}
+}
@@ -0,0 +1,87 @@
+package word2vec.lite;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import word2vec.lite.Word2VecTrainerBuilder.TrainingProgressListener;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Handle to a training started by {@link Word2VecTrainerBuilder#trainAsync(Iterable)}
+ * <p>
+ * Completes with the trained {@link Word2VecModel}.  Besides the usual {@link java.util.concurrent.Future}
+ * operations, it reports the progress of the training and takes snapshots of the vectors while the
+ * neural network is being trained.  Cancelling interrupts the training, regardless of mayInterruptIfRunning.
+ */
+public final class TrainingHandle extends AbstractFuture<Word2VecModel> {
+	private volatile TrainingProgressListener.Stage stage;
+	private volatile double progress;
+	private volatile Word2VecTrainer trainer;
+	private volatile Thread driver;
+
+	TrainingHandle() {
+		addListener(new Runnable() {
+			@Override public void run() {
+				Thread driver = TrainingHandle.this.driver;
+				if (isCancelled() && driver != null)
+					driver.interrupt();
+			}
+		}, MoreExecutors.directExecutor());
+	}
+
+	/** @return Current stage of processing, or null if training hasn't started yet */
+	public TrainingProgressListener.Stage getStage() {
+		return stage;
+	}
+
+	/** @return Progress of the current stage as a double value between 0 and 1 */
+	public double getProgress() {
+		return progress;
+	}
+
+	/**
+	 * @return Copy of the model as it is, if the neural network is being trained.  The vectors are only
+	 * partially trained, and the learning rate hasn't annealed yet.
+	 */
+	public Optional<Word2VecModel> snapshot() {
+		Word2VecTrainer trainer = this.trainer;
+		if (stage != TrainingProgressListener.Stage.TRAIN_NEURAL_NETWORK || trainer == null || isDone())
+			return Optional.absent();
+		Optional<List<Word2VecModel>> models = trainer.snapshot();
+		return models.isPresent()
+				? Optional.of(models.get().get(0))
+				: Optional.<Word2VecModel>absent();
+	}
+
+	/** @return {@link TrainingProgressListener} which records the progress, then forwards it to the given listener */
+	TrainingProgressListener recordingTo(final TrainingProgressListener listener) {
+		return new TrainingProgressListener() {
+			@Override public void update(Stage stage, double progress) {
+				TrainingHandle.this.stage = stage;
+				TrainingHandle.this.progress = progress;
+				listener.update(stage, progress);
+			}
+		};
+	}
+
+	/** Runs the given training of the given trainer on the current thread, completing this handle with its result */
+	void run(Word2VecTrainer trainer, Callable<Word2VecModel> training) {
+		this.trainer = trainer;
+		this.driver = Thread.currentThread();
+		try {
+			if (isCancelled())
+				return;
+			set(training.call());
+		} catch (InterruptedException e) {
+			cancel(false);
+		} catch (Throwable t) {
+			setException(t);
+		} finally {
+			this.driver = null;
+			// Clear an interrupt from a cancellation that raced with the completion
+			Thread.interrupted();
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package word2vec.lite;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Multiset;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Reads and writes vocabulary files so that training can skip the counting pass over the corpus
+ * <p>
+ * Two formats are supported:
+ * <ul>
+ * <li> The text format of the C version's <code>-save-vocab</code> and <code>-read-vocab</code> options,
+ * 		i.e. one <code>word count</code> pair per line, sorted by frequency descending
+ * <li> A compact binary format with length-prefixed UTF-8 tokens, see {@link #writeBinary(Multiset, OutputStream)}
+ * </ul>
+ * Vocabularies are returned in file order.  If that order is already by frequency descending,
+ * {@link Word2VecTrainer} uses it as is instead of sorting again.  Counts beyond {@link Integer#MAX_VALUE}
+ * are saturated.
+ */
+public final class VocabFiles {
+	/** Magic number at the start of binary vocabulary files, "W2VV" */
+	private static final int BINARY_MAGIC = 0x57325656;
+	private static final int BINARY_VERSION = 1;
+	/** Token the C version injects as a substitute for newlines, which this port excludes */
+	private static final String END_OF_SENTENCE = "</s>";
+
+	private VocabFiles() { }
+
+	/** @return Vocabulary read from the given file, auto-detecting the text or binary format */
+	public static ImmutableMultiset<String> read(File file) throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			return read(in);
+		}
+	}
+
+	/** @return Vocabulary read from the given stream, auto-detecting the text or binary format; the stream is not closed */
+	public static ImmutableMultiset<String> read(InputStream in) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+		buffered.mark(4);
+		DataInputStream data = new DataInputStream(buffered);
+		int magic;
+		try {
+			magic = data.readInt();
+		} catch (EOFException e) {
+			magic = 0;
+		}
+		buffered.reset();
+
+		return magic == BINARY_MAGIC
+				? readBinary(buffered)
+				: readText(buffered);
+	}
+
+	/** @return Vocabulary read from the C version's text format; the stream is not closed */
+	public static ImmutableMultiset<String> readText(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charsets.UTF_8), 1 << 16);
+		ImmutableMultiset.Builder<String> result = ImmutableMultiset.builder();
+		String line;
+		int lineno = 0;
+		while ((line = reader.readLine()) != null) {
+			lineno++;
+			if (line.isEmpty())
+				continue;
+			int index = line.lastIndexOf(' ');
+			Preconditions.checkState(index > 0, "Expected 'word count' on line %s: '%s'", lineno, line);
+
+			String token = line.substring(0, index);
+			long count;
+			try {
+				count = Long.parseLong(line.substring(index + 1).trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalStateException(String.format("Expected 'word count' on line %s: '%s'", lineno, line), e);
+			}
+			// The C version counts in long longs, counts that don't fit in an int saturate
+			if (count > 0 && !token.equals(END_OF_SENTENCE))
+				result.addCopies(token, (int)Math.min(count, Integer.MAX_VALUE));
+		}
+		return result.build();
+	}
+
+	/** @return Vocabulary read from the binary format; the stream is not closed */
+	public static ImmutableMultiset<String> readBinary(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+		int magic = data.readInt();
+		Preconditions.checkState(magic == BINARY_MAGIC, "Not a binary vocabulary file, found magic %s", Integer.toHexString(magic));
+		int version = data.readInt();
+		Preconditions.checkState(version == BINARY_VERSION, "Unsupported binary vocabulary version %s", version);
+
+		int numTokens = data.readInt();
+		ImmutableMultiset.Builder<String> result = ImmutableMultiset.builder();
+		byte[] bytes = new byte[64];
+		for (int i = 0; i < numTokens; i++) {
+			int length = data.readInt();
+			if (length > bytes.length)
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			data.readFully(bytes, 0, length);
+			int count = data.readInt();
+			result.addCopies(new String(bytes, 0, length, Charsets.UTF_8), count);
+		}
+		return result.build();
+	}
+
+	/** Writes the vocabulary to the given file in the C version's text format, in iteration order */
+	public static void writeText(Multiset<String> vocab, File file) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			writeText(vocab, out);
+		}
+	}
+
+	/** Writes the vocabulary in the C version's text format, in iteration order; the stream is flushed but not closed */
+	public static void writeText(Multiset<String> vocab, OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8), 1 << 16);
+		for (Multiset.Entry<String> e : vocab.entrySet()) {
+			writer.write(e.getElement());
+			writer.write(' ');
+			writer.write(Integer.toString(e.getCount()));
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+	/** Writes the vocabulary to the given file in the binary format, in iteration order */
+	public static void writeBinary(Multiset<String> vocab, File file) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			writeBinary(vocab, out);
+		}
+	}
+
+	/**
+	 * Writes the vocabulary in the binary format, in iteration order; the stream is flushed but not closed
+	 * <p>
+	 * The layout is the magic number, a version, the number of tokens, and then for each token its
+	 * UTF-8 byte length, its bytes and its count.  All integers are big endian.
+	 */
+	public static void writeBinary(Multiset<String> vocab, OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+		data.writeInt(BINARY_MAGIC);
+		data.writeInt(BINARY_VERSION);
+		data.writeInt(vocab.entrySet().size());
+		for (Multiset.Entry<String> e : vocab.entrySet()) {
+			byte[] bytes = e.getElement().getBytes(Charsets.UTF_8);
+			data.writeInt(bytes.length);
+			data.write(bytes);
+			data.writeInt(e.getCount());
+		}
+		data.flush();
+	}
+
+	/** @return true if the counts of the given vocabulary are non-increasing in iteration order */
+	static boolean isSortedByFrequency(Multiset<String> vocab) {
+		int last = Integer.MAX_VALUE;
+		for (Multiset.Entry<String> e : vocab.entrySet()) {
+			if (e.getCount() > last)
+				return false;
+			last = e.getCount();
+		}
+		return true;
+	}
+}
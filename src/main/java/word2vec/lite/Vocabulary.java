@@ -0,0 +1,219 @@
+package word2vec.lite;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import word2vec.lite.util.Utf8;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Words of a model, stored as UTF-8 bytes in a single array and indexed by a hash table of ints
+ * <p>
+ * Each word costs its bytes, an offset and two slots of the hash table, instead of a String, its array and the
+ * entry and boxed Integer of a map.  Words are only decoded when they are read as Strings, and are looked up
+ * without being encoded, by {@link #row(CharSequence)} or {@link #row(byte[], int, int)}.  Instances are
+ * immutable, so a model and all of its searchers share one.
+ */
+public final class Vocabulary extends AbstractList<String> implements RandomAccess {
+	/** Marks an empty slot of the hash table */
+	private static final int EMPTY = -1;
+
+	/** UTF-8 bytes of the words, one after the other */
+	private final byte[] bytes;
+	/** Offset of each word in bytes, followed by the end of the last one */
+	private final int[] offsets;
+	private final int size;
+	/** Hash table of the row of the first occurrence of each word */
+	private final int[] table;
+
+	private Vocabulary(byte[] bytes, int[] offsets, int size) {
+		this.bytes = bytes;
+		this.offsets = offsets;
+		this.size = size;
+		this.table = new int[Integer.highestOneBit(Math.max(2 * size, 2) - 1) << 1];
+		Arrays.fill(table, EMPTY);
+		for (int row = 0; row < size; row++) {
+			int slot = slot(Utf8.hash(bytes, offsets[row], offsets[row + 1]));
+			while (table[slot] != EMPTY && !wordEquals(table[slot], bytes, offsets[row], offsets[row + 1] - offsets[row]))
+				slot = (slot + 1) & (table.length - 1);
+			if (table[slot] == EMPTY)
+				table[slot] = row;
+		}
+	}
+
+	/** @return {@link Vocabulary} of the given words, which is the given one if it is a {@link Vocabulary} already */
+	public static Vocabulary copyOf(Iterable<String> words) {
+		if (words instanceof Vocabulary)
+			return (Vocabulary)words;
+		Builder builder = builder();
+		for (String word : words)
+			builder.add(word);
+		return builder.build();
+	}
+
+	/** @return {@link Builder} for a {@link Vocabulary} */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/** Builder for a {@link Vocabulary}, which appends words without decoding them */
+	public static final class Builder {
+		private byte[] bytes = new byte[1 << 10];
+		private int[] offsets = new int[1 << 6];
+		private int size;
+
+		private Builder() { }
+
+		/** Appends the given word */
+		public Builder add(CharSequence word) {
+			byte[] encoded = Utf8.encode(word);
+			return add(encoded, 0, encoded.length);
+		}
+
+		/** Appends the word of the given number of UTF-8 bytes starting at the given offset of the given array */
+		public Builder add(byte[] utf8, int offset, int length) {
+			long end = (long)offsets[size] + length;
+			Preconditions.checkState(end <= Integer.MAX_VALUE - 8, "Vocabulary is too large: %s bytes", end);
+			if (end > bytes.length)
+				bytes = Arrays.copyOf(bytes, (int)Math.min(Integer.MAX_VALUE - 8, Math.max(end, 2L * bytes.length)));
+			if (size + 2 > offsets.length)
+				offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+			System.arraycopy(utf8, offset, bytes, offsets[size], length);
+			offsets[++size] = (int)end;
+			return this;
+		}
+
+		/** @return {@link Vocabulary} of the words appended so far */
+		public Vocabulary build() {
+			return new Vocabulary(Arrays.copyOf(bytes, offsets[size]), Arrays.copyOf(offsets, size + 1), size);
+		}
+	}
+
+	@Override public int size() {
+		return size;
+	}
+
+	/** @return Word of the given row, decoded from its bytes */
+	@Override public String get(int row) {
+		Preconditions.checkElementIndex(row, size);
+		return new String(bytes, offsets[row], offsets[row + 1] - offsets[row], Charsets.UTF_8);
+	}
+
+	/** @return Row of the first occurrence of the given word, or -1 if it isn't in the vocabulary */
+	public int row(CharSequence word) {
+		// ASCII words, the vast majority, are hashed and compared as their chars, which are their bytes
+		int length = word.length();
+		int hash = 0x811C_9DC5;
+		for (int i = 0; i < length; i++) {
+			char c = word.charAt(i);
+			if (c >= 0x80) {
+				byte[] encoded = Utf8.encode(word);
+				return row(encoded, 0, encoded.length);
+			}
+			hash ^= c;
+			hash *= 0x0100_0193;
+		}
+		for (int slot = slot(hash); table[slot] != EMPTY; slot = (slot + 1) & (table.length - 1)) {
+			int row = table[slot];
+			if (offsets[row + 1] - offsets[row] == length && asciiEquals(offsets[row], word))
+				return row;
+		}
+		return -1;
+	}
+
+	/** @return Row of the first occurrence of the word of the given UTF-8 bytes, or -1 if it isn't in the vocabulary */
+	public int row(byte[] utf8, int offset, int length) {
+		for (int slot = slot(Utf8.hash(utf8, offset, offset + length)); table[slot] != EMPTY; slot = (slot + 1) & (table.length - 1)) {
+			if (wordEquals(table[slot], utf8, offset, length))
+				return table[slot];
+		}
+		return -1;
+	}
+
+	@Override public boolean contains(Object o) {
+		return indexOf(o) >= 0;
+	}
+
+	@Override public int indexOf(Object o) {
+		return o instanceof String ? row((String)o) : -1;
+	}
+
+	@Override public boolean equals(Object o) {
+		if (o instanceof Vocabulary) {
+			Vocabulary other = (Vocabulary)o;
+			return this == other || Arrays.equals(offsets, other.offsets) && Arrays.equals(bytes, other.bytes);
+		}
+		return super.equals(o);
+	}
+
+	@Override public int hashCode() {
+		return super.hashCode();
+	}
+
+	/** @return Number of UTF-8 bytes of the word of the given row */
+	int utf8Length(int row) {
+		return offsets[row + 1] - offsets[row];
+	}
+
+	/** @return UTF-8 bytes of the word of the given row */
+	byte[] utf8(int row) {
+		return Arrays.copyOfRange(bytes, offsets[row], offsets[row + 1]);
+	}
+
+	/** Puts the UTF-8 bytes of the word of the given row into the given buffer */
+	void putUtf8(int row, ByteBuffer buffer) {
+		buffer.put(bytes, offsets[row], offsets[row + 1] - offsets[row]);
+	}
+
+	/** Writes each word as its UTF-8 byte length and its bytes, the layout of the vocabulary of the model files */
+	void writeTo(DataOutput out) throws IOException {
+		for (int row = 0; row < size; row++) {
+			out.writeInt(offsets[row + 1] - offsets[row]);
+			out.write(bytes, offsets[row], offsets[row + 1] - offsets[row]);
+		}
+	}
+
+	/** @return {@link Vocabulary} of the given number of words read as written by {@link #writeTo(DataOutput)} */
+	static Vocabulary readFrom(DataInput in, int size) throws IOException {
+		Builder builder = builder();
+		byte[] word = new byte[64];
+		for (int i = 0; i < size; i++) {
+			int length = in.readInt();
+			if (length > word.length)
+				word = new byte[Math.max(length, word.length * 2)];
+			in.readFully(word, 0, length);
+			builder.add(word, 0, length);
+		}
+		return builder.build();
+	}
+
+	private int slot(int hash) {
+		return MappedWord2VecModel.slot(hash, table.length - 1);
+	}
+
+	/** @return true if the word of the given row equals length bytes of the given array starting at the given offset */
+	private boolean wordEquals(int row, byte[] utf8, int offset, int length) {
+		if (offsets[row + 1] - offsets[row] != length)
+			return false;
+		for (int i = 0, start = offsets[row]; i < length; i++) {
+			if (bytes[start + i] != utf8[offset + i])
+				return false;
+		}
+		return true;
+	}
+
+	/** @return true if the bytes starting at the given offset equal the chars of the given ASCII word */
+	private boolean asciiEquals(int offset, CharSequence word) {
+		for (int i = 0; i < word.length(); i++) {
+			if (bytes[offset + i] != word.charAt(i))
+				return false;
+		}
+		return true;
+	}
+}
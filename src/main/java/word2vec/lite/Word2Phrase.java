@@ -0,0 +1,79 @@
+package word2vec.lite;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Joins the pairs of tokens which form phrases, like the C version's word2phrase tool
+ * <p>
+ * Instances are learned from a corpus with {@link #builder()}, then rewrite sentences with {@link #apply(Iterable)},
+ * lazily so that the rewritten corpus can be passed straight to {@link Word2VecTrainerBuilder#train(Iterable)}
+ * without an intermediate file.  Each application only joins pairs of tokens, so longer phrases are formed by
+ * learning again from the rewritten sentences.
+ */
+public final class Word2Phrase {
+	private final ImmutableSet<String> phrases;
+	private final String delimiter;
+
+	/**
+	 * @param phrases Pairs of tokens to join, each as the two tokens separated by {@link #KEY_SEPARATOR}
+	 * @param delimiter Delimiter between the tokens of a joined phrase
+	 */
+	Word2Phrase(ImmutableSet<String> phrases, String delimiter) {
+		this.phrases = phrases;
+		this.delimiter = delimiter;
+	}
+
+	/** Separator between the two tokens of the key of a bigram, which unlike a space can't be part of a token */
+	static final char KEY_SEPARATOR = '\u0000';
+
+	/** @return {@link Word2PhraseBuilder} for learning phrases */
+	public static Word2PhraseBuilder builder() {
+		return new Word2PhraseBuilder();
+	}
+
+	/** @return Number of phrases */
+	public int size() {
+		return phrases.size();
+	}
+
+	/** @return true if the given pair of tokens is joined into a phrase */
+	public boolean isPhrase(String first, String second) {
+		return phrases.contains(first + KEY_SEPARATOR + second);
+	}
+
+	/**
+	 * @return View of the given sentences with the pairs of tokens which form phrases joined.
+	 * Sentences are rewritten each time they are iterated over.
+	 */
+	public Iterable<List<String>> apply(Iterable<List<String>> sentences) {
+		return Iterables.transform(sentences, new Function<List<String>, List<String>>() {
+			@Override public List<String> apply(List<String> sentence) {
+				return Word2Phrase.this.apply(sentence);
+			}
+		});
+	}
+
+	/**
+	 * @return The given sentence with the pairs of tokens which form phrases joined.  Like the C version,
+	 * a token which ends a phrase doesn't start another one.
+	 */
+	public List<String> apply(List<String> sentence) {
+		List<String> result = new ArrayList<>(sentence.size());
+		String last = null;
+		for (String token : sentence) {
+			if (last != null && isPhrase(last, token)) {
+				result.set(result.size() - 1, last + delimiter + token);
+				last = null;
+			} else {
+				result.add(token);
+				last = token;
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,233 @@
+package word2vec.lite;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.AtomicLongMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builder pattern for learning a {@link Word2Phrase} from a corpus
+ * <p>
+ * This is a port of the word2phrase tool of the C implementation.  Unigrams and bigrams are counted in a single
+ * pass over the sentences, with blocks of sentences counted in parallel.  A bigram ab is scored by
+ * <pre>(count(ab) - delta) / (count(a) * count(b)) * trainWords</pre>
+ * and joined into a phrase when its score exceeds the threshold.  The scaling by the number of tokens in the corpus,
+ * as in the C version, keeps the threshold independent of the size of the corpus.
+ * <p>
+ * Like the C version, the counts are pruned when there are too many unique unigrams and bigrams, removing those
+ * with a count at most a minimum which is increased after each pruning.  Counts are then lower bounds, which only
+ * matters for rare bigrams that wouldn't form phrases anyway.
+ */
+public class Word2PhraseBuilder {
+	/** Number of sentences counted per task */
+	private static final int BLOCK_SIZE = 10_000;
+
+	private Integer minCount;
+	private Double threshold;
+	private Double delta;
+	private String delimiter;
+	private Integer maxEntries;
+	private Integer numThreads;
+
+	Word2PhraseBuilder() {
+	}
+
+	/**
+	 * Minimum count of the unigrams of a phrase, also subtracted from the count of the bigram when delta isn't set
+	 * <p>
+	 * Defaults to 5
+	 */
+	public Word2PhraseBuilder setMinCount(int minCount) {
+		Preconditions.checkArgument(minCount >= 0, "Value must be non-negative");
+		this.minCount = minCount;
+		return this;
+	}
+
+	/**
+	 * Minimum score of the bigrams to join into phrases, higher values giving fewer phrases
+	 * <p>
+	 * Defaults to 100
+	 */
+	public Word2PhraseBuilder setThreshold(double threshold) {
+		this.threshold = threshold;
+		return this;
+	}
+
+	/**
+	 * Discount subtracted from the count of each bigram, which prevents phrases of very infrequent words
+	 * <p>
+	 * Defaults to the minimum count, as in the C version
+	 */
+	public Word2PhraseBuilder setDelta(double delta) {
+		Preconditions.checkArgument(delta >= 0, "Value must be non-negative");
+		this.delta = delta;
+		return this;
+	}
+
+	/**
+	 * Delimiter between the tokens of a joined phrase
+	 * <p>
+	 * Defaults to "_"
+	 */
+	public Word2PhraseBuilder setDelimiter(String delimiter) {
+		this.delimiter = Preconditions.checkNotNull(delimiter);
+		return this;
+	}
+
+	/**
+	 * Maximum number of unique unigrams and bigrams to keep counts of, beyond which the counts are pruned
+	 * <p>
+	 * Defaults to 20 million
+	 */
+	public Word2PhraseBuilder setMaxEntries(int maxEntries) {
+		Preconditions.checkArgument(maxEntries > 0, "Value must be positive");
+		this.maxEntries = maxEntries;
+		return this;
+	}
+
+	/**
+	 * Specify number of threads to use for counting
+	 * <p>
+	 * Defaults to {@link Runtime#availableProcessors()}
+	 */
+	public Word2PhraseBuilder useNumThreads(int numThreads) {
+		Preconditions.checkArgument(numThreads > 0, "Value must be positive");
+		this.numThreads = numThreads;
+		return this;
+	}
+
+	/** @return {@link Word2Phrase} learned from the given sentences, which are read once */
+	public Word2Phrase learn(Iterable<List<String>> sentences) throws InterruptedException {
+		this.minCount = MoreObjects.firstNonNull(minCount, 5);
+		this.threshold = MoreObjects.firstNonNull(threshold, 100.0);
+		this.delta = MoreObjects.firstNonNull(delta, (double)minCount);
+		this.delimiter = MoreObjects.firstNonNull(delimiter, "_");
+		this.maxEntries = MoreObjects.firstNonNull(maxEntries, 20_000_000);
+		this.numThreads = MoreObjects.firstNonNull(numThreads, Runtime.getRuntime().availableProcessors());
+
+		AtomicLongMap<String> counts = AtomicLongMap.create();
+		long trainWords = count(sentences, counts);
+		return new Word2Phrase(score(counts, trainWords), delimiter);
+	}
+
+	/**
+	 * Counts the unigrams and bigrams of the given sentences into the given map, counting blocks of sentences
+	 * in parallel while the sentences are read.  At most two blocks per thread are held in memory at a time.
+	 *
+	 * @return Number of tokens in the sentences
+	 */
+	private long count(Iterable<List<String>> sentences, AtomicLongMap<String> counts) throws InterruptedException {
+		ExecutorService ex = Executors.newFixedThreadPool(numThreads,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("word2phrase-%d").build());
+		try {
+			Queue<Future<Long>> pending = new ArrayDeque<>();
+			long trainWords = 0;
+			int minReduce = 1;
+			Iterator<List<String>> iterator = sentences.iterator();
+			while (iterator.hasNext()) {
+				List<List<String>> block = new ArrayList<>(BLOCK_SIZE);
+				while (iterator.hasNext() && block.size() < BLOCK_SIZE)
+					block.add(iterator.next());
+				pending.add(ex.submit(new BlockCounter(block, counts)));
+
+				if (pending.size() >= 2 * numThreads)
+					trainWords += await(pending.remove());
+				if (counts.size() > maxEntries) {
+					// Pruning removes entries unconditionally, which would lose the counts that blocks add meanwhile
+					while (!pending.isEmpty())
+						trainWords += await(pending.remove());
+					prune(counts, minReduce++);
+				}
+			}
+			while (!pending.isEmpty())
+				trainWords += await(pending.remove());
+			return trainWords;
+		} finally {
+			ex.shutdownNow();
+		}
+	}
+
+	private static long await(Future<Long> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Error counting phrases", e.getCause());
+		}
+	}
+
+	/** 
+	 * Removes the entries with a count of at most the given minimum, like ReduceVocab in the C version.
+	 * No block may be counting meanwhile.
+	 */
+	private static void prune(AtomicLongMap<String> counts, int minReduce) {
+		for (Map.Entry<String, Long> entry : counts.asMap().entrySet()) {
+			if (entry.getValue() <= minReduce)
+				counts.remove(entry.getKey());
+		}
+	}
+
+	/** @return Keys of the bigrams whose score exceeds the threshold */
+	private ImmutableSet<String> score(AtomicLongMap<String> counts, long trainWords) {
+		ImmutableSet.Builder<String> phrases = ImmutableSet.builder();
+		for (Map.Entry<String, Long> entry : counts.asMap().entrySet()) {
+			String key = entry.getKey();
+			int separator = key.indexOf(Word2Phrase.KEY_SEPARATOR);
+			if (separator < 0)
+				continue;
+
+			long pa = counts.get(key.substring(0, separator));
+			long pb = counts.get(key.substring(separator + 1));
+			if (pa < minCount || pb < minCount)
+				continue;
+			double score = (entry.getValue() - delta) / pa / pb * trainWords;
+			if (score > threshold)
+				phrases.add(key);
+		}
+		return phrases.build();
+	}
+
+	/** Counts the unigrams and bigrams of a block of sentences, then adds them to the shared counts */
+	private static class BlockCounter implements Callable<Long> {
+		private final List<List<String>> block;
+		private final AtomicLongMap<String> counts;
+
+		BlockCounter(List<List<String>> block, AtomicLongMap<String> counts) {
+			this.block = block;
+			this.counts = counts;
+		}
+
+		@Override public Long call() {
+			// Counting locally first keeps the threads from contending on the counts of frequent tokens
+			Multiset<String> local = HashMultiset.create();
+			long words = 0;
+			for (List<String> sentence : block) {
+				String last = null;
+				for (String token : sentence) {
+					local.add(token);
+					if (last != null)
+						local.add(last + Word2Phrase.KEY_SEPARATOR + token);
+					last = token;
+					words++;
+				}
+			}
+			for (Multiset.Entry<String> entry : local.entrySet())
+				counts.addAndGet(entry.getElement(), entry.getCount());
+			return words;
+		}
+	}
+}
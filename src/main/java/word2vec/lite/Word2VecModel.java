@@ -1,20 +1,13 @@
 package word2vec.lite;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
 
-import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
+import com.google.common.base.Optional;
 
 
 
@@ -24,15 +17,15 @@ import com.google.common.collect.Lists;
  * Instances of this class are obtained via:
  * <ul>
  * <li> {@link #trainer()}
+ * <li> {@link #gloveTrainer()}
  * </ul>
  *
  * @see {@link #forSearch()}
  */
 public class Word2VecModel {
-    final List<String> vocab;
+    final Vocabulary vocab;
     final int layerSize;
 
-	private final static long ONE_GB = 1024 * 1024 * 1024;
 	/** Size of the layers */
 	public int getLayerSize()
 	{
@@ -42,16 +35,24 @@ public class Word2VecModel {
 	public float[][] getVectors() { return vectors; }
 
 	float[][] vectors;
+	/** Synthesizes vectors for words outside of the vocabulary, if the model was trained with hashed buckets */
+	final Optional<SubwordVectors> subwords;
 
 	Word2VecModel(Iterable<String> vocab, float[][] vectors)
+	{
+		this(vocab, vectors, Optional.<SubwordVectors>absent());
+	}
+
+	Word2VecModel(Iterable<String> vocab, float[][] vectors, Optional<SubwordVectors> subwords)
 	{
 		layerSize = vectors[0].length;
-		this.vocab = Lists.newArrayList(vocab);
+		this.vocab = Vocabulary.copyOf(vocab);
 		this.vectors = vectors;
+		this.subwords = subwords;
 	}
 
-	/** @return Vocabulary */
-	public Iterable<String> getVocab() {
+	/** @return Vocabulary, shared with the {@link Searcher}s of this model */
+	public Vocabulary getVocab() {
 		return vocab;
 	}
 
@@ -72,93 +73,57 @@ public class Word2VecModel {
 	/**
 	 * @return {@link Word2VecModel} created from the binary representation output
 	 * by the open source C version of word2vec using the given byte order.
+	 * The file is decoded in parallel, see {@link BinFiles#read(File, ByteOrder)}.
 	 */
 	public static Word2VecModel fromBinFile(File file, ByteOrder byteOrder)
 			throws IOException {
+		return BinFiles.read(file, byteOrder);
+	}
+
+	/**
+	 * Forwards to {@link #fromBinFile(InputStream, ByteOrder)} with the default
+	 * ByteOrder.LITTLE_ENDIAN
+	 */
+	public static Word2VecModel fromBinFile(InputStream in)
+			throws IOException {
+		return fromBinFile(in, ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * @return {@link Word2VecModel} read from the given stream in the binary representation output by the
+	 * open source C version of word2vec using the given byte order, gzipped or not.  The stream is read ahead
+	 * on another thread and is not closed, see {@link BinFiles#read(InputStream, ByteOrder)}.
+	 */
+	public static Word2VecModel fromBinFile(InputStream in, ByteOrder byteOrder)
+			throws IOException {
+		return BinFiles.read(in, byteOrder);
+	}
 
-		try (
-				final FileInputStream fis = new FileInputStream(file);
-
-		) {
-			final FileChannel channel = fis.getChannel();
-			MappedByteBuffer buffer =
-					channel.map(
-							FileChannel.MapMode.READ_ONLY,
-							0,
-							Math.min(channel.size(), Integer.MAX_VALUE));
-			buffer.order(byteOrder);
-			int bufferCount = 1;
-			// Java's NIO only allows memory-mapping up to 2GB. To work around this problem, we re-map
-			// every gigabyte. To calculate offsets correctly, we have to keep track how many gigabytes
-			// we've already skipped. That's what this is for.
-
-			StringBuilder sb = new StringBuilder();
-			char c = (char) buffer.get();
-			while (c != '\n') {
-				sb.append(c);
-				c = (char) buffer.get();
-			}
-			String firstLine = sb.toString();
-			int index = firstLine.indexOf(' ');
-			Preconditions.checkState(index != -1,
-					"Expected a space in the first line of file '%s': '%s'",
-					file.getAbsolutePath(), firstLine);
-
-			final int vocabSize = Integer.parseInt(firstLine.substring(0, index));
-			final int layerSize = Integer.parseInt(firstLine.substring(index + 1));
-
-
-			List<String> vocabs = new ArrayList<String>(vocabSize);
-			float[][] vectors = new float[vocabSize][layerSize];
-
-			long lastLogMessage = System.currentTimeMillis();
-			final float[] floats = new float[layerSize];
-			for (int lineno = 0; lineno < vocabSize; lineno++) {
-				// read vocab
-				sb.setLength(0);
-				c = (char) buffer.get();
-				while (c != ' ') {
-					// ignore newlines in front of words (some binary files have newline,
-					// some don't)
-					if (c != '\n') {
-						sb.append(c);
-					}
-					c = (char) buffer.get();
-				}
-				vocabs.add(sb.toString());
-
-				// read vector
-				final FloatBuffer floatBuffer = buffer.asFloatBuffer();
-				floatBuffer.get(floats);
-				for (int i = 0; i < floats.length; ++i) {
-					vectors[lineno][i] = floats[i];
-				}
-				buffer.position(buffer.position() + 4 * layerSize);
-
-				// print log
-				final long now = System.currentTimeMillis();
-				if (now - lastLogMessage > 1000) {
-					final double percentage = ((double) (lineno + 1) / (double) vocabSize) * 100.0;
-					lastLogMessage = now;
-				}
-
-				// remap file
-				if (buffer.position() > ONE_GB) {
-					final int newPosition = (int) (buffer.position() - ONE_GB);
-					final long size = Math.min(channel.size() - ONE_GB * bufferCount, Integer.MAX_VALUE);
-
-					buffer = channel.map(
-							FileChannel.MapMode.READ_ONLY,
-							ONE_GB * bufferCount,
-							size);
-					buffer.order(byteOrder);
-					buffer.position(newPosition);
-					bufferCount += 1;
-				}
-			}
-
-			return new Word2VecModel(vocabs, vectors);
-		}
+	/**
+	 * @return {@link Word2VecModel} of the first maxWords words of the binary file output by the C version of
+	 * word2vec using the given byte order, i.e. the most frequent ones, see {@link BinFiles#readFirst(File, ByteOrder, int)}
+	 */
+	public static Word2VecModel fromBinFile(File file, ByteOrder byteOrder, int maxWords)
+			throws IOException {
+		return BinFiles.readFirst(file, byteOrder, maxWords);
+	}
+
+	/**
+	 * @return {@link Word2VecModel} of the given words of the binary file output by the C version of word2vec
+	 * using the given byte order, see {@link BinFiles#readWords(File, ByteOrder, Collection)}
+	 */
+	public static Word2VecModel fromBinFile(File file, ByteOrder byteOrder, Collection<String> words)
+			throws IOException {
+		return BinFiles.readWords(file, byteOrder, words);
+	}
+
+	/**
+	 * @return {@link Word2VecModel} read from the text representation output by the open source C version of
+	 * word2vec, or by GloVe, which has no header line.  The file is parsed in parallel, see {@link TextFiles#read(File)}.
+	 */
+	public static Word2VecModel fromTextFile(File file)
+			throws IOException {
+		return TextFiles.read(file);
 	}
 
     /** Normalizes the vectors in this model */
@@ -182,32 +147,41 @@ public class Word2VecModel {
 
 	/**
 	 * Saves the model as a bin file that's compatible with the C version of Word2Vec
+	 * <p>
+	 * Only the vectors of the vocabulary are saved, not those of hashed buckets
 	 */
 	public void toBinFile(final OutputStream out) throws IOException {
-		final Charset cs = Charset.forName("UTF-8");
-		final String header = String.format("%d %d\n", vocab.size(), layerSize);
-		out.write(header.getBytes(cs));
-
-
-		final ByteBuffer buffer = ByteBuffer.allocate(4 * layerSize);
-		buffer.order(ByteOrder.LITTLE_ENDIAN);	// The C version uses this byte order.
-		for(int i = 0; i < vocab.size(); ++i) {
-			out.write(String.format("%s ", vocab.get(i)).getBytes(cs));
+		BinFiles.write(this, out);
+	}
 
-			// we have vocab x layer so to get to the next is i * layerSize, but in 1D its just i
-			buffer.clear();
-			for(int j = 0; j < layerSize; ++j)
-				buffer.putFloat(vectors[i][j]);
-			out.write(buffer.array());
+	/**
+	 * Saves the model to the given file like {@link #toBinFile(OutputStream)}, encoding blocks of records
+	 * in parallel, see {@link BinFiles#write(Word2VecModel, File)}
+	 */
+	public void toBinFile(final File file) throws IOException {
+		BinFiles.write(this, file);
+	}
 
-			out.write('\n');
-		}
+	/**
+	 * Saves the model as a text file that's compatible with the C version of Word2Vec, encoding blocks of lines
+	 * in parallel, see {@link TextFiles#write(Word2VecModel, File)}
+	 */
+	public void toTextFile(final File file) throws IOException {
+		TextFiles.write(this, file);
+	}
 
-		out.flush();
+	/** @return {@link ModelConverterBuilder} for converting a model file to another format without reading the whole model */
+	public static ModelConverterBuilder converter() {
+		return new ModelConverterBuilder();
 	}
 
 	/** @return {@link Word2VecTrainerBuilder} for training a model */
 	public static Word2VecTrainerBuilder trainer() {
 		return new Word2VecTrainerBuilder();
 	}
+
+	/** @return {@link GloveTrainerBuilder} for training a model on co-occurrence counts */
+	public static GloveTrainerBuilder gloveTrainer() {
+		return new GloveTrainerBuilder();
+	}
 }
@@ -3,7 +3,9 @@ package word2vec.lite;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMultiset;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multiset;
@@ -11,35 +13,91 @@ import com.google.common.collect.Multisets;
 import word2vec.lite.huffman.HuffmanCoding;
 import word2vec.lite.neuralnetwork.NeuralNetworkConfig;
 import word2vec.lite.neuralnetwork.NeuralNetworkTrainer;
+import word2vec.lite.neuralnetwork.TrainingMetricsCollector;
+import word2vec.lite.neuralnetwork.WordHashing;
+import word2vec.lite.Word2VecTrainerBuilder.TrainingMetricsListener;
+import word2vec.lite.Word2VecTrainerBuilder.TrainingProgressListener.Stage;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /** Responsible for training a word2vec model */
 class Word2VecTrainer {
 	private final int minFrequency;
 	private final Optional<Multiset<String>> vocab;
-	private final NeuralNetworkConfig neuralNetworkConfig;
+	private final Optional<File> vocabOutput;
+	private final Optional<TrainingMetricsListener> metricsListener;
+	private final long metricsIntervalMillis;
+	private final ImmutableList<NeuralNetworkConfig> neuralNetworkConfigs;
+	private final Optional<ExecutorService> executor;
+	private final Optional<WordHashing> hashing;
+	/** Number of most frequent tokens kept in the vocabulary when there are word buckets */
+	private final int maxWords;
 	
+	/* The following is set once the neural networks are created, for snapshots */
+	private volatile ImmutableMultiset<String> trainedVocab;
+	private volatile List<NeuralNetworkTrainer> trainers;
+	
+	/** 
+	 * @param neuralNetworkConfigs Configuration of each network to train over the same vocabulary
+	 * @param executor Executor to train the neural networks on, instead of a pool created per training
+	 * @param hashing Hashing of the tokens beyond the maxWords most frequent ones and of character n-grams
+	 */
 	Word2VecTrainer(
 			Integer minFrequency,
 			Optional<Multiset<String>> vocab,
-			NeuralNetworkConfig neuralNetworkConfig) {
+			Optional<File> vocabOutput,
+			Optional<TrainingMetricsListener> metricsListener,
+			long metricsIntervalMillis,
+			List<NeuralNetworkConfig> neuralNetworkConfigs,
+			Optional<ExecutorService> executor,
+			Optional<WordHashing> hashing,
+			int maxWords) {
 		this.vocab = vocab;
+		this.vocabOutput = vocabOutput;
+		this.metricsListener = metricsListener;
+		this.metricsIntervalMillis = metricsIntervalMillis;
 		this.minFrequency = minFrequency;
-		this.neuralNetworkConfig = neuralNetworkConfig;
+		this.neuralNetworkConfigs = ImmutableList.copyOf(neuralNetworkConfigs);
+		this.executor = executor;
+		this.hashing = hashing;
+		this.maxWords = maxWords;
 	}
 
 	/** @return {@link Multiset} containing unique tokens and their counts */
-	private static Multiset<String> count(Iterable<String> tokens) {
+	static Multiset<String> count(Iterable<String> tokens) {
 		Multiset<String> counts = HashMultiset.create();
 		for (String token : tokens)
 			counts.add(token);
 		return counts;
 	}
 	
-	/** @return Tokens with their count, sorted by frequency decreasing, then lexicographically ascending */
-	private ImmutableMultiset<String> filterAndSort(final Multiset<String> counts) {
+	/** 
+	 * @return Tokens with their count, sorted by frequency decreasing, then lexicographically ascending.
+	 * A pre-built {@link ImmutableMultiset} which is already sorted by frequency, e.g. one read by {@link VocabFiles},
+	 * is only filtered and keeps its order.
+	 */
+	private ImmutableMultiset<String> filterAndSort(Multiset<String> counts) {
+		return filterAndSort(counts, minFrequency);
+	}
+	
+	/** 
+	 * @return Tokens of the given counts with at least minFrequency occurrences, sorted like {@link #filterAndSort(Multiset)}
+	 */
+	static ImmutableMultiset<String> filterAndSort(final Multiset<String> counts, final int minFrequency) {
+		if (counts instanceof ImmutableMultiset && VocabFiles.isSortedByFrequency(counts)) {
+			ImmutableMultiset.Builder<String> result = ImmutableMultiset.builder();
+			for (Multiset.Entry<String> e : counts.entrySet()) {
+				if (e.getCount() >= minFrequency)
+					result.addCopies(e.getElement(), e.getCount());
+			}
+			return result.build();
+		}
+		
 		// This isn't terribly efficient, but it is deterministic
 		// Unfortunately, Guava's multiset doesn't give us a clean way to order both by count and element
 		return Multisets.copyHighestCountFirst(
@@ -58,33 +116,130 @@ class Word2VecTrainer {
 		
 	}
 	
-	/** Train a model using the given data */
-	Word2VecModel train(Word2VecTrainerBuilder.TrainingProgressListener listener, Iterable<List<String>> sentences) throws InterruptedException {
-
+	/** 
+	 * @return The maxWords most frequent tokens of the vocabulary and the pseudo-tokens of the word buckets,
+	 * sorted like {@link #filterAndSort(Multiset)}.  Every other token is counted into its bucket.
+	 */
+	private ImmutableMultiset<String> hashTail(ImmutableMultiset<String> vocab, Multiset<String> counts) {
+		ImmutableSet<String> top = ImmutableSet.copyOf(Iterables.limit(vocab.elementSet(), maxWords));
+		long[] bucketCounts = new long[hashing.get().getNumWordBuckets()];
+		for (Multiset.Entry<String> e : counts.entrySet()) {
+			if (!top.contains(e.getElement()))
+				bucketCounts[hashing.get().wordBucket(e.getElement())] += e.getCount();
+		}
+		
+		Multiset<String> result = HashMultiset.create();
+		for (String token : top)
+			result.add(token, vocab.count(token));
+		for (int bucket = 0; bucket < bucketCounts.length; bucket++) {
+			if (bucketCounts[bucket] > 0)
+				result.add(WordHashing.bucketToken(bucket), (int)Math.min(bucketCounts[bucket], Integer.MAX_VALUE));
+		}
+		return filterAndSort(result);
+	}
+	
+	/** Saves the filtered and sorted vocabulary like the C version's <code>-save-vocab</code> option */
+	private static void saveVocab(ImmutableMultiset<String> vocab, File file) {
+		try {
+			VocabFiles.writeText(vocab, file);
+		} catch (IOException ioe) {
+			throw new IllegalStateException(String.format("Failed to write vocabulary to %s: %s", file.getAbsolutePath(), ioe), ioe);
+		}
+	}
+	
+	/** 
+	 * Train a model per {@link NeuralNetworkConfig} using the given data.  The vocabulary and Huffman encoding are
+	 * built once, and the networks are trained together in a single pass over the data.
+	 * @return Trained models, in the order of the configurations
+	 */
+	List<Word2VecModel> train(Word2VecTrainerBuilder.TrainingProgressListener listener, Iterable<List<String>> sentences) throws InterruptedException {
+		int numThreads = 0;
+		int numSlots = 0;
+		for (NeuralNetworkConfig config : neuralNetworkConfigs) {
+			numThreads = Math.max(numThreads, config.getNumThreads());
+			numSlots += config.getNumThreads();
+		}
+		
+		final TrainingMetricsCollector metrics = new TrainingMetricsCollector(numSlots);
+		if (metricsListener.isPresent())
+			metrics.start(metricsListener.get(), metricsIntervalMillis);
+		
+		try {
 			final Multiset<String> counts;
 			
-
-				listener.update(Word2VecTrainerBuilder.TrainingProgressListener.Stage.ACQUIRE_VOCAB, 0.0);
-				counts = (vocab.isPresent())
-							? vocab.get()
-							: count(Iterables.concat(sentences));
-
+			metrics.stageStarted(Stage.ACQUIRE_VOCAB);
+			listener.update(Stage.ACQUIRE_VOCAB, 0.0);
+			counts = (vocab.isPresent())
+					? vocab.get()
+					: count(Iterables.concat(sentences));
 			
-			final ImmutableMultiset<String> vocab;
-
-				listener.update(Word2VecTrainerBuilder.TrainingProgressListener.Stage.FILTER_SORT_VOCAB, 0.0);
-				vocab = filterAndSort(counts);
-
+			ImmutableMultiset<String> vocab;
+			
+			metrics.stageStarted(Stage.FILTER_SORT_VOCAB);
+			listener.update(Stage.FILTER_SORT_VOCAB, 0.0);
+			vocab = filterAndSort(counts);
+			if (vocabOutput.isPresent())
+				saveVocab(vocab, vocabOutput.get());
+			if (hashing.isPresent() && hashing.get().getNumWordBuckets() > 0)
+				vocab = hashTail(vocab, counts);
 			
 			final Map<String, HuffmanCoding.HuffmanNode> huffmanNodes;
-			huffmanNodes = new HuffmanCoding(vocab, listener).encode();
-
+			metrics.stageStarted(Stage.CREATE_HUFFMAN_ENCODING);
+			huffmanNodes = new HuffmanCoding(vocab, listener, numThreads).encode();
 			
-			final NeuralNetworkTrainer.NeuralNetworkModel model;
-			model = neuralNetworkConfig.createTrainer(vocab, huffmanNodes, listener).train(sentences);
-
+			List<NeuralNetworkTrainer> trainers = new ArrayList<>(neuralNetworkConfigs.size());
+			for (NeuralNetworkConfig config : neuralNetworkConfigs)
+				trainers.add(config.createTrainer(vocab, huffmanNodes, hashing, listener, metrics));
+			this.trainedVocab = vocab;
+			this.trainers = trainers;
+			List<NeuralNetworkTrainer.NeuralNetworkModel> models = executor.isPresent()
+					? NeuralNetworkTrainer.train(trainers, sentences, executor.get())
+					: NeuralNetworkTrainer.train(trainers, sentences, numThreads);
+			metrics.stageFinished();
 			
+			List<Word2VecModel> result = new ArrayList<>(models.size());
+			for (NeuralNetworkTrainer.NeuralNetworkModel model : models)
+				result.add(toModel(vocab, model));
+			return result;
+		} finally {
+			metrics.stop();
+		}
+	}
+	
+	/** @return {@link Word2VecModel} of the given network, with the word buckets split from the vocabulary */
+	private Word2VecModel toModel(ImmutableMultiset<String> vocab, NeuralNetworkTrainer.NeuralNetworkModel model) {
+		if (!hashing.isPresent())
 			return new Word2VecModel(vocab.elementSet(), model.vectors());
+		
+		List<String> words = new ArrayList<>(vocab.elementSet().size());
+		List<float[]> vectors = new ArrayList<>(vocab.elementSet().size());
+		float[][] bucketVectors = new float[hashing.get().getNumWordBuckets()][];
+		int idx = 0;
+		for (String token : vocab.elementSet()) {
+			int bucket = WordHashing.parseBucketToken(token);
+			if (bucket >= 0) {
+				bucketVectors[bucket] = model.vectors()[idx];
+			} else {
+				words.add(token);
+				vectors.add(model.vectors()[idx]);
+			}
+			idx++;
 		}
+		return new Word2VecModel(
+				words,
+				vectors.toArray(new float[vectors.size()][]),
+				Optional.of(new SubwordVectors(hashing.get(), bucketVectors, model.nGramVectors()))
+			);
 	}
-
+	
+	/** @return Copies of the models being trained, if the neural networks have been created */
+	Optional<List<Word2VecModel>> snapshot() {
+		List<NeuralNetworkTrainer> trainers = this.trainers;
+		if (trainers == null)
+			return Optional.absent();
+		List<Word2VecModel> result = new ArrayList<>(trainers.size());
+		for (NeuralNetworkTrainer trainer : trainers)
+			result.add(toModel(trainedVocab, trainer.snapshot()));
+		return Optional.of(result);
+	}
+}
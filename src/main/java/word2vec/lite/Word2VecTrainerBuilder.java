@@ -3,13 +3,26 @@ package word2vec.lite;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Multiset;
 
+import word2vec.lite.neuralnetwork.EarlyStoppingPolicy;
 import word2vec.lite.neuralnetwork.NeuralNetworkConfig;
 import word2vec.lite.neuralnetwork.NeuralNetworkType;
+import word2vec.lite.neuralnetwork.Optimizer;
+import word2vec.lite.neuralnetwork.TrainingMetrics;
+import word2vec.lite.neuralnetwork.WordHashing;
+import word2vec.lite.util.HalfFloat;
+import word2vec.lite.util.Threads;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Builder pattern for training a new {@link Word2VecModel}
@@ -69,11 +82,26 @@ public class Word2VecTrainerBuilder {
 	private int negativeSamples;
 	private boolean useHierarchicalSoftmax;
 	private Multiset<String> vocab;
+	private File vocabOutput;
 	private Integer minFrequency;
+	private int maxWords;
+	private int numWordBuckets;
+	private int minN;
+	private int maxN;
+	private int numNGramBuckets;
 	private Double initialLearningRate;
 	private Double downSampleRate;
+	private Optimizer optimizer;
 	private Integer iterations;
+	private double lossSampleRate;
+	private EarlyStoppingPolicy earlyStopping;
+	private Long timeoutNanos;
+	private Double maxCpuShare;
+	private HalfFloat outputLayerFormat;
 	private TrainingProgressListener listener;
+	private Double maxListenerRate;
+	private TrainingMetricsListener metricsListener;
+	private long metricsIntervalMillis;
 	
 	Word2VecTrainerBuilder() {
 	}
@@ -154,6 +182,25 @@ public class Word2VecTrainerBuilder {
 		return this;
 	}
 	
+	/** 
+	 * Use a pre-built vocabulary from a file written by {@link VocabFiles} or by the C version's
+	 * <code>-save-vocab</code> option, skipping the pass over the training data that counts tokens
+	 * <p>
+	 * If the file is sorted by frequency descending, the vocabulary is not sorted again
+	 */
+	public Word2VecTrainerBuilder useVocab(File vocabFile) throws IOException {
+		return useVocab(VocabFiles.read(vocabFile));
+	}
+	
+	/** 
+	 * Save the filtered and sorted vocabulary to the given file in the C version's text format,
+	 * so that later trainings can start from it with {@link #useVocab(File)}
+	 */
+	public Word2VecTrainerBuilder saveVocab(File vocabFile) {
+		this.vocabOutput = Preconditions.checkNotNull(vocabFile);
+		return this;
+	}
+	
 	/** 
 	 * Specify the minimum frequency for a valid token to be considered
 	 * part of the vocabulary
@@ -166,6 +213,39 @@ public class Word2VecTrainerBuilder {
 		return this;
 	}
 	
+	/** 
+	 * Keep only the maxWords most frequent tokens in the vocabulary, and hash every other token into one of
+	 * numBuckets buckets whose vectors are trained like those of the vocabulary
+	 * <p>
+	 * The size of the network is then bounded regardless of the size of the vocabulary, and the {@link Searcher}
+	 * synthesizes the vector of a word outside of the vocabulary from its bucket.  By default, tokens outside
+	 * of the vocabulary are dropped.
+	 * @see WordHashing
+	 */
+	public Word2VecTrainerBuilder useHashedBuckets(int maxWords, int numBuckets) {
+		Preconditions.checkArgument(maxWords > 0 && numBuckets > 0, "Value must be positive");
+		this.maxWords = maxWords;
+		this.numWordBuckets = numBuckets;
+		return this;
+	}
+	
+	/** 
+	 * Hash the character n-grams of length minN to maxN of every token into numBuckets buckets, in the style
+	 * of fastText.  The input vector of a token is the average of its own vector and those of its n-grams,
+	 * and the {@link Searcher} synthesizes the vector of a word outside of the vocabulary from its n-grams.
+	 * <p>
+	 * By default, n-grams are not used
+	 * @see WordHashing
+	 */
+	public Word2VecTrainerBuilder useCharNGrams(int minN, int maxN, int numBuckets) {
+		Preconditions.checkArgument(minN > 0 && minN <= maxN, "Expected 0 < minN <= maxN");
+		Preconditions.checkArgument(numBuckets > 0, "Value must be positive");
+		this.minN = minN;
+		this.maxN = maxN;
+		this.numNGramBuckets = numBuckets;
+		return this;
+	}
+	
 	/**
 	 * Set the starting learning rate
 	 * <p>
@@ -189,6 +269,67 @@ public class Word2VecTrainerBuilder {
 		return this;
 	}
 	
+	/** 
+	 * @see {@link Optimizer}
+	 * <p>
+	 * By default, word2vec uses {@link Optimizer#SGD}
+	 */
+	public Word2VecTrainerBuilder setOptimizer(Optimizer optimizer) {
+		this.optimizer = Preconditions.checkNotNull(optimizer);
+		return this;
+	}
+	
+	/** 
+	 * Stop training before the configured number of iterations once the given {@link EarlyStoppingPolicy}
+	 * sees no more improvement
+	 * <p>
+	 * The number of iterations is then an upper bound, and the learning rate is annealed over the
+	 * iterations actually run
+	 */
+	public Word2VecTrainerBuilder setEarlyStopping(EarlyStoppingPolicy earlyStopping) {
+		this.earlyStopping = Preconditions.checkNotNull(earlyStopping);
+		return this;
+	}
+	
+	/** 
+	 * Stop training once the given time has passed since training started, with the learning rate
+	 * annealed to its minimum by then
+	 * <p>
+	 * The throughput is measured while training, and the decay of the learning rate is rescaled over the
+	 * words that can still be processed before the deadline, so a run that is cut short still ends with
+	 * fully annealed vectors.  By default, there is no deadline
+	 */
+	public Word2VecTrainerBuilder setDeadline(long timeout, TimeUnit unit) {
+		Preconditions.checkArgument(timeout > 0, "Value must be positive");
+		this.timeoutNanos = unit.toNanos(timeout);
+		return this;
+	}
+	
+	/** 
+	 * Limit the CPU used while training the neural network to the given fraction of the available processors
+	 * <p>
+	 * The CPU time of this trainer's own training threads is measured while training, and they are paused or resumed
+	 * between sentences to stay within the share.  Defaults to 1, i.e. no limit
+	 */
+	public Word2VecTrainerBuilder setMaxCpuShare(double maxCpuShare) {
+		Preconditions.checkArgument(maxCpuShare > 0 && maxCpuShare <= 1, "Value must be in (0, 1]");
+		this.maxCpuShare = maxCpuShare;
+		return this;
+	}
+	
+	/** 
+	 * Store the weights of the output layers, used for hierarchical softmax and negative sampling, in the given
+	 * 16 bit format, which halves their memory and the bandwidth of the updates
+	 * <p>
+	 * Computations are still done in double precision, and updates are rounded stochastically so that small
+	 * steps aren't lost.  The input vectors, which become the model, are kept as floats.  By default, the output
+	 * layers are stored as floats, as in the C version
+	 */
+	public Word2VecTrainerBuilder setOutputLayerFormat(HalfFloat outputLayerFormat) {
+		this.outputLayerFormat = Preconditions.checkNotNull(outputLayerFormat);
+		return this;
+	}
+	
 	/** Set the number of iterations */
 	public Word2VecTrainerBuilder setNumIterations(int iterations) {
 		Preconditions.checkArgument(iterations > 0, "Value must be positive");
@@ -196,14 +337,133 @@ public class Word2VecTrainerBuilder {
 		return this;
 	}
 	
+	/** 
+	 * Set the fraction of updates for which the training loss is computed, reported through
+	 * {@link TrainingMetrics#getIntervalLoss()} and {@link TrainingMetrics#getEpochLosses()}
+	 * <p>
+	 * Defaults to 0, i.e. the loss is not tracked.  A rate of 0.01 costs well under a percent of throughput
+	 */
+	public Word2VecTrainerBuilder setLossSampleRate(double lossSampleRate) {
+		Preconditions.checkArgument(lossSampleRate >= 0 && lossSampleRate <= 1, "Value must be between 0 and 1");
+		this.lossSampleRate = lossSampleRate;
+		return this;
+	}
+	
 	/** Set a progress listener */
 	public Word2VecTrainerBuilder setListener(TrainingProgressListener listener) {
 		this.listener = listener;
 		return this;
 	}
 	
+	/** 
+	 * Set the maximum number of times per second the progress listener is called
+	 * <p>
+	 * The listener is called from a separate dispatcher thread, and updates published faster than
+	 * this rate are coalesced into the latest one.  Defaults to 10
+	 */
+	public Word2VecTrainerBuilder setMaxListenerRate(double updatesPerSecond) {
+		Preconditions.checkArgument(updatesPerSecond > 0, "Value must be positive");
+		this.maxListenerRate = updatesPerSecond;
+		return this;
+	}
+	
+	/** 
+	 * Set a listener which receives {@link TrainingMetrics} every intervalMillis
+	 * <p>
+	 * The metrics are collected with per-thread counters that are aggregated by a separate sampler thread,
+	 * so the listener never runs on a training thread
+	 */
+	public Word2VecTrainerBuilder setMetricsListener(TrainingMetricsListener metricsListener, long intervalMillis) {
+		Preconditions.checkArgument(intervalMillis > 0, "Value must be positive");
+		this.metricsListener = Preconditions.checkNotNull(metricsListener);
+		this.metricsIntervalMillis = intervalMillis;
+		return this;
+	}
+	
 	/** Train the model */
 	public Word2VecModel train(Iterable<List<String>> sentences) throws InterruptedException {
+		long startNanos = System.nanoTime();
+		applyDefaults();
+		return train(ImmutableList.of(createNeuralNetworkConfig(startNanos)), sentences).get(0);
+	}
+	
+	/** 
+	 * Start training the model on a separate thread
+	 * <p>
+	 * The thread counts the vocabulary and builds the Huffman encoding, so it is a platform thread.  The neural network
+	 * is trained on a pool of threads created for this training.
+	 * @return {@link TrainingHandle} to follow, cancel or take snapshots of the training
+	 */
+	public TrainingHandle trainAsync(Iterable<List<String>> sentences) {
+		return trainAsync(sentences, Optional.<ExecutorService>absent());
+	}
+	
+	/** 
+	 * Like {@link #trainAsync(Iterable)}, but trains the neural network on the given executor, e.g. to share
+	 * one pool between many small trainings.  The executor isn't shut down.
+	 * <p>
+	 * Training threads may wait for each other within the executor, so it must have at least as many
+	 * threads as {@link #useNumThreads(int)} to make progress.
+	 */
+	public TrainingHandle trainAsync(Iterable<List<String>> sentences, ExecutorService executor) {
+		return trainAsync(sentences, Optional.of(executor));
+	}
+	
+	private TrainingHandle trainAsync(final Iterable<List<String>> sentences, Optional<ExecutorService> executor) {
+		long startNanos = System.nanoTime();
+		applyDefaults();
+		final Word2VecTrainer trainer = createTrainer(ImmutableList.of(createNeuralNetworkConfig(startNanos)), executor);
+		final TrainingProgressListener listener = this.listener;
+		final double maxListenerRate = this.maxListenerRate;
+		final TrainingHandle handle = new TrainingHandle();
+		
+		Thread driver = Threads.daemonThreadFactory("word2vec-train-%d").newThread(new Runnable() {
+			@Override public void run() {
+				handle.run(trainer, new Callable<Word2VecModel>() {
+					@Override public Word2VecModel call() throws InterruptedException {
+						try (AsyncProgressDispatcher dispatcher = new AsyncProgressDispatcher(listener, maxListenerRate)) {
+							return trainer.train(handle.recordingTo(dispatcher), sentences).get(0);
+						}
+					}
+				});
+			}
+		});
+		driver.start();
+		return handle;
+	}
+	
+	/** 
+	 * Train one model per variant in a single pass over the data, e.g. for a hyperparameter sweep
+	 * <p>
+	 * The vocabulary, Huffman encoding and encoded sentences are built once from the settings of this builder
+	 * and shared by all variants, as is the table used for negative sampling.  Each variant contributes the settings
+	 * of its neural network: type, layer size, window size, hierarchical softmax, negative samples, learning rate,
+	 * optimizer, down sampling rate, iterations, loss sample rate, early stopping, deadline, CPU share and
+	 * output layer format.
+	 * Its vocabulary settings and listeners are ignored, and it uses the number of threads of this builder
+	 * unless it sets its own.
+	 * <p>
+	 * The networks of all variants are updated on one pool of threads, iteration by iteration.  The progress
+	 * listener receives the progress of each network in turn and the metrics aggregate all of them.
+	 * @param variants Builders created with {@link Word2VecModel#trainer()}
+	 * @return Trained models, in the order of the variants
+	 */
+	public List<Word2VecModel> trainSweep(List<Word2VecTrainerBuilder> variants, Iterable<List<String>> sentences) throws InterruptedException {
+		Preconditions.checkArgument(!variants.isEmpty(), "Expected at least one variant");
+		long startNanos = System.nanoTime();
+		applyDefaults();
+		List<NeuralNetworkConfig> configs = new ArrayList<>(variants.size());
+		for (Word2VecTrainerBuilder variant : variants) {
+			if (variant.numThreads == null)
+				variant.numThreads = numThreads;
+			variant.applyDefaults();
+			configs.add(variant.createNeuralNetworkConfig(startNanos));
+		}
+		return train(configs, sentences);
+	}
+	
+	/** Fills in the default of every unset value */
+	private void applyDefaults() {
 		this.type = MoreObjects.firstNonNull(type, NeuralNetworkType.CBOW);
 		this.initialLearningRate = MoreObjects.firstNonNull(initialLearningRate, type.getDefaultInitialLearningRate());
 		if (this.numThreads == null)
@@ -212,52 +472,108 @@ public class Word2VecTrainerBuilder {
 		this.layerSize = MoreObjects.firstNonNull(layerSize, 100);
 		this.windowSize = MoreObjects.firstNonNull(windowSize, 5);
 		this.downSampleRate = MoreObjects.firstNonNull(downSampleRate, 0.001);
+		this.optimizer = MoreObjects.firstNonNull(optimizer, Optimizer.SGD);
 		this.minFrequency = MoreObjects.firstNonNull(minFrequency, 5);
+		this.maxListenerRate = MoreObjects.firstNonNull(maxListenerRate, 10.0);
+		this.maxCpuShare = MoreObjects.firstNonNull(maxCpuShare, 1.0);
 		this.listener = MoreObjects.firstNonNull(listener, new TrainingProgressListener() {
 			@Override
 			public void update(Stage stage, double progress) {
 				System.out.println(String.format("Stage %s, progress %s%%", stage, progress));
 			}
 		});
-		
+	}
+	
+	/** 
+	 * @param startNanos Value of {@link System#nanoTime()} when training started
+	 * @return {@link NeuralNetworkConfig} from the settings of this builder, once defaults are applied
+	 */
+	private NeuralNetworkConfig createNeuralNetworkConfig(long startNanos) {
+		return new NeuralNetworkConfig(
+				type,
+				numThreads,
+				iterations,
+				layerSize,
+				windowSize,
+				negativeSamples,
+				downSampleRate,
+				initialLearningRate,
+				optimizer,
+				useHierarchicalSoftmax,
+				lossSampleRate,
+				Optional.fromNullable(earlyStopping),
+				timeoutNanos == null ? Long.MAX_VALUE : startNanos + timeoutNanos,
+				maxCpuShare,
+				Optional.fromNullable(outputLayerFormat)
+			);
+	}
+	
+	/** Train a model per {@link NeuralNetworkConfig} with the vocabulary settings of this builder */
+	private List<Word2VecModel> train(List<NeuralNetworkConfig> configs, Iterable<List<String>> sentences) throws InterruptedException {
+		try (AsyncProgressDispatcher dispatcher = new AsyncProgressDispatcher(listener, maxListenerRate)) {
+			return createTrainer(configs, Optional.<ExecutorService>absent()).train(dispatcher, sentences);
+		}
+	}
+	
+	/** @return {@link Word2VecTrainer} for a model per {@link NeuralNetworkConfig} with the vocabulary settings of this builder */
+	private Word2VecTrainer createTrainer(List<NeuralNetworkConfig> configs, Optional<ExecutorService> executor) {
 		Optional<Multiset<String>> vocab = this.vocab == null
 				? Optional.<Multiset<String>>absent()
 				: Optional.of(this.vocab);
 		
+		Optional<WordHashing> hashing = numWordBuckets > 0 || numNGramBuckets > 0
+				? Optional.of(new WordHashing(numWordBuckets, minN, maxN, numNGramBuckets))
+				: Optional.<WordHashing>absent();
+		
 		return new Word2VecTrainer(
 				minFrequency,
 				vocab,
-				new NeuralNetworkConfig(
-						type,
-						numThreads,
-						iterations,
-						layerSize,
-						windowSize,
-						negativeSamples,
-						downSampleRate,
-						initialLearningRate,
-						useHierarchicalSoftmax
-					)
-			).train(listener, sentences);
+				Optional.fromNullable(vocabOutput),
+				Optional.fromNullable(metricsListener),
+				metricsIntervalMillis,
+				configs,
+				executor,
+				hashing,
+				maxWords
+			);
 	}
 	
 	/** Listener for model training progress */
 	public interface TrainingProgressListener {
-		/** Sequential stages of processing */
+		/** 
+		 * Sequential stages of processing
+		 * <p>
+		 * A {@link GloveTrainerBuilder} goes through {@link #COUNT_COOCCURRENCES} instead of
+		 * {@link #CREATE_HUFFMAN_ENCODING}, then reports its AdaGrad passes over the co-occurrences as
+		 * {@link #TRAIN_NEURAL_NETWORK}.  New stages are appended, so the order of the constants isn't
+		 * always the order of processing.
+		 */
 		enum Stage {
 			ACQUIRE_VOCAB,
 			FILTER_SORT_VOCAB,
 			CREATE_HUFFMAN_ENCODING,
 			TRAIN_NEURAL_NETWORK,
+			/** Only for {@link GloveTrainerBuilder}, between {@link #FILTER_SORT_VOCAB} and {@link #TRAIN_NEURAL_NETWORK} */
+			COUNT_COOCCURRENCES,
 		}
 		
 		/** 
 		 * Called during word2vec training
 		 * <p>
-		 * Note that this is called in a separate thread from the processing thread
+		 * Note that this is called in a separate thread from the processing thread, at most at the rate
+		 * given by {@link Word2VecTrainerBuilder#setMaxListenerRate(double)}; intermediate updates may be skipped
 		 * @param stage Current {@link Stage} of processing
 		 * @param progress Progress of the current stage as a double value between 0 and 1
 		 */
 		void update(Stage stage, double progress);
 	}
-}
\ No newline at end of file
+	
+	/** Listener for periodic {@link TrainingMetrics} */
+	public interface TrainingMetricsListener {
+		/** 
+		 * Called periodically during word2vec training from a separate sampler thread
+		 * @param metrics Snapshot of the current {@link TrainingMetrics}
+		 */
+		void update(TrainingMetrics metrics);
+	}
+}
@@ -0,0 +1,262 @@
+package word2vec.lite.glove;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Closer;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Counts the co-occurrences of the tokens within a window, as in GloVe's cooccur tool
+ * <p>
+ * A pair of tokens at distance d adds 1/d to the counts of both (i, j) and (j, i).  Blocks of sentences are
+ * counted in parallel into one {@link LongFloatHashMap} per thread, which is spilled to disk as a run sorted by
+ * (i, j) whenever it grows beyond its limit.  The runs are then merged, summing the counts of equal pairs, into
+ * a single file of (i, j, x) records sorted by (i, j).
+ */
+class CooccurrenceCounter {
+	/** Number of sentences counted per task */
+	private static final int BLOCK_SIZE = 10_000;
+	/** Maximum number of runs merged at once, to bound the number of open files */
+	private static final int MAX_FAN_IN = 64;
+	/** Size of a record of two ints and a float */
+	static final int RECORD_BYTES = 12;
+
+	private final GloveConfig config;
+	private final Map<String, Integer> index;
+	private final File directory;
+	private final List<Run> runs = new ArrayList<>();
+	private int nextRun;
+
+	/**
+	 * @param index Index of each token of the vocabulary
+	 * @param directory Directory to write the runs to
+	 */
+	CooccurrenceCounter(GloveConfig config, Map<String, Integer> index, File directory) {
+		this.config = config;
+		this.index = index;
+		this.directory = directory;
+	}
+
+	/** Sorted file of (i, j, x) records */
+	static class Run {
+		final File file;
+		final long size;
+
+		Run(File file, long size) {
+			this.file = file;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Counts the co-occurrences of the given sentences on the given executor while the sentences are read.
+	 * At most two blocks of sentences per thread are held in memory at a time.
+	 * @return Merged co-occurrences
+	 */
+	Run count(Iterable<List<String>> sentences, ListeningExecutorService ex) throws InterruptedException, IOException {
+		BlockingQueue<LongFloatHashMap> accumulators = new ArrayBlockingQueue<>(config.numThreads);
+		for (int i = 0; i < config.numThreads; i++)
+			accumulators.add(new LongFloatHashMap(Math.min(config.maxEntriesPerThread, 1 << 20)));
+
+		Queue<ListenableFuture<?>> pending = new ArrayDeque<>();
+		List<List<String>> block = new ArrayList<>(BLOCK_SIZE);
+		for (List<String> sentence : sentences) {
+			block.add(sentence);
+			if (block.size() == BLOCK_SIZE) {
+				pending.add(ex.submit(new BlockCounter(block, accumulators)));
+				block = new ArrayList<>(BLOCK_SIZE);
+				if (pending.size() >= 2 * config.numThreads)
+					await(pending.remove());
+			}
+		}
+		pending.add(ex.submit(new BlockCounter(block, accumulators)));
+		while (!pending.isEmpty())
+			await(pending.remove());
+
+		for (LongFloatHashMap accumulator : accumulators) {
+			if (accumulator.size() > 0)
+				spill(accumulator);
+		}
+		return merge();
+	}
+
+	private static void await(ListenableFuture<?> future) throws InterruptedException {
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Error counting co-occurrences", e.getCause());
+		}
+	}
+
+	/** Counts a block of sentences into an accumulator which no other task uses meanwhile */
+	private class BlockCounter implements Callable<Void> {
+		private final List<List<String>> block;
+		private final BlockingQueue<LongFloatHashMap> accumulators;
+
+		BlockCounter(List<List<String>> block, BlockingQueue<LongFloatHashMap> accumulators) {
+			this.block = block;
+			this.accumulators = accumulators;
+		}
+
+		@Override public Void call() throws InterruptedException, IOException {
+			LongFloatHashMap accumulator = accumulators.take();
+			try {
+				int[] window = new int[config.windowSize];
+				for (List<String> sentence : block) {
+					// Tokens outside of the vocabulary are dropped, as when encoding sentences for word2vec
+					int length = 0;
+					for (String token : sentence) {
+						Integer i = index.get(token);
+						if (i == null)
+							continue;
+						for (int d = 1; d <= Math.min(length, config.windowSize); d++) {
+							int j = window[(length - d) % config.windowSize];
+							float weight = 1.0f / d;
+							accumulator.add(key(i, j), weight);
+							accumulator.add(key(j, i), weight);
+						}
+						window[length % config.windowSize] = i;
+						length++;
+					}
+					if (accumulator.size() >= config.maxEntriesPerThread)
+						spill(accumulator);
+				}
+			} finally {
+				accumulators.add(accumulator);
+			}
+			return null;
+		}
+	}
+
+	private static long key(int i, int j) {
+		return ((long)i << 32) | j;
+	}
+
+	/** Writes the entries of the given accumulator to a new run, then clears it */
+	private void spill(LongFloatHashMap accumulator) throws IOException {
+		long[] keys = accumulator.sortedKeys();
+		File file = newRunFile();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			for (long key : keys) {
+				out.writeInt((int)(key >>> 32));
+				out.writeInt((int)key);
+				out.writeFloat(accumulator.get(key));
+			}
+		}
+		accumulator.clear();
+		synchronized (runs) {
+			runs.add(new Run(file, keys.length));
+		}
+	}
+
+	private File newRunFile() {
+		synchronized (runs) {
+			return new File(directory, String.format("run-%d.bin", nextRun++));
+		}
+	}
+
+	/** @return Single run merged from all of the runs, in passes of at most {@link #MAX_FAN_IN} runs */
+	private Run merge() throws IOException, InterruptedException {
+		List<Run> remaining = new ArrayList<>(runs);
+		if (remaining.isEmpty())
+			return merge(ImmutableList.<Run>of());
+		while (remaining.size() > 1) {
+			List<Run> merged = new ArrayList<>();
+			for (int start = 0; start < remaining.size(); start += MAX_FAN_IN)
+				merged.add(merge(remaining.subList(start, Math.min(start + MAX_FAN_IN, remaining.size()))));
+			remaining = merged;
+		}
+		return remaining.get(0);
+	}
+
+	/** @return Run merged from the given runs, which are deleted */
+	private Run merge(List<Run> runs) throws IOException, InterruptedException {
+		if (runs.size() == 1)
+			return runs.get(0);
+
+		File file = newRunFile();
+		long size = 0;
+		try (Closer closer = Closer.create()) {
+			PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(runs.size(), 1));
+			for (Run run : runs) {
+				RunReader reader = closer.register(new RunReader(run));
+				if (reader.next())
+					queue.add(reader);
+			}
+			DataOutputStream out = closer.register(new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16)));
+			while (!queue.isEmpty()) {
+				if (Thread.interrupted())
+					throw new InterruptedException();
+				RunReader reader = queue.remove();
+				long key = reader.key;
+				float sum = reader.value;
+				if (reader.next())
+					queue.add(reader);
+				while (!queue.isEmpty() && queue.peek().key == key) {
+					reader = queue.remove();
+					sum += reader.value;
+					if (reader.next())
+						queue.add(reader);
+				}
+				out.writeInt((int)(key >>> 32));
+				out.writeInt((int)key);
+				out.writeFloat(sum);
+				size++;
+			}
+		}
+		for (Run run : runs)
+			run.file.delete();
+		return new Run(file, size);
+	}
+
+	/** Reads the records of a run in order */
+	private static class RunReader implements Comparable<RunReader>, Closeable {
+		private final DataInputStream in;
+		private long remaining;
+		long key;
+		float value;
+
+		RunReader(Run run) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file), 1 << 16));
+			this.remaining = run.size;
+		}
+
+		/** @return true if the next record was read, false at the end of the run */
+		boolean next() throws IOException {
+			if (remaining == 0)
+				return false;
+			remaining--;
+			key = key(in.readInt(), in.readInt());
+			value = in.readFloat();
+			return true;
+		}
+
+		@Override public int compareTo(RunReader o) {
+			return Long.compare(key, o.key);
+		}
+
+		@Override public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package word2vec.lite.glove;
+
+import java.io.File;
+
+/** Fixed configuration for training a GloVe model */
+public class GloveConfig {
+	final int numThreads;
+	final int iterations;
+	final int layerSize;
+	final int windowSize;
+	final double initialLearningRate;
+	/** Count beyond which co-occurrences get the full weight */
+	final double xMax;
+	/** Exponent of the weighting of co-occurrences below xMax */
+	final double alpha;
+	/** Number of distinct co-occurrences each thread holds in memory before spilling them to disk */
+	final int maxEntriesPerThread;
+	/** Directory for the spilled co-occurrences, which are deleted once training is done */
+	final File tempDirectory;
+
+	/** Constructor */
+	public GloveConfig(
+			int numThreads,
+			int iterations,
+			int layerSize,
+			int windowSize,
+			double initialLearningRate,
+			double xMax,
+			double alpha,
+			int maxEntriesPerThread,
+			File tempDirectory) {
+		this.numThreads = numThreads;
+		this.iterations = iterations;
+		this.layerSize = layerSize;
+		this.windowSize = windowSize;
+		this.initialLearningRate = initialLearningRate;
+		this.xMax = xMax;
+		this.alpha = alpha;
+		this.maxEntriesPerThread = maxEntriesPerThread;
+		this.tempDirectory = tempDirectory;
+	}
+}
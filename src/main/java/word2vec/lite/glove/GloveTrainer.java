@@ -0,0 +1,213 @@
+package word2vec.lite.glove;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import word2vec.lite.Word2VecTrainerBuilder.TrainingProgressListener;
+import word2vec.lite.Word2VecTrainerBuilder.TrainingProgressListener.Stage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+/**
+ * Trains word vectors on the co-occurrence counts of the tokens, as in GloVe
+ * <p>
+ * The corpus is read once to count co-occurrences with {@link CooccurrenceCounter}, then each iteration is
+ * a pass of AdaGrad over the (i, j, x) records rather than over the text, minimizing
+ * <pre>f(x) * (w_i . w~_j + b_i + b~_j - log x)^2</pre>
+ * where f(x) = min(1, (x / xMax)^alpha).  The records are split evenly amongst the threads, which update the
+ * parameters without locking.  Each thread shuffles the order of its chunks of records and the records within
+ * each chunk, rather than the whole file as GloVe's shuffle tool does.
+ * <p>
+ * The resulting vector of a token is the sum of its word and context vectors, as with GloVe's default -model 2.
+ */
+public class GloveTrainer {
+	/** Number of records read and shuffled at a time */
+	private static final int CHUNK_RECORDS = 1 << 16;
+
+	private final GloveConfig config;
+	private final List<String> vocab;
+	private final TrainingProgressListener listener;
+
+	/** Word vectors then context vectors, each row followed by its bias, as in GloVe */
+	private double[] w;
+	/** Sums of the squared gradients of {@link #w}, for AdaGrad */
+	private double[] gradsq;
+
+	/**
+	 * @param vocab Tokens of the vocabulary, sorted by frequency decreasing
+	 */
+	public GloveTrainer(GloveConfig config, List<String> vocab, TrainingProgressListener listener) {
+		this.config = config;
+		this.vocab = vocab;
+		this.listener = listener;
+	}
+
+	/** @return Vector of each token of the vocabulary, trained on the given sentences */
+	public float[][] train(Iterable<List<String>> sentences) throws InterruptedException, IOException {
+		ImmutableMap.Builder<String, Integer> index = ImmutableMap.builder();
+		for (int i = 0; i < vocab.size(); i++)
+			index.put(vocab.get(i), i);
+
+		File directory = Files.createTempDirectory(config.tempDirectory.toPath(), "glove").toFile();
+		ListeningExecutorService ex = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(config.numThreads));
+		try {
+			listener.update(Stage.COUNT_COOCCURRENCES, 0.0);
+			CooccurrenceCounter.Run cooccurrences = new CooccurrenceCounter(config, index.build(), directory).count(sentences, ex);
+
+			initialize();
+			try (RandomAccessFile file = new RandomAccessFile(cooccurrences.file, "r")) {
+				FileChannel channel = file.getChannel();
+				for (int iter = 0; iter < config.iterations; iter++) {
+					listener.update(Stage.TRAIN_NEURAL_NETWORK, (double)iter / config.iterations);
+					List<ListenableFuture<Void>> futures = new ArrayList<>(config.numThreads);
+					for (int thread = 0; thread < config.numThreads; thread++) {
+						long start = cooccurrences.size * thread / config.numThreads;
+						long end = cooccurrences.size * (thread + 1) / config.numThreads;
+						futures.add(ex.submit(new Worker(channel, start, end, new Random(iter * config.numThreads + thread))));
+					}
+					await(futures);
+				}
+			}
+			listener.update(Stage.TRAIN_NEURAL_NETWORK, 1.0);
+			return vectors();
+		} finally {
+			ex.shutdownNow();
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+	}
+
+	private static void await(List<ListenableFuture<Void>> futures) throws InterruptedException {
+		ListenableFuture<List<Void>> all = Futures.allAsList(futures);
+		try {
+			all.get();
+		} catch (ExecutionException e) {
+			all.cancel(true);
+			throw new IllegalStateException("Error training GloVe model", e.getCause());
+		} catch (InterruptedException e) {
+			all.cancel(true);
+			throw e;
+		}
+	}
+
+	/** Initializes the vectors at random, the biases at 0 and the sums of squared gradients at 1, as in GloVe */
+	private void initialize() {
+		int rowSize = config.layerSize + 1;
+		w = new double[2 * vocab.size() * rowSize];
+		gradsq = new double[w.length];
+		Random random = new Random(1);
+		for (int i = 0; i < w.length; i++) {
+			w[i] = i % rowSize == config.layerSize ? 0 : (random.nextDouble() - 0.5) / config.layerSize;
+			gradsq[i] = 1;
+		}
+	}
+
+	/** @return Sum of the word and context vectors of each token */
+	private float[][] vectors() {
+		int rowSize = config.layerSize + 1;
+		int contextOffset = vocab.size() * rowSize;
+		float[][] vectors = new float[vocab.size()][config.layerSize];
+		for (int i = 0; i < vocab.size(); i++) {
+			for (int b = 0; b < config.layerSize; b++)
+				vectors[i][b] = (float)(w[i * rowSize + b] + w[contextOffset + i * rowSize + b]);
+		}
+		return vectors;
+	}
+
+	/** Runs one pass of AdaGrad over the records [start, end) of the co-occurrence file */
+	private class Worker implements Callable<Void> {
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+		private final Random random;
+
+		Worker(FileChannel channel, long start, long end, Random random) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.random = random;
+		}
+
+		@Override public Void call() throws IOException, InterruptedException {
+			List<Long> chunks = new ArrayList<>();
+			for (long chunk = start; chunk < end; chunk += CHUNK_RECORDS)
+				chunks.add(chunk);
+			Collections.shuffle(chunks, random);
+
+			ByteBuffer buffer = ByteBuffer.allocate(CHUNK_RECORDS * CooccurrenceCounter.RECORD_BYTES);
+			int[] is = new int[CHUNK_RECORDS];
+			int[] js = new int[CHUNK_RECORDS];
+			float[] xs = new float[CHUNK_RECORDS];
+			for (long chunk : chunks) {
+				if (Thread.interrupted())
+					throw new InterruptedException();
+				int n = (int)Math.min(CHUNK_RECORDS, end - chunk);
+				buffer.clear();
+				buffer.limit(n * CooccurrenceCounter.RECORD_BYTES);
+				long position = chunk * CooccurrenceCounter.RECORD_BYTES;
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer, position + buffer.position()) < 0)
+						throw new IOException("Unexpected end of co-occurrence file");
+				}
+				buffer.flip();
+				for (int k = 0; k < n; k++) {
+					is[k] = buffer.getInt();
+					js[k] = buffer.getInt();
+					xs[k] = buffer.getFloat();
+				}
+
+				for (int k = n - 1; k >= 0; k--) {
+					int r = random.nextInt(k + 1);
+					update(is[r], js[r], xs[r]);
+					is[r] = is[k];
+					js[r] = js[k];
+					xs[r] = xs[k];
+				}
+			}
+			return null;
+		}
+
+		/** AdaGrad update of the word vector of i, the context vector of j and their biases */
+		private void update(int i, int j, float x) {
+			int layerSize = config.layerSize;
+			int l1 = i * (layerSize + 1);
+			int l2 = (j + vocab.size()) * (layerSize + 1);
+
+			double diff = w[l1 + layerSize] + w[l2 + layerSize] - Math.log(x);
+			for (int b = 0; b < layerSize; b++)
+				diff += w[l1 + b] * w[l2 + b];
+			double fdiff = x > config.xMax ? diff : Math.pow(x / config.xMax, config.alpha) * diff;
+			if (Double.isNaN(fdiff) || Double.isInfinite(fdiff))
+				return;
+			fdiff *= config.initialLearningRate;
+
+			for (int b = 0; b < layerSize; b++) {
+				double temp1 = fdiff * w[l2 + b];
+				double temp2 = fdiff * w[l1 + b];
+				w[l1 + b] -= temp1 / Math.sqrt(gradsq[l1 + b]);
+				w[l2 + b] -= temp2 / Math.sqrt(gradsq[l2 + b]);
+				gradsq[l1 + b] += temp1 * temp1;
+				gradsq[l2 + b] += temp2 * temp2;
+			}
+			w[l1 + layerSize] -= fdiff / Math.sqrt(gradsq[l1 + layerSize]);
+			w[l2 + layerSize] -= fdiff / Math.sqrt(gradsq[l2 + layerSize]);
+			gradsq[l1 + layerSize] += fdiff * fdiff;
+			gradsq[l2 + layerSize] += fdiff * fdiff;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package word2vec.lite.glove;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from non-negative long keys to float sums, without boxing
+ * <p>
+ * Accumulates the co-occurrence counts of a thread until they are spilled to disk as a sorted run.
+ */
+class LongFloatHashMap {
+	private static final long EMPTY = -1L;
+	private static final double MAX_LOAD = 0.7;
+
+	private long[] keys;
+	private float[] values;
+	private int size;
+
+	/** @param expectedSize Number of entries the map holds without resizing */
+	LongFloatHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max((int)(expectedSize / MAX_LOAD), 16) - 1) << 1;
+		this.keys = new long[capacity];
+		this.values = new float[capacity];
+		Arrays.fill(keys, EMPTY);
+	}
+
+	/** @return Number of entries */
+	int size() {
+		return size;
+	}
+
+	/** Adds the given value to the sum of the given key */
+	void add(long key, float value) {
+		int slot = find(keys, key);
+		if (keys[slot] == EMPTY) {
+			keys[slot] = key;
+			if (++size > keys.length * MAX_LOAD) {
+				values[slot] = value;
+				resize();
+				return;
+			}
+		}
+		values[slot] += value;
+	}
+
+	/** @return Sum of the given key, 0 if it is absent */
+	float get(long key) {
+		int slot = find(keys, key);
+		return keys[slot] == EMPTY ? 0 : values[slot];
+	}
+
+	/** @return Keys of the entries, sorted ascending */
+	long[] sortedKeys() {
+		long[] result = new long[size];
+		int i = 0;
+		for (long key : keys) {
+			if (key != EMPTY)
+				result[i++] = key;
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+	/** Removes all entries, keeping the capacity */
+	void clear() {
+		Arrays.fill(keys, EMPTY);
+		Arrays.fill(values, 0);
+		size = 0;
+	}
+
+	private void resize() {
+		long[] oldKeys = keys;
+		float[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new float[oldKeys.length * 2];
+		Arrays.fill(keys, EMPTY);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = find(keys, oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/** @return Slot of the given key in the given table, or the empty slot where it belongs */
+	private static int find(long[] keys, long key) {
+		int mask = keys.length - 1;
+		// Mix the bits, since the keys are packed pairs of small ints
+		long h = key * 0x9E37_79B9_7F4A_7C15L;
+		int slot = (int)(h >>> 32) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+}
@@ -1,14 +1,22 @@
 package word2vec.lite.huffman;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultiset;
 import com.google.common.collect.Multiset.Entry;
 import word2vec.lite.Word2VecTrainerBuilder.TrainingProgressListener;
 import word2vec.lite.Word2VecTrainerBuilder.TrainingProgressListener.Stage;
+import word2vec.lite.util.CallableVoid;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Word2Vec library relies on a Huffman encoding scheme
@@ -39,14 +47,26 @@ public class HuffmanCoding {
 
 	private final ImmutableMultiset<String> vocab;
 	private final TrainingProgressListener listener;
+	private final int numThreads;
 	
 	/**
 	 * @param vocab {@link Multiset} of tokens, sorted by frequency descending
 	 * @param listener Progress listener
 	 */
 	public HuffmanCoding(ImmutableMultiset<String> vocab, TrainingProgressListener listener) {
+		this(vocab, listener, 1);
+	}
+	
+	/**
+	 * @param vocab {@link Multiset} of tokens, sorted by frequency descending
+	 * @param listener Progress listener
+	 * @param numThreads Number of threads used to assign the codes once the tree is built
+	 */
+	public HuffmanCoding(ImmutableMultiset<String> vocab, TrainingProgressListener listener, int numThreads) {
+		Preconditions.checkArgument(numThreads > 0, "Value must be positive");
 		this.vocab = vocab;
 		this.listener = listener;
+		this.numThreads = numThreads;
 	}
 	
 	/**
@@ -125,47 +145,103 @@ public class HuffmanCoding {
 		}
 	}
 	
-	/** @return Ordered map from each token to its {@link HuffmanNode}, ordered by frequency descending */
-	private Map<String, HuffmanNode> encode(byte[] binary, int[] parentNode) throws InterruptedException {
-		int numTokens = vocab.elementSet().size();
+	/** 
+	 * @return Ordered map from each token to its {@link HuffmanNode}, ordered by frequency descending
+	 * <p>
+	 * Building the tree is inherently sequential, but the codes of the tokens are independent of
+	 * each other, so they are assigned in parallel
+	 */
+	private Map<String, HuffmanNode> encode(final byte[] binary, final int[] parentNode) throws InterruptedException {
+		final int numTokens = vocab.elementSet().size();
+		final ImmutableList<Entry<String>> entries = vocab.entrySet().asList();
+		final HuffmanNode[] nodes = new HuffmanNode[numTokens];
+		final AtomicInteger done = new AtomicInteger();
+		
+		List<CallableVoid> tasks = new ArrayList<>();
+		final int tokensPerTask = numTokens / numThreads + 1;
+		for (int from = 0; from < numTokens; from += tokensPerTask) {
+			final int start = from;
+			final int end = Math.min(numTokens, from + tokensPerTask);
+			tasks.add(new CallableVoid() {
+				@Override protected void run() throws InterruptedException {
+					int lastReported = start;
+					for (int nodeIdx = start; nodeIdx < end; nodeIdx++) {
+						nodes[nodeIdx] = createNode(nodeIdx, entries.get(nodeIdx).getCount(), numTokens, binary, parentNode);
+						
+						if (nodeIdx % 1_000 == 0) {
+							if (Thread.currentThread().isInterrupted())
+								throw new InterruptedException("Interrupted while encoding huffman tree");
+							int encoded = done.addAndGet(nodeIdx - lastReported);
+							lastReported = nodeIdx;
+							listener.update(Stage.CREATE_HUFFMAN_ENCODING, 0.5 + (0.5 * encoded) / numTokens);
+						}
+					}
+					done.addAndGet(end - lastReported);
+				}
+			});
+		}
+		run(tasks);
 		
 		// Now assign binary code to each unique token
 		ImmutableMap.Builder<String, HuffmanNode> result = ImmutableMap.builder();
-		int nodeIdx = 0;
-		for (Entry<String> e : vocab.entrySet()) {
-			int curNodeIdx = nodeIdx;
-			ArrayList<Byte> code = new ArrayList<>();
-			ArrayList<Integer> points = new ArrayList<>();
-			while (true) {
-				code.add(binary[curNodeIdx]);
-				points.add(curNodeIdx);
-				curNodeIdx = parentNode[curNodeIdx];
-				if (curNodeIdx == numTokens * 2 - 2)
-					break;
-			}
-			int codeLen = code.size();
-			final int count = e.getCount();
-			final byte[] rawCode = new byte[codeLen];
-			final int[] rawPoints = new int[codeLen + 1];
-			
-			rawPoints[0] = numTokens - 2;
-			for (int i = 0; i < codeLen; i++) {
-				rawCode[codeLen - i - 1] = code.get(i);
-				rawPoints[codeLen - i] = points.get(i) - numTokens;
-			}
-			
-			String token = e.getElement();
-			result.put(token, new HuffmanNode(rawCode, rawPoints, nodeIdx, count));
-			
-			if (nodeIdx % 1_000 == 0) {
-				if (Thread.currentThread().isInterrupted())
-					throw new InterruptedException("Interrupted while encoding huffman tree");
-				listener.update(Stage.CREATE_HUFFMAN_ENCODING, 0.5 + (0.5 * nodeIdx) / numTokens);
+		for (int nodeIdx = 0; nodeIdx < numTokens; nodeIdx++)
+			result.put(entries.get(nodeIdx).getElement(), nodes[nodeIdx]);
+		
+		return result.build();
+	}
+	
+	/** @return {@link HuffmanNode} with the code of the token at the given index, found by walking up the tree */
+	private static HuffmanNode createNode(int nodeIdx, int count, int numTokens, byte[] binary, int[] parentNode) {
+		int curNodeIdx = nodeIdx;
+		int codeLen = 0;
+		while (true) {
+			codeLen++;
+			curNodeIdx = parentNode[curNodeIdx];
+			if (curNodeIdx == numTokens * 2 - 2)
+				break;
+		}
+		
+		final byte[] rawCode = new byte[codeLen];
+		final int[] rawPoints = new int[codeLen + 1];
+		
+		rawPoints[0] = numTokens - 2;
+		curNodeIdx = nodeIdx;
+		for (int i = 0; i < codeLen; i++) {
+			rawCode[codeLen - i - 1] = binary[curNodeIdx];
+			rawPoints[codeLen - i] = curNodeIdx - numTokens;
+			curNodeIdx = parentNode[curNodeIdx];
+		}
+		
+		return new HuffmanNode(rawCode, rawPoints, nodeIdx, count);
+	}
+	
+	/** Runs the given tasks on {@link #numThreads} threads, or on the current thread if there is only one */
+	private void run(List<CallableVoid> tasks) throws InterruptedException {
+		if (numThreads == 1 || tasks.size() == 1) {
+			try {
+				for (CallableVoid task : tasks)
+					task.call();
+			} catch (InterruptedException | RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IllegalStateException("Error encoding huffman tree", e);
 			}
-			
-			nodeIdx++;
+			return;
 		}
 		
-		return result.build();
+		ExecutorService ex = Executors.newFixedThreadPool(numThreads);
+		try {
+			for (Future<Void> future : ex.invokeAll(tasks)) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof InterruptedException)
+						throw new InterruptedException(e.getCause().getMessage());
+					throw new IllegalStateException("Error encoding huffman tree", e.getCause());
+				}
+			}
+		} finally {
+			ex.shutdownNow();
+		}
 	}
 }
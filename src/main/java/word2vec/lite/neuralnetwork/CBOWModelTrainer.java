@@ -1,5 +1,6 @@
 package word2vec.lite.neuralnetwork;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.Multiset;
 import word2vec.lite.Word2VecTrainerBuilder;
 import word2vec.lite.huffman.HuffmanCoding;
@@ -12,22 +13,19 @@ import java.util.Map;
  */
 class CBOWModelTrainer extends NeuralNetworkTrainer {
 	
-	CBOWModelTrainer(NeuralNetworkConfig config, Multiset<String> counts, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Word2VecTrainerBuilder.TrainingProgressListener listener) {
-		super(config, counts, huffmanNodes, listener);
+	CBOWModelTrainer(NeuralNetworkConfig config, Multiset<String> counts, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Optional<WordHashing> hashing, Word2VecTrainerBuilder.TrainingProgressListener listener, TrainingMetricsCollector metrics) {
+		super(config, counts, huffmanNodes, hashing, listener, metrics);
 	}
 	
 	/** {@link Worker} for {@link CBOWModelTrainer} */
 	private class CBOWWorker extends Worker {
-		private CBOWWorker(int randomSeed, int iter, Iterable<List<String>> batch) {
+		private CBOWWorker(int randomSeed, int iter, List<int[]> batch) {
 			super(randomSeed, iter, batch);
 		}
 		
-		@Override void trainSentence(List<String> sentence) {
-			int sentenceLength = sentence.size();
-			
-			for (int sentencePosition = 0; sentencePosition < sentenceLength; sentencePosition++) {
-				String word = sentence.get(sentencePosition);
-				HuffmanCoding.HuffmanNode huffmanNode = huffmanNodes.get(word);
+		@Override void trainSentence(int[] sentence, int start, int end) {
+			for (int sentencePosition = start; sentencePosition < end; sentencePosition++) {
+				HuffmanCoding.HuffmanNode huffmanNode = nodes[sentence[sentencePosition]];
 
 				for (int c = 0; c < layer1_size; c++)
 					neu1[c] = 0;
@@ -43,12 +41,9 @@ class CBOWModelTrainer extends NeuralNetworkTrainer {
 					if (a == window)
 						continue;
 					int c = sentencePosition - window + a;
-					if (c < 0 || c >= sentenceLength)
+					if (c < start || c >= end)
 						continue;
-					int idx = huffmanNodes.get(sentence.get(c)).idx;
-					for (int d = 0; d < layer1_size; d++) {
-						neu1[d] += syn0[idx][d];
-					}
+					addInput(sentence[c], neu1, 1);
 					
 					cw++;
 				}
@@ -59,46 +54,44 @@ class CBOWModelTrainer extends NeuralNetworkTrainer {
 				for (int c = 0; c < layer1_size; c++)
 					neu1[c] /= cw;
 				
+				double hiddenNormSquared = hiddenNormSquared();
+				nextUpdate();
 				if (config.useHierarchicalSoftmax) {
 					for (int d = 0; d < huffmanNode.code.length; d++) {
-						double f = 0;
 						int l2 = huffmanNode.point[d];
 						// Propagate hidden -> output                                                                                                                                                                     
-						for (int c = 0; c < layer1_size; c++)
-							f += neu1[c] * syn1[l2][c];
+						double f = syn1.dot(l2, neu1);
+						if (sampleLoss)
+							lossSum += logLoss(f, 1 - huffmanNode.code[d]);
 						if (f <= -MAX_EXP || f >= MAX_EXP)
 							continue;
 						else
 							f = EXP_TABLE[(int)((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))];
-						// 'g' is the gradient multiplied by the learning rate                                                                                                                                            
-						double g = (1 - huffmanNode.code[d] - f) * alpha;
-						// Propagate errors output -> hidden                                                                                                                                                              
-						for (int c = 0; c < layer1_size; c++)
-							neu1e[c] += g * syn1[l2][c];
-						// Learn weights hidden -> output                                                                                                                                                                 
-						for (int c = 0; c < layer1_size; c++)
-							syn1[l2][c] += g * neu1[c];
+						// 'g' is the gradient scaled for neu1e, i.e. multiplied by the learning rate for SGD
+						double gradient = 1 - huffmanNode.code[d] - f;
+						double g = gradient * errorScale();
+						// Propagate errors output -> hidden and learn weights hidden -> output
+						double step = outputStep(syn1Accumulators, l2, gradient, hiddenNormSquared);
+						syn1.backpropagate(l2, g, neu1e, step, neu1, nextRandom);
 					}
 				}
 				
-				handleNegativeSampling(huffmanNode);
+				handleNegativeSampling(huffmanNode, hiddenNormSquared);
 				
 				// hidden -> in                                                                                                                                                                                     
 				for (int a = b; a < window * 2 + 1 - b; a++) {
 					if (a == window)
 						continue;
 					int c = sentencePosition - window + a;
-					if (c < 0 || c >= sentenceLength)
+					if (c < start || c >= end)
 						continue;
-					int idx = huffmanNodes.get(sentence.get(c)).idx;
-					for (int d = 0; d < layer1_size; d++)
-						syn0[idx][d] += neu1e[d];
+					updateInput(sentence[c]);
 				}
 			}
 		}
 	}
 
-	@Override Worker createWorker(int randomSeed, int iter, Iterable<List<String>> batch) {
+	@Override Worker createWorker(int randomSeed, int iter, List<int[]> batch) {
 		return new CBOWWorker(randomSeed, iter, batch);
 	}
 }
\ No newline at end of file
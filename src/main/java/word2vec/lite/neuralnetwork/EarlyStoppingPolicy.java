@@ -0,0 +1,102 @@
+package word2vec.lite.neuralnetwork;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
+import word2vec.lite.huffman.HuffmanCoding.HuffmanNode;
+
+import java.util.List;
+
+/**
+ * Decides when to stop training before the configured number of iterations
+ * <p>
+ * After each iteration, the policy scores the live network, reading the layers in place.
+ * Once the score improves by less than the given relative threshold, the learning rate is annealed
+ * to its minimum over one final iteration and training stops.
+ */
+public abstract class EarlyStoppingPolicy {
+	private final double minImprovement;
+
+	EarlyStoppingPolicy(double minImprovement) {
+		Preconditions.checkArgument(minImprovement >= 0, "Value must be non-negative");
+		this.minImprovement = minImprovement;
+	}
+
+	/**
+	 * Stop when the average loss on the given held-out sentences improves by less than
+	 * minImprovement relative to the previous iteration
+	 * <p>
+	 * The loss is computed with the same objective as training, with a fixed random seed for the
+	 * negative samples so that iterations are comparable
+	 */
+	public static EarlyStoppingPolicy heldOutLoss(Iterable<List<String>> heldOut, double minImprovement) {
+		final ImmutableList<List<String>> sentences = ImmutableList.copyOf(heldOut);
+		return new EarlyStoppingPolicy(minImprovement) {
+			@Override double score(NeuralNetworkTrainer trainer) {
+				return -trainer.evaluateLoss(sentences);
+			}
+		};
+	}
+
+	/**
+	 * Stop when the Pearson correlation between the cosine similarity of word pairs and their given
+	 * scores, e.g. from WordSim-353, improves by less than minImprovement relative to the previous iteration
+	 * <p>
+	 * Pairs with a word that is not in the vocabulary are ignored
+	 * @param scores Gold similarity score, keyed by the first and second word of each pair
+	 */
+	public static EarlyStoppingPolicy wordSimilarity(Table<String, String, Double> scores, double minImprovement) {
+		final ImmutableTable<String, String, Double> pairs = ImmutableTable.copyOf(scores);
+		return new EarlyStoppingPolicy(minImprovement) {
+			@Override double score(NeuralNetworkTrainer trainer) {
+				return similarityCorrelation(trainer, pairs);
+			}
+		};
+	}
+
+	/** @return Score of the live network, higher is better */
+	abstract double score(NeuralNetworkTrainer trainer);
+
+	/** @return true if the improvement from the previous to the current score is below the threshold */
+	boolean hasConverged(double previous, double current) {
+		return current - previous < minImprovement * Math.abs(previous);
+	}
+
+	/** @return Pearson correlation between the cosine similarity of the input vectors and the gold score of each pair */
+	private static double similarityCorrelation(NeuralNetworkTrainer trainer, Table<String, String, Double> pairs) {
+		double sumX = 0, sumY = 0, sumXX = 0, sumYY = 0, sumXY = 0;
+		int n = 0;
+		for (Table.Cell<String, String, Double> cell : pairs.cellSet()) {
+			HuffmanNode first = trainer.huffmanNodes.get(cell.getRowKey());
+			HuffmanNode second = trainer.huffmanNodes.get(cell.getColumnKey());
+			if (first == null || second == null)
+				continue;
+
+			double x = cosine(trainer.inputVector(first.idx), trainer.inputVector(second.idx));
+			double y = cell.getValue();
+			sumX += x;
+			sumY += y;
+			sumXX += x * x;
+			sumYY += y * y;
+			sumXY += x * y;
+			n++;
+		}
+		if (n < 2)
+			return 0;
+
+		double covariance = sumXY - sumX * sumY / n;
+		double deviations = Math.sqrt((sumXX - sumX * sumX / n) * (sumYY - sumY * sumY / n));
+		return deviations == 0 ? 0 : covariance / deviations;
+	}
+
+	private static double cosine(float[] v1, float[] v2) {
+		double dot = 0, len1 = 0, len2 = 0;
+		for (int i = 0; i < v1.length; i++) {
+			dot += v1[i] * v2[i];
+			len1 += v1[i] * v1[i];
+			len2 += v2[i] * v2[i];
+		}
+		return dot / Math.sqrt(len1 * len2);
+	}
+}
@@ -0,0 +1,56 @@
+package word2vec.lite.neuralnetwork;
+
+/**
+ * Linear decay of the learning rate (alpha) over a range of processed words
+ * <p>
+ * Instances are immutable, so that a schedule can be swapped atomically while workers read it,
+ * e.g. to anneal to the minimum sooner when training is cut short
+ */
+class LearningRateSchedule {
+	/** Fraction of the initial learning rate below which alpha never decays */
+	private static final double MIN_ALPHA_FRACTION = 0.0001;
+
+	private final double initialAlpha;
+	private final double startAlpha;
+	private final long startWords;
+	private final long endWords;
+
+	/**
+	 * @param initialAlpha Learning rate at the beginning of training, which determines the minimum
+	 * @param startAlpha Learning rate once startWords have been processed
+	 * @param startWords Number of processed words at which the schedule starts
+	 * @param endWords Number of processed words at which alpha reaches its minimum
+	 */
+	LearningRateSchedule(double initialAlpha, double startAlpha, long startWords, long endWords) {
+		this.initialAlpha = initialAlpha;
+		this.startAlpha = startAlpha;
+		this.startWords = startWords;
+		this.endWords = Math.max(endWords, startWords + 1);
+	}
+
+	/** @return Schedule decaying from the initial learning rate to its minimum over the given number of words */
+	static LearningRateSchedule linear(double initialAlpha, long totalWords) {
+		return new LearningRateSchedule(initialAlpha, initialAlpha, 0, totalWords);
+	}
+
+	/** @return Learning rate once the given number of words have been processed */
+	double alpha(long words) {
+		double remaining = 1 - (words - startWords) / (double)(endWords - startWords);
+		return Math.max(startAlpha * remaining, initialAlpha * MIN_ALPHA_FRACTION);
+	}
+
+	/** @return Fraction of the schedule completed once the given number of words have been processed */
+	double progress(long words) {
+		return words / (double)(endWords + 1);
+	}
+
+	/** @return Schedule decaying from the learning rate at the given number of processed words to the minimum over the next remainingWords */
+	LearningRateSchedule annealOver(long words, long remainingWords) {
+		return new LearningRateSchedule(initialAlpha, alpha(words), words, words + remainingWords);
+	}
+
+	/** @return Number of processed words at which alpha reaches its minimum */
+	long endWords() {
+		return endWords;
+	}
+}
@@ -1,8 +1,10 @@
 package word2vec.lite.neuralnetwork;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMultiset;
 import word2vec.lite.Word2VecTrainerBuilder;
 import word2vec.lite.huffman.HuffmanCoding;
+import word2vec.lite.util.HalfFloat;
 
 import java.util.Map;
 
@@ -18,6 +20,17 @@ public class NeuralNetworkConfig {
 	
 	final double initialLearningRate;
 	final double downSampleRate;
+	final Optimizer optimizer;
+	/** Fraction of updates for which the training loss is computed, 0 to disable */
+	final double lossSampleRate;
+	/** Policy to stop training before the configured number of iterations */
+	final Optional<EarlyStoppingPolicy> earlyStopping;
+	/** Value of {@link System#nanoTime()} at which training stops, {@link Long#MAX_VALUE} for no deadline */
+	final long deadlineNanos;
+	/** Maximum fraction of the available processors to use, 1 for no limit */
+	final double maxCpuShare;
+	/** Format of the values of syn1 and syn1neg, floats if absent */
+	final Optional<HalfFloat> outputLayerFormat;
 	
 	/** Constructor */
 	public NeuralNetworkConfig(
@@ -29,7 +42,13 @@ public class NeuralNetworkConfig {
 			int negativeSamples,
 			double downSampleRate,
 			double initialLearningRate,
-			boolean useHierarchicalSoftmax) {
+			Optimizer optimizer,
+			boolean useHierarchicalSoftmax,
+			double lossSampleRate,
+			Optional<EarlyStoppingPolicy> earlyStopping,
+			long deadlineNanos,
+			double maxCpuShare,
+			Optional<HalfFloat> outputLayerFormat) {
 		this.type = type;
 		this.iterations = iterations;
 		this.numThreads = numThreads;
@@ -39,15 +58,35 @@ public class NeuralNetworkConfig {
 		this.useHierarchicalSoftmax = useHierarchicalSoftmax;
 		this.initialLearningRate = initialLearningRate;
 		this.downSampleRate = downSampleRate;
+		this.optimizer = optimizer;
+		this.lossSampleRate = lossSampleRate;
+		this.earlyStopping = earlyStopping;
+		this.deadlineNanos = deadlineNanos;
+		this.maxCpuShare = maxCpuShare;
+		this.outputLayerFormat = outputLayerFormat;
+	}
+	
+	/** @return true if training is limited by a deadline or a CPU share */
+	boolean isBudgeted() {
+		return deadlineNanos != Long.MAX_VALUE || maxCpuShare < 1;
 	}
 
-	/** @return {@link NeuralNetworkTrainer} */
-	public NeuralNetworkTrainer createTrainer(ImmutableMultiset<String> vocab, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Word2VecTrainerBuilder.TrainingProgressListener listener) {
-		return type.createTrainer(this, vocab, huffmanNodes, listener);
+	/** @return Number of threads to use for parallelization */
+	public int getNumThreads() {
+		return numThreads;
+	}
+	
+	/** 
+	 * @param hashing Hashing of the words outside of the vocabulary and of character n-grams, if the vocabulary
+	 * contains the word buckets as {@link WordHashing#bucketToken(int)}
+	 * @return {@link NeuralNetworkTrainer}
+	 */
+	public NeuralNetworkTrainer createTrainer(ImmutableMultiset<String> vocab, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Optional<WordHashing> hashing, Word2VecTrainerBuilder.TrainingProgressListener listener, TrainingMetricsCollector metrics) {
+		return type.createTrainer(this, vocab, huffmanNodes, hashing, listener, metrics);
 	}
 	
 	@Override public String toString() {
-		return String.format("%s with %s threads, %s iterations[%s layer size, %s window, %s hierarchical softmax, %s negative samples, %s initial learning rate, %s down sample rate]",
+		return String.format("%s with %s threads, %s iterations[%s layer size, %s window, %s hierarchical softmax, %s negative samples, %s initial learning rate, %s optimizer, %s down sample rate]",
 				type.name(),
 				numThreads,
 				iterations,
@@ -56,6 +95,7 @@ public class NeuralNetworkConfig {
 				useHierarchicalSoftmax ? "using" : "not using",
 				negativeSamples, 
 				initialLearningRate,
+				optimizer,
 				downSampleRate
 			);
 	}
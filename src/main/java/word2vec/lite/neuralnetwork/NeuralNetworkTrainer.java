@@ -1,6 +1,9 @@
 package word2vec.lite.neuralnetwork;
 
-import com.google.common.collect.Iterables;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multiset;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -12,17 +15,22 @@ import word2vec.lite.huffman.HuffmanCoding.HuffmanNode;
 import word2vec.lite.util.CallableVoid;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /** Parent class for training word2vec's neural network */
 public abstract class NeuralNetworkTrainer {
 	/** Sentences longer than this are broken into multiple chunks */
 	private static final int MAX_SENTENCE_LENGTH = 1_000;
+	/** Number of sentences encoded per task */
+	private static final int ENCODE_BLOCK_SIZE = 10_000;
 	
 	/** Boundary for maximum exponent allowed */
 	static final int MAX_EXP = 6;
@@ -38,13 +46,30 @@ public abstract class NeuralNetworkTrainer {
 			EXP_TABLE[i] /= EXP_TABLE[i] + 1;
 		}
 	}
+	/** Pre-cached -log(f(x)) for each entry of {@link #EXP_TABLE}, used to compute the training loss */
+	static final double[] LOG_LOSS_TABLE = new double[EXP_TABLE_SIZE];
+	static {
+		for (int i = 0; i < EXP_TABLE_SIZE; i++)
+			LOG_LOSS_TABLE[i] = -Math.log(EXP_TABLE[i]);
+	}
 	
 	private static final int TABLE_SIZE = (int)1e8;
 	
 	private final TrainingProgressListener listener;
+	private final TrainingMetricsCollector metrics;
 	
 	final NeuralNetworkConfig config;
 	final Map<String, HuffmanNode> huffmanNodes;
+	/** {@link HuffmanNode}s indexed by {@link HuffmanNode#idx}, which is how the encoded sentences refer to tokens */
+	final HuffmanNode[] nodes;
+	/** 
+	 * Node of each word bucket, null for buckets that aren't in the vocabulary.
+	 * Null if words outside of the vocabulary are dropped.
+	 */
+	private final HuffmanNode[] bucketNodes;
+	private final Optional<WordHashing> hashing;
+	/** Rows of syn0 averaged into the input vector of each token, null if there are no character n-grams */
+	private final int[][] inputRows;
 	private final int vocabSize;
 	final int layer1_size;
 	final int window;
@@ -60,81 +85,317 @@ public abstract class NeuralNetworkTrainer {
 	 * which have been processed so far.  It includes words that are discarded from sampling.
 	 * Note that each word is processed once per iteration.
 	 */
-	protected final AtomicInteger actualWordCount;
+	protected final AtomicLong actualWordCount;
 	/** Learning rate, affects how fast values in the layers get updated */
 	volatile double alpha;
+	/** Decay of {@link #alpha} over the processed words, replaced when training is cut short */
+	volatile LearningRateSchedule schedule;
 	/** 
 	 * This contains the outer layers of the neural network
-	 * First dimension is the vocab, second is the layer
+	 * First dimension is the vocab followed by the character n-gram buckets, second is the layer
 	 */
 	final float[][] syn0;
 	/** This contains hidden layers of the neural network */
-	final float[][] syn1;
+	final OutputLayer syn1;
 	/** This is used for negative sampling */
-	private final float[][] syn1neg;
-	/** Used for negative sampling */
-	private final int[] table;
-	long startNano;
+	private final OutputLayer syn1neg;
+	/** 
+	 * Sums of the mean squared gradients of each row of syn0, syn1 and syn1neg for {@link Optimizer#ADAGRAD},
+	 * null for {@link Optimizer#SGD}
+	 */
+	private final double[] syn0Accumulators;
+	final double[] syn1Accumulators;
+	private final double[] syn1negAccumulators;
+	/** Used for negative sampling, allocated on initialization unless shared with another trainer */
+	private int[] table;
+	/** Probability of keeping each token when down sampling, indexed by {@link HuffmanNode#idx} */
+	private double[] keepProbability;
+	/** Offset of the metrics counters of this trainer's workers, when several trainers share a collector */
+	private int slotOffset;
 	
-	NeuralNetworkTrainer(NeuralNetworkConfig config, Multiset<String> vocab, Map<String, HuffmanNode> huffmanNodes, TrainingProgressListener listener) {
+	/** Limits the time and CPU used by the workers, null if the training isn't budgeted */
+	private TrainingBudget budget;
+	
+	/* The following is the state between iterations */
+	private int remainingIterations;
+	private Double lastScore;
+	private boolean stopping;
+	
+	NeuralNetworkTrainer(NeuralNetworkConfig config, Multiset<String> vocab, Map<String, HuffmanNode> huffmanNodes, Optional<WordHashing> hashing, TrainingProgressListener listener, TrainingMetricsCollector metrics) {
 		this.config = config;
 		this.huffmanNodes = huffmanNodes;
+		this.nodes = huffmanNodes.values().toArray(new HuffmanNode[huffmanNodes.size()]);
 		this.listener = listener;
+		this.metrics = metrics;
 		this.vocabSize = huffmanNodes.size();
 		this.numTrainedTokens = vocab.size();
 		this.layer1_size = config.layerSize;
 		this.window = config.windowSize;
 		
-		this.actualWordCount = new AtomicInteger();
+		this.actualWordCount = new AtomicLong();
 		this.alpha = config.initialLearningRate;
 		
-		this.syn0 = new float[vocabSize][layer1_size];
-		this.syn1 = new float[vocabSize][layer1_size];
-		this.syn1neg = new float[vocabSize][layer1_size];
-		this.table = new int[TABLE_SIZE];
+		this.hashing = hashing;
+		int numNGramBuckets = hashing.isPresent() ? hashing.get().getNumNGramBuckets() : 0;
+		this.syn0 = new float[vocabSize + numNGramBuckets][layer1_size];
+		if (config.outputLayerFormat.isPresent()) {
+			this.syn1 = OutputLayer.create(vocabSize, layer1_size, config.outputLayerFormat.get());
+			this.syn1neg = OutputLayer.create(vocabSize, layer1_size, config.outputLayerFormat.get());
+		} else {
+			this.syn1 = OutputLayer.create(vocabSize, layer1_size);
+			this.syn1neg = OutputLayer.create(vocabSize, layer1_size);
+		}
+		if (config.optimizer == Optimizer.ADAGRAD) {
+			this.syn0Accumulators = newAccumulators(syn0.length);
+			this.syn1Accumulators = newAccumulators(vocabSize);
+			this.syn1negAccumulators = newAccumulators(vocabSize);
+		} else {
+			this.syn0Accumulators = null;
+			this.syn1Accumulators = null;
+			this.syn1negAccumulators = null;
+		}
+		for (int i = 0; i < nodes.length; i++)
+			Preconditions.checkState(nodes[i].idx == i, "Expected huffman nodes ordered by index");
+		
+		if (hashing.isPresent() && hashing.get().getNumWordBuckets() > 0) {
+			this.bucketNodes = new HuffmanNode[hashing.get().getNumWordBuckets()];
+			for (Map.Entry<String, HuffmanNode> e : huffmanNodes.entrySet()) {
+				int bucket = WordHashing.parseBucketToken(e.getKey());
+				if (bucket >= 0)
+					bucketNodes[bucket] = e.getValue();
+			}
+		} else {
+			this.bucketNodes = null;
+		}
 		
-		initializeSyn0();
-		initializeUnigramTable();
+		if (numNGramBuckets > 0) {
+			this.inputRows = new int[vocabSize][];
+			for (Map.Entry<String, HuffmanNode> e : huffmanNodes.entrySet()) {
+				int idx = e.getValue().idx;
+				int[] nGrams = WordHashing.parseBucketToken(e.getKey()) >= 0
+						? new int[0]
+						: hashing.get().nGramBuckets(e.getKey());
+				inputRows[idx] = new int[nGrams.length + 1];
+				inputRows[idx][0] = idx;
+				for (int i = 0; i < nGrams.length; i++)
+					inputRows[idx][i + 1] = vocabSize + nGrams[i];
+			}
+		} else {
+			this.inputRows = null;
+		}
 	}
 	
-	private void initializeUnigramTable() {
-		long trainWordsPow = 0;
-		double power = 0.75;
+	/** @return Adagrad accumulators for the given number of rows, starting at 1 */
+	private static double[] newAccumulators(int rows) {
+		double[] accumulators = new double[rows];
+		Arrays.fill(accumulators, 1);
+		return accumulators;
+	}
+	
+	/** 
+	 * Submits the initialization of syn0 and the unigram table to the given executor, split into one
+	 * task per thread for each of them.  The result doesn't depend on the number of threads.
+	 * If the unigram table is shared with another trainer, that trainer initializes it.
+	 * @return Futures of the submitted tasks
+	 */
+	private List<ListenableFuture<?>> initialize(ListeningExecutorService ex) {
+		List<ListenableFuture<?>> futures = new ArrayList<>();
+		metrics.stageStarted(Stage.TRAIN_NEURAL_NETWORK);
+		metrics.setAlpha(alpha);
+		
+		final int rowsPerTask = syn0.length / config.numThreads + 1;
+		for (int from = 0; from < syn0.length; from += rowsPerTask) {
+			final int start = from;
+			final int end = Math.min(syn0.length, from + rowsPerTask);
+			futures.add(ex.submit(new CallableVoid() {
+				@Override protected void run() {
+					initializeSyn0(start, end);
+				}
+			}));
+		}
 		
+		if (table != null)
+			return futures;
+		table = new int[TABLE_SIZE];
+		final double[] cumulative = unigramDistribution();
+		final int slotsPerTask = TABLE_SIZE / config.numThreads + 1;
+		for (int from = 0; from < TABLE_SIZE; from += slotsPerTask) {
+			final int start = from;
+			final int end = Math.min(TABLE_SIZE, from + slotsPerTask);
+			futures.add(ex.submit(new CallableVoid() {
+				@Override protected void run() {
+					initializeUnigramTable(cumulative, start, end);
+				}
+			}));
+		}
+		return futures;
+	}
+	
+	/** @return Cumulative distribution of the token counts raised to the power of 0.75, ordered by index */
+	private double[] unigramDistribution() {
+		double power = 0.75;
+		double[] cumulative = new double[vocabSize];
+		double trainWordsPow = 0;
 		for (HuffmanNode node : huffmanNodes.values()) {
 			trainWordsPow += Math.pow(node.count, power);
+			cumulative[node.idx] = trainWordsPow;
 		}
-		
-		Iterator<HuffmanNode> nodeIter = huffmanNodes.values().iterator();
-		HuffmanNode last = nodeIter.next();
-		double d1 = Math.pow(last.count, power) / trainWordsPow;
-		int i = 0;
-		for (int a = 0; a < TABLE_SIZE; a++) {
-			table[a] = i;
-			if (a / (double)TABLE_SIZE > d1) {
+		for (int i = 0; i < vocabSize; i++)
+			cumulative[i] /= trainWordsPow;
+		return cumulative;
+	}
+	
+	/** 
+	 * Fills the slots [from, to) of the table used for negative sampling such that each token
+	 * occupies a share of the table proportional to its count raised to the power of 0.75
+	 */
+	private void initializeUnigramTable(double[] cumulative, int from, int to) {
+		// Find the token owning the first slot, then walk forward through the distribution
+		int i = Arrays.binarySearch(cumulative, from / (double)TABLE_SIZE);
+		if (i < 0)
+			i = -i - 1;
+		for (int a = from; a < to; a++) {
+			while (i < vocabSize - 1 && a / (double)TABLE_SIZE > cumulative[i])
 				i++;
-				HuffmanNode next = nodeIter.hasNext()
-						? nodeIter.next()
-						: last;
-				
-				d1 += Math.pow(next.count, power) / trainWordsPow;
-				
-				last = next;
-			}
+			table[a] = Math.min(i, vocabSize - 1);
 		}
 	}
 
-	private void initializeSyn0() {
-		long nextRandom = 1;
-		for (int a = 0; a < huffmanNodes.size(); a++) {
-			// Consume a random for fun
-			// Actually we do this to use up the injected </s> token
-			nextRandom = incrementRandom(nextRandom);
-			for (int b = 0; b < layer1_size; b++) {
-				nextRandom = incrementRandom(nextRandom);
-				syn0[a][b] = (((nextRandom & 0xFFFF) / 65_536.f) - 0.5f) / layer1_size;
+	/** Initializes rows [from, to) of syn0 */
+	private void initializeSyn0(int from, int to) {
+		for (int a = from; a < to; a++) {
+			for (int b = 0; b < layer1_size; b++)
+				syn0[a][b] = initialWeight(a, b, layer1_size);
+		}
+	}
+	
+	/** 
+	 * @return Initial weight of the given cell of syn0, drawn uniformly from [-0.5, 0.5) / layerSize.
+	 * This uses a counter-based random number generator (the SplitMix64 finalizer) keyed by the cell
+	 * so that the weights don't depend on which thread initializes which row.
+	 */
+	static float initialWeight(int row, int col, int layerSize) {
+		long z = (((long)row << 32) | col) + 0x9E37_79B9_7F4A_7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58_476D_1CE4_E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D0_49BB_1331_11EBL;
+		z ^= z >>> 31;
+		return (((z >>> 48) / 65_536.f) - 0.5f) / layerSize;
+	}
+	
+	/** 
+	 * @return Log-loss of predicting the given label from the dot product f, i.e. -log(sigmoid(f))
+	 * for label 1 and -log(1 - sigmoid(f)) = -log(sigmoid(-f)) for label 0
+	 */
+	static double logLoss(double f, int label) {
+		if (label == 0)
+			f = -f;
+		if (f >= MAX_EXP)
+			return 0;
+		if (f <= -MAX_EXP)
+			return -f;
+		return LOG_LOSS_TABLE[(int)((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))];
+	}
+	
+	/** 
+	 * @return Average loss per word of the given sentences against the live network, without updating it.
+	 * Every word is predicted from its full window: from the average of the context vectors for
+	 * {@link NeuralNetworkType#CBOW} and from each context vector for {@link NeuralNetworkType#SKIP_GRAM}.
+	 * Negative samples are drawn from a fixed seed, so that the result is comparable between iterations.
+	 * <p>
+	 * Must not be called while workers are running
+	 */
+	double evaluateLoss(Iterable<List<String>> sentences) {
+		long[] random = { 1 };
+		double[] hidden = new double[layer1_size];
+		double loss = 0;
+		long count = 0;
+		for (List<String> sentence : sentences) {
+			List<HuffmanNode> nodes = new ArrayList<>(sentence.size());
+			for (String s : sentence) {
+				HuffmanNode node = huffmanNodes.get(s);
+				if (node != null)
+					nodes.add(node);
+			}
+			
+			for (int pos = 0; pos < nodes.size(); pos++) {
+				int from = Math.max(0, pos - window);
+				int to = Math.min(nodes.size(), pos + window + 1);
+				if (config.type == NeuralNetworkType.CBOW) {
+					Arrays.fill(hidden, 0);
+					for (int c = from; c < to; c++) {
+						if (c == pos)
+							continue;
+						addInput(nodes.get(c).idx, hidden, 1.0 / (to - from - 1));
+					}
+					if (to - from > 1) {
+						loss += outputLoss(hidden, nodes.get(pos), random);
+						count++;
+					}
+				} else {
+					for (int c = from; c < to; c++) {
+						if (c == pos)
+							continue;
+						Arrays.fill(hidden, 0);
+						addInput(nodes.get(c).idx, hidden, 1);
+						loss += outputLoss(hidden, nodes.get(pos), random);
+						count++;
+					}
+				}
+			}
+		}
+		return count == 0 ? 0 : loss / count;
+	}
+	
+	/** Adds the input vector of the given token multiplied by the given scale to the given vector */
+	void addInput(int idx, double[] target, double scale) {
+		if (inputRows == null) {
+			float[] row = syn0[idx];
+			for (int d = 0; d < layer1_size; d++)
+				target[d] += scale * row[d];
+			return;
+		}
+		int[] rows = inputRows[idx];
+		double rowScale = scale / rows.length;
+		for (int r : rows) {
+			float[] row = syn0[r];
+			for (int d = 0; d < layer1_size; d++)
+				target[d] += rowScale * row[d];
+		}
+	}
+	
+	/** @return Input vector of the given token, which is its row of syn0 unless there are character n-grams */
+	float[] inputVector(int idx) {
+		if (inputRows == null)
+			return syn0[idx];
+		double[] sum = new double[layer1_size];
+		addInput(idx, sum, 1);
+		float[] result = new float[layer1_size];
+		for (int d = 0; d < layer1_size; d++)
+			result[d] = (float)sum[d];
+		return result;
+	}
+	
+	/** @return Loss of predicting the given target from the given hidden layer, using the configured objectives */
+	private double outputLoss(double[] hidden, HuffmanNode target, long[] random) {
+		double loss = 0;
+		if (config.useHierarchicalSoftmax) {
+			for (int d = 0; d < target.code.length; d++) {
+				loss += logLoss(syn1.dot(target.point[d], hidden), 1 - target.code[d]);
 			}
 		}
+		if (config.negativeSamples > 0) {
+			for (int d = 0; d <= config.negativeSamples; d++) {
+				int sample = target.idx;
+				if (d > 0) {
+					random[0] = incrementRandom(random[0]);
+					sample = table[(int) (((random[0] >> 16) % TABLE_SIZE) + TABLE_SIZE) % TABLE_SIZE];
+					if (sample == target.idx)
+						continue;
+				}
+				loss += logLoss(syn1neg.dot(sample, hidden), d == 0 ? 1 : 0);
+			}
+		}
+		return loss;
 	}
 	
 	/** @return Next random value to use */
@@ -148,40 +409,233 @@ public abstract class NeuralNetworkTrainer {
 		int layerSize();
 		/** Resulting vectors */
 		float[][] vectors();
+		/** Vectors of the character n-gram buckets, empty if there are none */
+		float[][] nGramVectors();
 	}
 	
 	/** @return Trained NN model */
 	public NeuralNetworkModel train(Iterable<List<String>> sentences) throws InterruptedException {
-		ListeningExecutorService ex = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(config.numThreads));
-		
-		int numSentences = Iterables.size(sentences);
-		numTrainedTokens += numSentences;
-		
-		// Partition the sentences evenly amongst the threads
-		Iterable<List<List<String>>> partitioned = Iterables.partition(sentences, numSentences / config.numThreads + 1);
+		return train(ImmutableList.of(this), sentences, config.numThreads).get(0);
+	}
+	
+	/** 
+	 * Trains several networks over the same vocabulary in a single pass over the sentences
+	 * <p>
+	 * The sentences are encoded once and the encoded sentences are shared by all of the networks, as is
+	 * the unigram table used for negative sampling.  Each iteration runs the workers of all networks which
+	 * haven't finished yet on one pool of numThreads threads.  If the trainers share a
+	 * {@link TrainingMetricsCollector}, it must have a slot for every worker of every trainer.
+	 * @return Trained NN models, in the order of the given trainers
+	 */
+	public static List<NeuralNetworkModel> train(List<? extends NeuralNetworkTrainer> trainers, Iterable<List<String>> sentences, int numThreads) throws InterruptedException {
+		ExecutorService ex = Executors.newFixedThreadPool(numThreads);
+		try {
+			return train(trainers, sentences, ex);
+		} finally {
+			ex.shutdownNow();
+		}
+	}
+	
+	/** 
+	 * Like {@link #train(List, Iterable, int)}, but runs the work on the given executor, which may be shared
+	 * with other trainings and isn't shut down.  If the calling thread is interrupted, the pending work is cancelled.
+	 * @return Trained NN models, in the order of the given trainers
+	 */
+	public static List<NeuralNetworkModel> train(List<? extends NeuralNetworkTrainer> trainers, Iterable<List<String>> sentences, ExecutorService executor) throws InterruptedException {
+		Preconditions.checkArgument(!trainers.isEmpty(), "Expected at least one trainer");
+		NeuralNetworkTrainer first = trainers.get(0);
+		ListeningExecutorService ex = MoreExecutors.listeningDecorator(executor);
 		
 		try {
-			listener.update(Stage.TRAIN_NEURAL_NETWORK, 0.0);
-			for (int iter = config.iterations; iter > 0; iter--) {
-				List<CallableVoid> tasks = new ArrayList<>();
-				int i = 0;
-				for (final List<List<String>> batch : partitioned) {
-					tasks.add(createWorker(i, iter, batch));
-					i++;
+			// Initialize the networks in the background while the sentences are encoded
+			List<ListenableFuture<?>> setup = new ArrayList<>();
+			int slotOffset = 0;
+			for (NeuralNetworkTrainer trainer : trainers) {
+				Preconditions.checkArgument(trainer.huffmanNodes == first.huffmanNodes, "Expected all trainers to share the vocabulary");
+				trainer.slotOffset = slotOffset;
+				slotOffset += trainer.config.numThreads;
+				trainer.table = first.table;
+				setup.addAll(trainer.initialize(ex));
+			}
+			
+			List<int[]> corpus = first.encode(sentences, ex);
+			await(setup, "Error initializing neural network");
+			for (NeuralNetworkTrainer trainer : trainers) {
+				trainer.prepare(corpus.size());
+				trainer.listener.update(Stage.TRAIN_NEURAL_NETWORK, 0.0);
+				if (trainer.budget != null)
+					trainer.budget.start();
+			}
+			
+			List<NeuralNetworkTrainer> active = new ArrayList<>(trainers);
+			while (!active.isEmpty()) {
+				List<ListenableFuture<?>> futures = new ArrayList<>();
+				for (NeuralNetworkTrainer trainer : active) {
+					for (Worker worker : trainer.createWorkers(corpus))
+						futures.add(ex.submit(worker));
 				}
+				await(futures, "Error training neural network");
 				
-				List<ListenableFuture<?>> futures = new ArrayList<>(tasks.size());
-				for (CallableVoid task : tasks)
-					futures.add(ex.submit(task));
-				try {
-					Futures.allAsList(futures).get();
-				} catch (ExecutionException e) {
-					throw new IllegalStateException("Error training neural network", e.getCause());
+				for (Iterator<NeuralNetworkTrainer> it = active.iterator(); it.hasNext(); ) {
+					if (!it.next().finishIteration())
+						it.remove();
 				}
 			}
-			ex.shutdown();
 		} finally {
-			ex.shutdownNow();
+			for (NeuralNetworkTrainer trainer : trainers) {
+				if (trainer.budget != null)
+					trainer.budget.stop();
+			}
+		}
+		
+		List<NeuralNetworkModel> models = new ArrayList<>(trainers.size());
+		for (NeuralNetworkTrainer trainer : trainers)
+			models.add(trainer.model(false));
+		return models;
+	}
+	
+	/** 
+	 * Waits for the given futures, rethrowing the cause of any failure with the given message.
+	 * If waiting fails or is interrupted, the futures are cancelled.
+	 */
+	private static void await(List<ListenableFuture<?>> futures, String message) throws InterruptedException {
+		ListenableFuture<List<Object>> all = Futures.allAsList(futures);
+		try {
+			all.get();
+		} catch (ExecutionException e) {
+			all.cancel(true);
+			throw new IllegalStateException(message, e.getCause());
+		} catch (InterruptedException e) {
+			all.cancel(true);
+			throw e;
+		}
+	}
+	
+	/** 
+	 * Encodes the sentences into arrays of {@link HuffmanNode#idx}, dropping tokens which aren't in the vocabulary.
+	 * Blocks of sentences are encoded in parallel on the given executor while the sentences are read.
+	 * @return Encoded sentences, in order
+	 */
+	List<int[]> encode(Iterable<List<String>> sentences, ListeningExecutorService ex) throws InterruptedException {
+		List<ListenableFuture<List<int[]>>> blocks = new ArrayList<>();
+		List<List<String>> block = new ArrayList<>(ENCODE_BLOCK_SIZE);
+		for (List<String> sentence : sentences) {
+			block.add(sentence);
+			if (block.size() == ENCODE_BLOCK_SIZE) {
+				blocks.add(ex.submit(encodeTask(block)));
+				block = new ArrayList<>(ENCODE_BLOCK_SIZE);
+			}
+		}
+		blocks.add(ex.submit(encodeTask(block)));
+		
+		ListenableFuture<List<List<int[]>>> all = Futures.allAsList(blocks);
+		try {
+			List<int[]> result = new ArrayList<>(blocks.size() * ENCODE_BLOCK_SIZE);
+			for (List<int[]> encoded : all.get())
+				result.addAll(encoded);
+			return result;
+		} catch (ExecutionException e) {
+			all.cancel(true);
+			throw new IllegalStateException("Error encoding sentences", e.getCause());
+		} catch (InterruptedException e) {
+			all.cancel(true);
+			throw e;
+		}
+	}
+	
+	private Callable<List<int[]>> encodeTask(final List<List<String>> block) {
+		return new Callable<List<int[]>>() {
+			@Override public List<int[]> call() {
+				List<int[]> result = new ArrayList<>(block.size());
+				for (List<String> sentence : block)
+					result.add(encode(sentence));
+				return result;
+			}
+		};
+	}
+	
+	/** 
+	 * @return Indexes of the tokens of the given sentence which are in the vocabulary, or of the buckets
+	 * of the tokens which aren't if there are word buckets
+	 */
+	int[] encode(List<String> sentence) {
+		int[] encoded = new int[sentence.size()];
+		int length = 0;
+		for (String s : sentence) {
+			HuffmanNode huffmanNode = huffmanNodes.get(s);
+			if (huffmanNode == null && bucketNodes != null)
+				huffmanNode = bucketNodes[hashing.get().wordBucket(s)];
+			if (huffmanNode != null)
+				encoded[length++] = huffmanNode.idx;
+		}
+		return length == encoded.length ? encoded : Arrays.copyOf(encoded, length);
+	}
+	
+	/** Prepares the learning rate schedule and the down sampling once the number of sentences is known */
+	private void prepare(int numSentences) {
+		numTrainedTokens += numSentences;
+		remainingIterations = config.iterations;
+		schedule = LearningRateSchedule.linear(config.initialLearningRate, config.iterations * (long)numTrainedTokens);
+		
+		if (config.isBudgeted())
+			budget = new TrainingBudget(this, config.deadlineNanos, config.maxCpuShare);
+		
+		keepProbability = new double[vocabSize];
+		double threshold = config.downSampleRate * numTrainedTokens;
+		for (HuffmanNode huffmanNode : nodes)
+			keepProbability[huffmanNode.idx] = (Math.sqrt(huffmanNode.count / threshold) + 1) * threshold / huffmanNode.count;
+	}
+	
+	/** @return {@link Worker}s for the next iteration, with the encoded sentences partitioned evenly amongst the threads */
+	private List<Worker> createWorkers(List<int[]> corpus) {
+		List<Worker> workers = new ArrayList<>(config.numThreads);
+		int i = 0;
+		for (List<int[]> batch : Lists.partition(corpus, corpus.size() / config.numThreads + 1)) {
+			workers.add(createWorker(i, remainingIterations, batch));
+			i++;
+		}
+		return workers;
+	}
+	
+	/** 
+	 * Called once all workers of an iteration have finished
+	 * @return true if there are more iterations to run
+	 */
+	private boolean finishIteration() {
+		metrics.epochFinished();
+		remainingIterations--;
+		if (stopping || remainingIterations == 0 || (budget != null && budget.isExpired()))
+			return false;
+		
+		if (config.earlyStopping.isPresent()) {
+			double score = config.earlyStopping.get().score(this);
+			if (lastScore != null && config.earlyStopping.get().hasConverged(lastScore, score)) {
+				// Anneal the learning rate to its minimum over one final iteration
+				stopping = true;
+				schedule = schedule.annealOver(actualWordCount.get(), numTrainedTokens);
+			}
+			lastScore = score;
+		}
+		return true;
+	}
+	
+	/** 
+	 * @return Copy of the vectors of the network as they are, which may be called while workers are running.
+	 * Rows that are being updated concurrently may mix values from before and after the update.
+	 */
+	public NeuralNetworkModel snapshot() {
+		return model(true);
+	}
+	
+	/** @return {@link NeuralNetworkModel} backed by syn0 when possible, or by a copy */
+	private NeuralNetworkModel model(boolean copy) {
+		final float[][] vectors = new float[vocabSize][];
+		for (int i = 0; i < vocabSize; i++)
+			vectors[i] = copy && inputRows == null ? syn0[i].clone() : inputVector(i);
+		final float[][] nGramVectors = Arrays.copyOfRange(syn0, vocabSize, syn0.length);
+		if (copy) {
+			for (int i = 0; i < nGramVectors.length; i++)
+				nGramVectors[i] = nGramVectors[i].clone();
 		}
 		
 		return new NeuralNetworkModel() {
@@ -190,21 +644,27 @@ public abstract class NeuralNetworkTrainer {
 			}
 			
 			@Override public float[][] vectors() {
-				return syn0;
+				return vectors;
+			}
+			
+			@Override public float[][] nGramVectors() {
+				return nGramVectors;
 			}
 		};
 	}
 	
 	/** @return {@link Worker} to process the given sentences */
-	abstract Worker createWorker(int randomSeed, int iter, Iterable<List<String>> batch);
+	abstract Worker createWorker(int randomSeed, int iter, List<int[]> batch);
 	
 	/** Worker thread that updates the neural network model */
 	abstract class Worker extends CallableVoid {
 		private static final int LEARNING_RATE_UPDATE_FREQUENCY = 10_000;
 		
 		long nextRandom;
+		/** Slot of this worker's metrics counters */
+		final int slot;
 		final int iter;
-		final Iterable<List<String>> batch;
+		final List<int[]> batch;
 		
 		/** 
 		 * The number of words observed in the training data for this worker that exist
@@ -217,50 +677,77 @@ public abstract class NeuralNetworkTrainer {
 		final double[] neu1 = new double[layer1_size];
 		final double[] neu1e = new double[layer1_size];
 		
-		Worker(int randomSeed, int iter, Iterable<List<String>> batch) {
+		/** Number of updates until the loss of one is sampled, see {@link NeuralNetworkConfig#lossSampleRate} */
+		private int lossCountdown;
+		/** Whether the loss of the current update is sampled */
+		boolean sampleLoss;
+		/** Sum and count of the sampled losses since they were last published */
+		double lossSum;
+		int lossCount;
+		
+		/** Encoded sentence after down sampling */
+		private int[] filtered = new int[MAX_SENTENCE_LENGTH];
+		
+		/** @param randomSeed Index of the partition this worker processes, which also seeds its random numbers */
+		Worker(int randomSeed, int iter, List<int[]> batch) {
 			this.nextRandom = randomSeed;
+			this.slot = slotOffset + randomSeed;
 			this.iter = iter;
 			this.batch = batch;
 		}
 		
 		@Override public void run() throws InterruptedException {
-			for (List<String> sentence : batch) {
-				List<String> filteredSentence = new ArrayList<>(sentence.size());
-				for (String s : sentence) {
-					if (!huffmanNodes.containsKey(s))
-						continue;
-							
+			if (budget != null)
+				budget.acquire();
+			try {
+				train();
+			} finally {
+				if (budget != null)
+					budget.release();
+			}
+			actualWordCount.addAndGet(wordCount - lastWordCount);
+		}
+		
+		/** Trains on the sentences of the batch, until the deadline if there is one */
+		private void train() throws InterruptedException {
+			for (int[] sentence : batch) {
+				if (filtered.length < sentence.length)
+					filtered = new int[sentence.length];
+				int length = 0;
+				for (int idx : sentence) {
 					wordCount++;
 					if (config.downSampleRate > 0) {
-						HuffmanNode huffmanNode = huffmanNodes.get(s);
-						double random = (Math.sqrt(huffmanNode.count / (config.downSampleRate * numTrainedTokens)) + 1)
-								* (config.downSampleRate * numTrainedTokens) / huffmanNode.count;
 						nextRandom = incrementRandom(nextRandom);
-						if (random < (nextRandom & 0xFFFF) / (double)65_536) {
+						if (keepProbability[idx] < (nextRandom & 0xFFFF) / (double)65_536) {
 							continue;
 						}
 					}
 					
-					filteredSentence.add(s);
+					filtered[length++] = idx;
+				}
+				metrics.add(slot, sentence.length, sentence.length - length);
+				if (lossCount > 0) {
+					metrics.addLoss(slot, lossSum, lossCount);
+					lossSum = 0;
+					lossCount = 0;
 				}
 				
 				// Increment word count one extra for the injected </s> token
 				// Turns out if you don't do this, the produced word vectors aren't as tasty
 				wordCount++;
 				
-				Iterable<List<String>> partitioned = Iterables.partition(filteredSentence, MAX_SENTENCE_LENGTH);
-				for (List<String> chunked : partitioned) {
+				for (int start = 0; start < length; start += MAX_SENTENCE_LENGTH) {
 					if (Thread.currentThread().isInterrupted())
 						throw new InterruptedException("Interrupted while training word2vec model");
+					if (budget != null && !budget.checkpoint())
+						return;
 					
 					if (wordCount - lastWordCount > LEARNING_RATE_UPDATE_FREQUENCY) {
 						updateAlpha(iter);
 					}
-					trainSentence(chunked);
+					trainSentence(filtered, start, Math.min(length, start + MAX_SENTENCE_LENGTH));
 				}
 			}
-			
-			actualWordCount.addAndGet(wordCount - lastWordCount);
 		}
 		
 		/** 
@@ -268,22 +755,90 @@ public abstract class NeuralNetworkTrainer {
 		 * @param iter Only used for debugging
 		 */
 		private void updateAlpha(int iter) {
-			int currentActual = actualWordCount.addAndGet(wordCount - lastWordCount);
+			long currentActual = actualWordCount.addAndGet(wordCount - lastWordCount);
 			lastWordCount = wordCount;
 			
 			// Degrade the learning rate linearly towards 0 but keep a minimum
-			alpha = config.initialLearningRate * Math.max(
-					1 - currentActual / (double)(config.iterations * numTrainedTokens),
-					0.0001
-				);
+			LearningRateSchedule schedule = NeuralNetworkTrainer.this.schedule;
+			alpha = schedule.alpha(currentActual);
+			metrics.setAlpha(alpha);
 			
 			listener.update(
 					Stage.TRAIN_NEURAL_NETWORK,
-					currentActual / (double) (config.iterations * numTrainedTokens + 1)
+					schedule.progress(currentActual)
 				);
 		}
 		
-		void handleNegativeSampling(HuffmanNode huffmanNode) {
+		/** 
+		 * Decides whether the loss of the next update is sampled, every 1 / {@link NeuralNetworkConfig#lossSampleRate}
+		 * updates.  This doesn't consume random values, so tracking the loss doesn't change the trained model.
+		 */
+		void nextUpdate() {
+			sampleLoss = false;
+			if (config.lossSampleRate > 0 && --lossCountdown <= 0) {
+				lossCountdown = (int)Math.round(1 / config.lossSampleRate);
+				sampleLoss = true;
+				lossCount++;
+			}
+		}
+		
+		/** @return Factor of the gradients accumulated into neu1e, which is alpha unless the input step is adaptive */
+		double errorScale() {
+			return syn0Accumulators == null ? alpha : 1;
+		}
+		
+		/** 
+		 * @return Step to update the given output row by, for the given gradient of the loss with respect to the dot product
+		 * @param hiddenNormSquared Squared norm of the hidden layer, only used by {@link Optimizer#ADAGRAD}
+		 */
+		double outputStep(double[] accumulators, int row, double gradient, double hiddenNormSquared) {
+			if (accumulators == null)
+				return gradient * alpha;
+			accumulators[row] += gradient * gradient * hiddenNormSquared / layer1_size;
+			return gradient * alpha / Math.sqrt(accumulators[row]);
+		}
+		
+		/** @return Squared norm of the hidden layer if the optimizer needs it, 0 otherwise */
+		double hiddenNormSquared() {
+			if (syn0Accumulators == null)
+				return 0;
+			double sum = 0;
+			for (int c = 0; c < layer1_size; c++)
+				sum += neu1[c] * neu1[c];
+			return sum;
+		}
+		
+		/** Adds the accumulated error neu1e to the rows of syn0 of the input vector of the given token */
+		void updateInput(int idx) {
+			if (inputRows == null) {
+				updateRow(idx, 1);
+				return;
+			}
+			int[] rows = inputRows[idx];
+			for (int row : rows)
+				updateRow(row, 1.0 / rows.length);
+		}
+		
+		/** Adds the accumulated error neu1e multiplied by the given scale to the given row of syn0 */
+		private void updateRow(int row, double scale) {
+			if (syn0Accumulators == null) {
+				for (int d = 0; d < layer1_size; d++)
+					syn0[row][d] += scale * neu1e[d];
+				return;
+			}
+			double normSquared = 0;
+			for (int d = 0; d < layer1_size; d++)
+				normSquared += neu1e[d] * neu1e[d];
+			syn0Accumulators[row] += scale * scale * normSquared / layer1_size;
+			double step = scale * alpha / Math.sqrt(syn0Accumulators[row]);
+			for (int d = 0; d < layer1_size; d++)
+				syn0[row][d] += step * neu1e[d];
+		}
+		
+		void handleNegativeSampling(HuffmanNode huffmanNode, double hiddenNormSquared) {
+			if (config.negativeSamples == 0)
+				return;
+			
 			for (int d = 0; d <= config.negativeSamples; d++) {
 				int target;
 				final int label;
@@ -300,24 +855,23 @@ public abstract class NeuralNetworkTrainer {
 					label = 0;
 				}
 				int l2 = target;
-				double f = 0;
-				for (int c = 0; c < layer1_size; c++)
-					f += neu1[c] * syn1neg[l2][c];
-				final double g;
+				double f = syn1neg.dot(l2, neu1);
+				if (sampleLoss)
+					lossSum += logLoss(f, label);
+				final double gradient;
 				if (f > MAX_EXP)
-					g = (label - 1) * alpha;
+					gradient = label - 1;
 				else if (f < -MAX_EXP)
-					g = (label - 0) * alpha;
+					gradient = label - 0;
 				else
-					g = (label - EXP_TABLE[(int)((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))]) * alpha;
-				for (int c = 0; c < layer1_size; c++)
-					neu1e[c] += g * syn1neg[l2][c];
-				for (int c = 0; c < layer1_size; c++)
-					syn1neg[l2][c] += g * neu1[c];
+					gradient = label - EXP_TABLE[(int)((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))];
+				double g = gradient * errorScale();
+				double step = outputStep(syn1negAccumulators, l2, gradient, hiddenNormSquared);
+				syn1neg.backpropagate(l2, g, neu1e, step, neu1, nextRandom);
 			}
 		}
 		
-		/** Update the model with the given raw sentence */
-		abstract void trainSentence(List<String> unfiltered);
+		/** Update the model with the tokens [start, end) of the given encoded sentence */
+		abstract void trainSentence(int[] sentence, int start, int end);
 	}
 }
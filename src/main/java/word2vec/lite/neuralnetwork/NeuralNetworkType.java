@@ -1,5 +1,6 @@
 package word2vec.lite.neuralnetwork;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.Multiset;
 import word2vec.lite.Word2VecTrainerBuilder;
 import word2vec.lite.huffman.HuffmanCoding;
@@ -12,8 +13,8 @@ import java.util.Map;
 public enum NeuralNetworkType {
 	/** Faster, slightly better accuracy for frequent words */
 	CBOW {
-		@Override NeuralNetworkTrainer createTrainer(NeuralNetworkConfig config, Multiset<String> counts, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Word2VecTrainerBuilder.TrainingProgressListener listener) {
-			return new CBOWModelTrainer(config, counts, huffmanNodes, listener);
+		@Override NeuralNetworkTrainer createTrainer(NeuralNetworkConfig config, Multiset<String> counts, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Optional<WordHashing> hashing, Word2VecTrainerBuilder.TrainingProgressListener listener, TrainingMetricsCollector metrics) {
+			return new CBOWModelTrainer(config, counts, huffmanNodes, hashing, listener, metrics);
 		}
 		
 		@Override public double getDefaultInitialLearningRate() {
@@ -22,8 +23,8 @@ public enum NeuralNetworkType {
 	},
 	/** Slower, better for infrequent words */
 	SKIP_GRAM {
-		@Override NeuralNetworkTrainer createTrainer(NeuralNetworkConfig config, Multiset<String> counts, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Word2VecTrainerBuilder.TrainingProgressListener listener) {
-			return new SkipGramModelTrainer(config, counts, huffmanNodes, listener);
+		@Override NeuralNetworkTrainer createTrainer(NeuralNetworkConfig config, Multiset<String> counts, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Optional<WordHashing> hashing, Word2VecTrainerBuilder.TrainingProgressListener listener, TrainingMetricsCollector metrics) {
+			return new SkipGramModelTrainer(config, counts, huffmanNodes, hashing, listener, metrics);
 		}
 		
 		@Override public double getDefaultInitialLearningRate() {
@@ -36,5 +37,5 @@ public enum NeuralNetworkType {
 	public abstract double getDefaultInitialLearningRate();
 	
 	/** @return New {@link NeuralNetworkTrainer} */
-	abstract NeuralNetworkTrainer createTrainer(NeuralNetworkConfig config, Multiset<String> counts, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Word2VecTrainerBuilder.TrainingProgressListener listener);
+	abstract NeuralNetworkTrainer createTrainer(NeuralNetworkConfig config, Multiset<String> counts, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Optional<WordHashing> hashing, Word2VecTrainerBuilder.TrainingProgressListener listener, TrainingMetricsCollector metrics);
 }
\ No newline at end of file
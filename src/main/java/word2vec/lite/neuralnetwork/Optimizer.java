@@ -0,0 +1,21 @@
+package word2vec.lite.neuralnetwork;
+
+/** 
+ * Supported update rules for the weights of the neural network
+ */
+public enum Optimizer {
+	/** Plain stochastic gradient descent, as in the C version */
+	SGD,
+	/** 
+	 * Adagrad with one accumulator per row of each layer, which sums the mean squared gradient of the updates
+	 * of the row.  The step of an update is the learning rate divided by the square root of the accumulator,
+	 * which starts at 1 so that the first steps are the same as with {@link #SGD}.  Rows of frequent words
+	 * then take smaller steps than those of rare words, which often reaches the same quality in fewer iterations.
+	 * <p>
+	 * The learning rate still decays on the usual schedule, but usually needs a larger initial value
+	 * than for {@link #SGD}, e.g. 0.2.  The accumulators are updated without
+	 * synchronization, like the weights.
+	 */
+	ADAGRAD,
+	;
+}
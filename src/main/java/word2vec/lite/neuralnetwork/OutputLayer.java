@@ -0,0 +1,94 @@
+package word2vec.lite.neuralnetwork;
+
+import word2vec.lite.util.HalfFloat;
+
+/**
+ * Weights of syn1 or syn1neg, one row per node, stored as floats or as {@link HalfFloat}s
+ * <p>
+ * Computations are done in double precision whatever the storage, so half precision only rounds the weights
+ * when they are stored.  Updates of half precision weights are rounded stochastically, since the steps of
+ * word2vec are often smaller than the spacing of half precision values and would otherwise be lost.
+ */
+abstract class OutputLayer {
+	/** @return Dot product of the given row with the given hidden layer */
+	abstract double dot(int row, double[] hidden);
+
+	/**
+	 * Adds the given row multiplied by g to the error, then adds the hidden layer multiplied by step to the row,
+	 * in a single pass over the row
+	 *
+	 * @param random The worker's random state, which seeds any stochastic rounding along with the row, so that
+	 *               training is reproducible and draws the same windows and samples as with floats
+	 */
+	abstract void backpropagate(int row, double g, double[] error, double step, double[] hidden, long random);
+
+	/** @return {@link OutputLayer} of the given size, stored as floats */
+	static OutputLayer create(int rows, int layerSize) {
+		return new FloatLayer(new float[rows][layerSize]);
+	}
+
+	/** @return {@link OutputLayer} of the given size, stored in the given format */
+	static OutputLayer create(int rows, int layerSize, HalfFloat format) {
+		return new HalfLayer(new short[rows][layerSize], format);
+	}
+
+	/** {@link OutputLayer} of floats, like the C version */
+	private static class FloatLayer extends OutputLayer {
+		private final float[][] weights;
+
+		FloatLayer(float[][] weights) {
+			this.weights = weights;
+		}
+
+		@Override double dot(int row, double[] hidden) {
+			float[] w = weights[row];
+			double f = 0;
+			for (int c = 0; c < w.length; c++)
+				f += hidden[c] * w[c];
+			return f;
+		}
+
+		@Override void backpropagate(int row, double g, double[] error, double step, double[] hidden, long random) {
+			float[] w = weights[row];
+			for (int c = 0; c < w.length; c++) {
+				error[c] += g * w[c];
+				w[c] += step * hidden[c];
+			}
+		}
+	}
+
+	/** {@link OutputLayer} of {@link HalfFloat}s, which takes half the memory and bandwidth of floats */
+	private static class HalfLayer extends OutputLayer {
+		private final short[][] weights;
+		private final HalfFloat format;
+
+		HalfLayer(short[][] weights, HalfFloat format) {
+			this.weights = weights;
+			this.format = format;
+		}
+
+		@Override double dot(int row, double[] hidden) {
+			short[] w = weights[row];
+			double f = 0;
+			for (int c = 0; c < w.length; c++)
+				f += hidden[c] * format.decode(w[c]);
+			return f;
+		}
+
+		@Override void backpropagate(int row, double g, double[] error, double step, double[] hidden, long random) {
+			short[] w = weights[row];
+			// Xorshift, whose low bits are as random as its high bits, unlike those of a linear congruential
+			// generator, seeded from the high bits of the worker's state mixed with the row, since the state is
+			// the same for all the rows updated for a word
+			int bits = ((int)(random >>> 16) ^ row * 0x9E3779B9) | 1;
+			for (int c = 0; c < w.length; c++) {
+				float value = format.decode(w[c]);
+				error[c] += g * value;
+				w[c] = format.encodeStochastic((float)(value + step * hidden[c]), bits);
+				bits ^= bits << 13;
+				bits ^= bits >>> 17;
+				bits ^= bits << 5;
+			}
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package word2vec.lite.neuralnetwork;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.Multiset;
 import word2vec.lite.Word2VecTrainerBuilder.TrainingProgressListener;
 import word2vec.lite.huffman.HuffmanCoding;
@@ -12,22 +13,19 @@ import java.util.Map;
  */
 class SkipGramModelTrainer extends NeuralNetworkTrainer {
 	
-	SkipGramModelTrainer(NeuralNetworkConfig config, Multiset<String> counts, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, TrainingProgressListener listener) {
-		super(config, counts, huffmanNodes, listener);
+	SkipGramModelTrainer(NeuralNetworkConfig config, Multiset<String> counts, Map<String, HuffmanCoding.HuffmanNode> huffmanNodes, Optional<WordHashing> hashing, TrainingProgressListener listener, TrainingMetricsCollector metrics) {
+		super(config, counts, huffmanNodes, hashing, listener, metrics);
 	}
 	
 	/** {@link Worker} for {@link SkipGramModelTrainer} */
 	private class SkipGramWorker extends Worker {
-		private SkipGramWorker(int randomSeed, int iter, Iterable<List<String>> batch) {
+		private SkipGramWorker(int randomSeed, int iter, List<int[]> batch) {
 			super(randomSeed, iter, batch);
 		}
 		
-		@Override void trainSentence(List<String> sentence) {
-			int sentenceLength = sentence.size();
-			
-			for (int sentencePosition = 0; sentencePosition < sentenceLength; sentencePosition++) {
-				String word = sentence.get(sentencePosition);
-				HuffmanCoding.HuffmanNode huffmanNode = huffmanNodes.get(word);
+		@Override void trainSentence(int[] sentence, int start, int end) {
+			for (int sentencePosition = start; sentencePosition < end; sentencePosition++) {
+				HuffmanCoding.HuffmanNode huffmanNode = nodes[sentence[sentencePosition]];
 
 				for (int c = 0; c < layer1_size; c++)
 					neu1[c] = 0;
@@ -42,49 +40,51 @@ class SkipGramModelTrainer extends NeuralNetworkTrainer {
 						continue;
 					int c = sentencePosition - window + a;
 					
-					if (c < 0 || c >= sentenceLength)
+					if (c < start || c >= end)
 						continue;
 					for (int d = 0; d < layer1_size; d++)
 						neu1e[d] = 0;
 					
-					int l1 = huffmanNodes.get(sentence.get(c)).idx;
+					int l1 = sentence[c];
+					// The hidden layer is the context word's vector, which is used for negative sampling
+					for (int d = 0; d < layer1_size; d++)
+						neu1[d] = 0;
+					addInput(l1, neu1, 1);
 					
+					double hiddenNormSquared = hiddenNormSquared();
+					nextUpdate();
 					if (config.useHierarchicalSoftmax) {
 						for (int d = 0; d < huffmanNode.code.length; d++) {
-							double f = 0;
 							int l2 = huffmanNode.point[d];
 							// Propagate hidden -> output
-							for (int e = 0; e < layer1_size; e++)
-								f += syn0[l1][e] * syn1[l2][e];
+							double f = syn1.dot(l2, neu1);
+							if (sampleLoss)
+								lossSum += logLoss(f, 1 - huffmanNode.code[d]);
 							
 							if (f <= -MAX_EXP || f >= MAX_EXP)
 								continue;
 							else
 								f = EXP_TABLE[(int)((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))];
-							// 'g' is the gradient multiplied by the learning rate
-							double g = (1 - huffmanNode.code[d] - f) * alpha;
+							// 'g' is the gradient scaled for neu1e, i.e. multiplied by the learning rate for SGD
+							double gradient = 1 - huffmanNode.code[d] - f;
+							double g = gradient * errorScale();
 							
-							// Propagate errors output -> hidden
-							for (int e = 0; e < layer1_size; e++)
-								neu1e[e] += g * syn1[l2][e];
-							// Learn weights hidden -> output
-							for (int e = 0; e < layer1_size; e++)
-								syn1[l2][e] += g * syn0[l1][e];
+							// Propagate errors output -> hidden and learn weights hidden -> output
+							double step = outputStep(syn1Accumulators, l2, gradient, hiddenNormSquared);
+							syn1.backpropagate(l2, g, neu1e, step, neu1, nextRandom);
 						}
 					}
 					
-					handleNegativeSampling(huffmanNode);
+					handleNegativeSampling(huffmanNode, hiddenNormSquared);
 					
 					// Learn weights input -> hidden
-					for (int d = 0; d < layer1_size; d++) {
-						syn0[l1][d] += neu1e[d];
-					}
+					updateInput(l1);
 				}
 			}
 		}
 	}
 
-	@Override Worker createWorker(int randomSeed, int iter, Iterable<List<String>> batch) {
+	@Override Worker createWorker(int randomSeed, int iter, List<int[]> batch) {
 		return new SkipGramWorker(randomSeed, iter, batch);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,174 @@
+package word2vec.lite.neuralnetwork;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the training of a {@link NeuralNetworkTrainer} within a wall-clock deadline and a maximum share of the CPUs
+ * <p>
+ * Workers hold a permit while they train, and add the CPU time of their own thread to the budget at every
+ * chunk, so the CPU used by other trainers in the same process isn't counted.  A controller thread periodically
+ * measures the CPU time used by the workers and lowers or raises the number of permits one at a time, so that
+ * workers over the limit pause between chunks of a sentence until there is room again.  The controller also measures the throughput,
+ * and shortens the learning rate schedule so that alpha reaches its minimum when the deadline passes.
+ * Once it has passed, workers stop at their next chunk.
+ */
+class TrainingBudget {
+	private static final long INTERVAL_MILLIS = 200;
+	/** Weight of the latest interval in the moving average of the throughput */
+	private static final double RATE_SMOOTHING = 0.3;
+	/** Relative change of the remaining words below which the schedule isn't replaced */
+	private static final double RESCHEDULE_THRESHOLD = 0.02;
+
+	private final NeuralNetworkTrainer trainer;
+	private final long deadlineNanos;
+	private final double maxCpus;
+	private final int numWorkers;
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	/** Number of workers allowed to train at once */
+	private volatile int permits;
+	/** Number of workers currently training */
+	private volatile int running;
+	private volatile boolean expired;
+	/** CPU time used by the workers while holding a permit, up to their latest chunk */
+	private final AtomicLong workerCpuNanos = new AtomicLong();
+	/** CPU time of the current worker thread when it was last added to {@link #workerCpuNanos} */
+	private final ThreadLocal<long[]> cpuMark = new ThreadLocal<long[]>() {
+		@Override protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	/** End of the original schedule, which is never extended */
+	private long originalEndWords;
+	private long lastNanos;
+	private long lastCpuNanos;
+	private long lastWords;
+	/** Moving average of the processed words per nanosecond */
+	private double rate = Double.NaN;
+	private ScheduledExecutorService controller;
+
+	/**
+	 * @param deadlineNanos Value of {@link System#nanoTime()} at which training stops
+	 * @param maxCpuShare Maximum fraction of the available processors used by the workers
+	 */
+	TrainingBudget(NeuralNetworkTrainer trainer, long deadlineNanos, double maxCpuShare) {
+		this.trainer = trainer;
+		this.deadlineNanos = deadlineNanos;
+		this.maxCpus = maxCpuShare * Runtime.getRuntime().availableProcessors();
+		this.numWorkers = trainer.config.numThreads;
+		this.permits = Math.max(1, Math.min(numWorkers, (int)maxCpus));
+	}
+
+	/** Starts the controller thread, once the learning rate schedule is known */
+	synchronized void start() {
+		originalEndWords = trainer.schedule.endWords();
+		lastNanos = System.nanoTime();
+		lastCpuNanos = workerCpuNanos.get();
+		lastWords = trainer.actualWordCount.get();
+		controller = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("word2vec-budget-%d").build());
+		controller.scheduleAtFixedRate(new Runnable() {
+			@Override public void run() {
+				adjust();
+			}
+		}, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/** Stops the controller thread, if started */
+	synchronized void stop() {
+		if (controller != null)
+			controller.shutdownNow();
+		controller = null;
+	}
+
+	/** @return true once the deadline has passed */
+	boolean isExpired() {
+		if (!expired && System.nanoTime() - deadlineNanos >= 0)
+			expired = true;
+		return expired;
+	}
+
+	/** Waits for a permit to train, unless the deadline has passed */
+	synchronized void acquire() throws InterruptedException {
+		while (running >= permits && !isExpired())
+			wait(INTERVAL_MILLIS);
+		running++;
+		cpuMark.get()[0] = threads.getCurrentThreadCpuTime();
+	}
+
+	/** Returns the permit of a worker that stopped training */
+	synchronized void release() {
+		addWorkerCpu();
+		running--;
+		notifyAll();
+	}
+
+	/**
+	 * Called by a worker holding a permit between chunks, which pauses it while more workers
+	 * are running than permitted
+	 * @return false once the deadline has passed and the worker should stop
+	 */
+	boolean checkpoint() throws InterruptedException {
+		addWorkerCpu();
+		if (running > permits) {
+			synchronized (this) {
+				if (running > permits) {
+					release();
+					acquire();
+				}
+			}
+		}
+		return !isExpired();
+	}
+
+	/** Adjusts the number of permits to the CPU share and the schedule to the deadline */
+	private synchronized void adjust() {
+		long now = System.nanoTime();
+		long cpuNanos = workerCpuNanos.get();
+		long words = trainer.actualWordCount.get();
+		long elapsed = Math.max(now - lastNanos, 1);
+
+		double usedCpus = (cpuNanos - lastCpuNanos) / (double)elapsed;
+		double cpusPerWorker = usedCpus / Math.max(running, 1);
+		if (usedCpus > maxCpus && permits > 1) {
+			permits--;
+		} else if (usedCpus + cpusPerWorker <= maxCpus && permits < numWorkers) {
+			permits++;
+			notifyAll();
+		}
+
+		double intervalRate = (words - lastWords) / (double)elapsed;
+		rate = Double.isNaN(rate) ? intervalRate : RATE_SMOOTHING * intervalRate + (1 - RATE_SMOOTHING) * rate;
+		if (isExpired()) {
+			notifyAll();
+		} else if (rate > 0) {
+			// Anneal over the words that can still be processed before the deadline, but never beyond the original schedule
+			long reachable = (long)Math.min(originalEndWords, words + rate * (deadlineNanos - now));
+			LearningRateSchedule schedule = trainer.schedule;
+			long remaining = schedule.endWords() - words;
+			if (remaining > 0 && Math.abs(reachable - schedule.endWords()) > RESCHEDULE_THRESHOLD * remaining)
+				trainer.schedule = schedule.annealOver(words, reachable - words);
+		}
+
+		lastNanos = now;
+		lastCpuNanos = cpuNanos;
+		lastWords = words;
+	}
+
+	/** Adds the CPU time the current worker used since its last chunk, if the JVM measures it */
+	private void addWorkerCpu() {
+		long[] mark = cpuMark.get();
+		long now = threads.getCurrentThreadCpuTime();
+		if (now >= 0 && mark[0] >= 0)
+			workerCpuNanos.addAndGet(now - mark[0]);
+		mark[0] = now;
+	}
+}
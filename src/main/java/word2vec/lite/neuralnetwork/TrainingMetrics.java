@@ -0,0 +1,133 @@
+package word2vec.lite.neuralnetwork;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import word2vec.lite.Word2VecTrainerBuilder.TrainingProgressListener.Stage;
+
+import java.util.Arrays;
+
+/**
+ * Snapshot of the throughput and resource usage of a training run
+ * <p>
+ * Instances are published periodically by {@link TrainingMetricsCollector}
+ */
+public class TrainingMetrics {
+	private final Stage stage;
+	private final long elapsedMillis;
+	private final long tokensProcessed;
+	private final long tokensSkipped;
+	private final double wordsPerSecond;
+	private final double[] threadWordsPerSecond;
+	private final double alpha;
+	private final double intervalLoss;
+	private final ImmutableList<Double> epochLosses;
+	private final ImmutableMap<Stage, Long> stageMillis;
+	private final long heapBytesUsed;
+	private final long offHeapBytesUsed;
+
+	TrainingMetrics(
+			Stage stage,
+			long elapsedMillis,
+			long tokensProcessed,
+			long tokensSkipped,
+			double wordsPerSecond,
+			double[] threadWordsPerSecond,
+			double alpha,
+			double intervalLoss,
+			ImmutableList<Double> epochLosses,
+			ImmutableMap<Stage, Long> stageMillis,
+			long heapBytesUsed,
+			long offHeapBytesUsed) {
+		this.stage = stage;
+		this.elapsedMillis = elapsedMillis;
+		this.tokensProcessed = tokensProcessed;
+		this.tokensSkipped = tokensSkipped;
+		this.wordsPerSecond = wordsPerSecond;
+		this.threadWordsPerSecond = threadWordsPerSecond;
+		this.alpha = alpha;
+		this.intervalLoss = intervalLoss;
+		this.epochLosses = epochLosses;
+		this.stageMillis = stageMillis;
+		this.heapBytesUsed = heapBytesUsed;
+		this.offHeapBytesUsed = offHeapBytesUsed;
+	}
+
+	/** @return Current {@link Stage} of processing, or null if no stage has started yet */
+	public Stage getStage() {
+		return stage;
+	}
+
+	/** @return Milliseconds since the collection started */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/** @return Number of tokens in the vocabulary processed by the neural network so far, including skipped ones */
+	public long getTokensProcessed() {
+		return tokensProcessed;
+	}
+
+	/** @return Number of tokens in the vocabulary discarded by down sampling so far */
+	public long getTokensSkipped() {
+		return tokensSkipped;
+	}
+
+	/** @return Tokens processed per second by all threads since the previous snapshot */
+	public double getWordsPerSecond() {
+		return wordsPerSecond;
+	}
+
+	/** @return Tokens processed per second by each thread since the previous snapshot */
+	public double[] getThreadWordsPerSecond() {
+		return threadWordsPerSecond.clone();
+	}
+
+	/** @return Current learning rate */
+	public double getAlpha() {
+		return alpha;
+	}
+
+	/** 
+	 * @return Average sampled loss per update since the previous snapshot, or NaN if no loss was sampled
+	 * @see word2vec.lite.Word2VecTrainerBuilder#setLossSampleRate(double)
+	 */
+	public double getIntervalLoss() {
+		return intervalLoss;
+	}
+
+	/** @return Average sampled loss per update of each finished epoch, in order */
+	public ImmutableList<Double> getEpochLosses() {
+		return epochLosses;
+	}
+
+	/** @return Milliseconds spent in each {@link Stage} started so far, including the current one */
+	public ImmutableMap<Stage, Long> getStageMillis() {
+		return stageMillis;
+	}
+
+	/** @return Bytes in use on the Java heap */
+	public long getHeapBytesUsed() {
+		return heapBytesUsed;
+	}
+
+	/** @return Bytes in use by direct and mapped buffers */
+	public long getOffHeapBytesUsed() {
+		return offHeapBytesUsed;
+	}
+
+	@Override public String toString() {
+		return String.format("%s after %sms: %s tokens processed, %s skipped, %.0f words/sec %s, alpha %.6f, loss %.4f %s, %s MB heap, %s MB off-heap",
+				stage,
+				elapsedMillis,
+				tokensProcessed,
+				tokensSkipped,
+				wordsPerSecond,
+				Arrays.toString(threadWordsPerSecond),
+				alpha,
+				intervalLoss,
+				epochLosses,
+				heapBytesUsed >> 20,
+				offHeapBytesUsed >> 20
+			);
+	}
+}
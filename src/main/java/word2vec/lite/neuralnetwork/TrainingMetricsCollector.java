@@ -0,0 +1,226 @@
+package word2vec.lite.neuralnetwork;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import word2vec.lite.Word2VecTrainerBuilder.TrainingMetricsListener;
+import word2vec.lite.Word2VecTrainerBuilder.TrainingProgressListener.Stage;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects {@link TrainingMetrics} during training
+ * <p>
+ * Each worker thread owns a slot of counters which only it writes to, using lazy sets,
+ * so publishing is cheap and never contends.  A separate sampler thread aggregates the slots
+ * and publishes a snapshot to the {@link TrainingMetricsListener} at a fixed interval.
+ */
+public final class TrainingMetricsCollector {
+	/** Number of longs between the slots of two threads, so that they live on different cache lines */
+	private static final int STRIDE = 8;
+	private static final int PROCESSED = 0;
+	private static final int SKIPPED = 1;
+	/** Raw bits of the sum of the sampled losses, as a double */
+	private static final int LOSS_SUM = 2;
+	private static final int LOSS_COUNT = 3;
+
+	private final int numThreads;
+	private final AtomicLongArray counters;
+	private final Map<Stage, Long> stageMillis = new EnumMap<>(Stage.class);
+	private final long startNanos = System.nanoTime();
+
+	private Stage stage;
+	private long stageStartNanos;
+	private volatile double alpha;
+
+	private ScheduledExecutorService sampler;
+	private TrainingMetricsListener listener;
+	private long lastSampleNanos;
+	private long[] lastProcessed;
+	private double lastLossSum;
+	private long lastLossCount;
+	private double epochStartLossSum;
+	private long epochStartLossCount;
+	private final List<Double> epochLosses = new ArrayList<>();
+
+	/** @param numThreads Number of worker threads that publish counters */
+	public TrainingMetricsCollector(int numThreads) {
+		Preconditions.checkArgument(numThreads > 0, "Value must be positive");
+		this.numThreads = numThreads;
+		this.counters = new AtomicLongArray(numThreads * STRIDE);
+		this.lastProcessed = new long[numThreads];
+		this.lastSampleNanos = startNanos;
+	}
+
+	/** Starts publishing snapshots to the given listener every intervalMillis on a daemon thread */
+	public synchronized void start(final TrainingMetricsListener listener, long intervalMillis) {
+		Preconditions.checkState(sampler == null, "Already started");
+		Preconditions.checkArgument(intervalMillis > 0, "Value must be positive");
+		this.listener = Preconditions.checkNotNull(listener);
+		this.sampler = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("word2vec-metrics-%d").build());
+		sampler.scheduleAtFixedRate(new Runnable() {
+			@Override public void run() {
+				listener.update(snapshot());
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/** Stops the sampler thread, if started, and publishes a final snapshot */
+	public void stop() {
+		synchronized (this) {
+			if (sampler == null)
+				return;
+			sampler.shutdownNow();
+			sampler = null;
+		}
+		listener.update(snapshot());
+	}
+
+	/** Marks the start of the given {@link Stage}, ending the previous one */
+	public synchronized void stageStarted(Stage stage) {
+		long now = System.nanoTime();
+		endStage(now);
+		this.stage = stage;
+		this.stageStartNanos = now;
+	}
+
+	/** Marks the end of the current {@link Stage} */
+	public synchronized void stageFinished() {
+		endStage(System.nanoTime());
+		this.stage = null;
+	}
+
+	private void endStage(long now) {
+		if (stage != null) {
+			Long previous = stageMillis.get(stage);
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(now - stageStartNanos);
+			stageMillis.put(stage, previous == null ? elapsed : previous + elapsed);
+		}
+	}
+
+	/** Records the current learning rate */
+	void setAlpha(double alpha) {
+		this.alpha = alpha;
+	}
+
+	/**
+	 * Adds to the counters of the given thread
+	 * <p>
+	 * Only the owning thread may call this for a given slot
+	 */
+	void add(int thread, long processed, long skipped) {
+		int base = thread * STRIDE;
+		counters.lazySet(base + PROCESSED, counters.get(base + PROCESSED) + processed);
+		counters.lazySet(base + SKIPPED, counters.get(base + SKIPPED) + skipped);
+	}
+
+	/** 
+	 * Adds sampled losses to the counters of the given thread
+	 * <p>
+	 * Only the owning thread may call this for a given slot
+	 */
+	void addLoss(int thread, double lossSum, long lossCount) {
+		int base = thread * STRIDE;
+		double sum = Double.longBitsToDouble(counters.get(base + LOSS_SUM)) + lossSum;
+		counters.lazySet(base + LOSS_SUM, Double.doubleToRawLongBits(sum));
+		counters.lazySet(base + LOSS_COUNT, counters.get(base + LOSS_COUNT) + lossCount);
+	}
+	
+	/** 
+	 * Records the average sampled loss of the epoch that just finished, and publishes a snapshot
+	 * including it if the sampler is running
+	 * <p>
+	 * Must be called once all workers of the epoch have finished
+	 */
+	synchronized void epochFinished() {
+		double lossSum = 0;
+		long lossCount = 0;
+		for (int i = 0; i < numThreads; i++) {
+			lossSum += Double.longBitsToDouble(counters.get(i * STRIDE + LOSS_SUM));
+			lossCount += counters.get(i * STRIDE + LOSS_COUNT);
+		}
+		if (lossCount > epochStartLossCount)
+			epochLosses.add((lossSum - epochStartLossSum) / (lossCount - epochStartLossCount));
+		epochStartLossSum = lossSum;
+		epochStartLossCount = lossCount;
+		
+		if (sampler != null) {
+			sampler.execute(new Runnable() {
+				@Override public void run() {
+					listener.update(snapshot());
+				}
+			});
+		}
+	}
+	
+	/** @return Snapshot of the current metrics; rates are relative to the previous snapshot */
+	public synchronized TrainingMetrics snapshot() {
+		long now = System.nanoTime();
+		double seconds = Math.max(now - lastSampleNanos, 1) / 1e9;
+		lastSampleNanos = now;
+
+		long processed = 0;
+		long skipped = 0;
+		long delta = 0;
+		double lossSum = 0;
+		long lossCount = 0;
+		double[] threadRates = new double[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			lossSum += Double.longBitsToDouble(counters.get(i * STRIDE + LOSS_SUM));
+			lossCount += counters.get(i * STRIDE + LOSS_COUNT);
+			long threadProcessed = counters.get(i * STRIDE + PROCESSED);
+			processed += threadProcessed;
+			skipped += counters.get(i * STRIDE + SKIPPED);
+			delta += threadProcessed - lastProcessed[i];
+			threadRates[i] = (threadProcessed - lastProcessed[i]) / seconds;
+			lastProcessed[i] = threadProcessed;
+		}
+		double intervalLoss = lossCount > lastLossCount
+				? (lossSum - lastLossSum) / (lossCount - lastLossCount)
+				: Double.NaN;
+		lastLossSum = lossSum;
+		lastLossCount = lossCount;
+
+		EnumMap<Stage, Long> stages = new EnumMap<>(stageMillis);
+		if (stage != null) {
+			Long previous = stages.get(stage);
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(now - stageStartNanos);
+			stages.put(stage, previous == null ? elapsed : previous + elapsed);
+		}
+
+		Runtime runtime = Runtime.getRuntime();
+		return new TrainingMetrics(
+				stage,
+				TimeUnit.NANOSECONDS.toMillis(now - startNanos),
+				processed,
+				skipped,
+				delta / seconds,
+				threadRates,
+				alpha,
+				intervalLoss,
+				ImmutableList.copyOf(epochLosses),
+				ImmutableMap.copyOf(stages),
+				runtime.totalMemory() - runtime.freeMemory(),
+				offHeapBytesUsed()
+			);
+	}
+
+	/** @return Bytes used by the direct and mapped buffer pools */
+	private static long offHeapBytesUsed() {
+		long used = 0;
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+			used += Math.max(pool.getMemoryUsed(), 0);
+		return used;
+	}
+}
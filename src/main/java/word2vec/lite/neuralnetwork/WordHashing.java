@@ -0,0 +1,99 @@
+package word2vec.lite.neuralnetwork;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Hashing of words into a fixed number of buckets, which bounds the size of the network regardless of the
+ * size of the vocabulary
+ * <p>
+ * Words outside of the vocabulary share the row of their word bucket, which takes part in training like
+ * any other word.  Character n-grams of the words, in the style of fastText, are hashed into separate
+ * buckets, and the input vector of a word is the average of its own row and the rows of its n-grams.
+ * Either kind of bucket may be disabled by giving 0 buckets.
+ * <p>
+ * Hashes are 32 bit FNV-1a over the chars of the word, so that they are stable across runs.
+ */
+public final class WordHashing {
+	/** Prefix of the pseudo-tokens which represent the word buckets in the vocabulary */
+	private static final String BUCKET_PREFIX = "\u0000bucket:";
+	/** Markers added around a word before extracting its n-grams, as in fastText */
+	private static final char BEGIN_OF_WORD = '<';
+	private static final char END_OF_WORD = '>';
+
+	private final int numWordBuckets;
+	private final int minN;
+	private final int maxN;
+	private final int numNGramBuckets;
+
+	/**
+	 * @param numWordBuckets Number of buckets for words outside of the vocabulary, 0 to drop them as usual
+	 * @param minN Minimum length of the character n-grams
+	 * @param maxN Maximum length of the character n-grams
+	 * @param numNGramBuckets Number of buckets for character n-grams, 0 to disable them
+	 */
+	public WordHashing(int numWordBuckets, int minN, int maxN, int numNGramBuckets) {
+		Preconditions.checkArgument(numWordBuckets >= 0 && numNGramBuckets >= 0, "Value must be non-negative");
+		Preconditions.checkArgument(numNGramBuckets == 0 || (minN > 0 && minN <= maxN), "Expected 0 < minN <= maxN");
+		this.numWordBuckets = numWordBuckets;
+		this.minN = minN;
+		this.maxN = maxN;
+		this.numNGramBuckets = numNGramBuckets;
+	}
+
+	/** @return Number of buckets for words outside of the vocabulary */
+	public int getNumWordBuckets() {
+		return numWordBuckets;
+	}
+
+	/** @return Number of buckets for character n-grams */
+	public int getNumNGramBuckets() {
+		return numNGramBuckets;
+	}
+
+	/** @return Bucket of the given word, if there are word buckets */
+	public int wordBucket(CharSequence word) {
+		return bucket(word, 0, word.length(), numWordBuckets);
+	}
+
+	/** @return Pseudo-token which represents the given word bucket in the vocabulary */
+	public static String bucketToken(int bucket) {
+		return BUCKET_PREFIX + bucket;
+	}
+
+	/** @return Word bucket represented by the given token, or -1 if it isn't a bucket pseudo-token */
+	public static int parseBucketToken(String token) {
+		return token.startsWith(BUCKET_PREFIX)
+				? Integer.parseInt(token.substring(BUCKET_PREFIX.length()))
+				: -1;
+	}
+
+	/** @return Buckets of the character n-grams of the given word, empty if there are no n-gram buckets */
+	public int[] nGramBuckets(String word) {
+		if (numNGramBuckets == 0)
+			return new int[0];
+
+		String marked = BEGIN_OF_WORD + word + END_OF_WORD;
+		int length = marked.length();
+		int count = 0;
+		for (int n = minN; n <= maxN; n++)
+			count += Math.max(length - n + 1, 0);
+
+		int[] buckets = new int[count];
+		int i = 0;
+		for (int n = minN; n <= maxN; n++) {
+			for (int start = 0; start + n <= length; start++)
+				buckets[i++] = bucket(marked, start, start + n, numNGramBuckets);
+		}
+		return buckets;
+	}
+
+	/** @return FNV-1a hash of the chars [from, to) of the given sequence, modulo the number of buckets */
+	private static int bucket(CharSequence s, int from, int to, int numBuckets) {
+		int hash = 0x811C_9DC5;
+		for (int i = from; i < to; i++) {
+			hash ^= s.charAt(i);
+			hash *= 0x0100_0193;
+		}
+		return (int)((hash & 0xFFFF_FFFFL) % numBuckets);
+	}
+}
@@ -0,0 +1,86 @@
+package word2vec.lite.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes primitives to a {@link FileChannel} through a direct buffer, like a DataOutputStream in a given byte order
+ * <p>
+ * Closing flushes the buffer, but doesn't close the channel.
+ */
+public final class ChannelWriter implements Closeable {
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+
+	/** Writes at the current position of the given channel */
+	public ChannelWriter(FileChannel channel, ByteOrder order, int bufferSize) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize).order(order);
+	}
+
+	/** @return Position in the channel of the next byte written */
+	public long position() throws IOException {
+		return channel.position() + buffer.position();
+	}
+
+	public void putByte(byte value) throws IOException {
+		ensure(1).put(value);
+	}
+
+	public void putInt(int value) throws IOException {
+		ensure(4).putInt(value);
+	}
+
+	public void putLong(long value) throws IOException {
+		ensure(8).putLong(value);
+	}
+
+	public void putFloat(float value) throws IOException {
+		ensure(4).putFloat(value);
+	}
+
+	public void put(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			int n = Math.min(length, ensure(1).remaining());
+			buffer.put(bytes, offset, n);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/** Writes the given value as an unsigned LEB128 varint */
+	public void putVarInt(int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			putByte((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		putByte((byte)value);
+	}
+
+	/** Writes zeros up to the next position which is a multiple of the given alignment */
+	public void align(int alignment) throws IOException {
+		while (position() % alignment != 0)
+			putByte((byte)0);
+	}
+
+	/** Writes the buffered bytes to the channel */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	@Override public void close() throws IOException {
+		flush();
+	}
+
+	private ByteBuffer ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes)
+			flush();
+		return buffer;
+	}
+}
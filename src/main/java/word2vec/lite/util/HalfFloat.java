@@ -0,0 +1,99 @@
+package word2vec.lite.util;
+
+/**
+ * Formats of 16 bit floating point values, stored as shorts
+ * <p>
+ * Values are encoded by rounding to nearest even, like the conversions of the hardware, or stochastically, so that
+ * small updates of a value survive on average instead of being rounded away.
+ */
+public enum HalfFloat {
+	/** IEEE 754 binary16: 5 bits of exponent and 10 of mantissa, so values above 65504 become infinite */
+	FLOAT16 {
+		@Override public float decode(short value) {
+			return FLOAT16_VALUES[value & 0xFFFF];
+		}
+
+		@Override short encode(float value, int random, boolean stochastic) {
+			int bits = Float.floatToRawIntBits(value);
+			int sign = (bits >>> 16) & 0x8000;
+			int exponent = ((bits >>> 23) & 0xFF) - 127 + 15;
+			int mantissa = bits & 0x7F_FFFF;
+			if (exponent == 0xFF - 127 + 15)
+				return (short)(sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+			if (exponent >= 0x1F)
+				return (short)(sign | 0x7C00);
+			if (exponent <= 0) {
+				// Subnormal, with the implicit bit of the mantissa made explicit
+				if (exponent < -10)
+					return (short)sign;
+				return (short)(sign | round(mantissa | 0x80_0000, 14 - exponent, random, stochastic));
+			}
+			// A carry out of the mantissa correctly increments the exponent, up to infinity
+			return (short)(sign | round((exponent << 23) | mantissa, 13, random, stochastic));
+		}
+	},
+	/** The upper half of a float: 8 bits of exponent, like a float, and 7 of mantissa */
+	BFLOAT16 {
+		@Override public float decode(short value) {
+			return Float.intBitsToFloat(value << 16);
+		}
+
+		@Override short encode(float value, int random, boolean stochastic) {
+			int bits = Float.floatToRawIntBits(value);
+			if (Float.isNaN(value))
+				return (short)((bits >>> 16) | 0x40);
+			return (short)round(bits, 16, random, stochastic);
+		}
+	},
+	;
+
+	/** Value of every FLOAT16, since decoding it bit by bit takes several branches */
+	private static final float[] FLOAT16_VALUES = new float[1 << 16];
+	static {
+		for (int i = 0; i < FLOAT16_VALUES.length; i++) {
+			int sign = (i & 0x8000) << 16;
+			int exponent = (i >>> 10) & 0x1F;
+			int mantissa = i & 0x3FF;
+			if (exponent == 0x1F)
+				FLOAT16_VALUES[i] = Float.intBitsToFloat(sign | 0x7F80_0000 | (mantissa << 13));
+			else if (exponent == 0)
+				FLOAT16_VALUES[i] = (sign == 0 ? 1 : -1) * mantissa * 0x1p-24f;
+			else
+				FLOAT16_VALUES[i] = Float.intBitsToFloat(sign | ((exponent + 127 - 15) << 23) | (mantissa << 13));
+		}
+	}
+
+	/** @return Value of the given bits */
+	public abstract float decode(short value);
+
+	/** @return Bits of the given value, rounded to the nearest value, ties to even */
+	public short encode(float value) {
+		return encode(value, 0, false);
+	}
+
+	/**
+	 * @param random Random bits
+	 * @return Bits of the given value, rounded up in magnitude with a probability equal to the fraction of the
+	 * distance between the two nearest values
+	 */
+	public short encodeStochastic(float value, int random) {
+		return encode(value, random, true);
+	}
+
+	abstract short encode(float value, int random, boolean stochastic);
+
+	/** @return The given bits shifted right by the given number of bits, rounded */
+	private static int round(int bits, int shift, int random, boolean stochastic) {
+		int result = bits >>> shift;
+		int remainder = bits & ((1 << shift) - 1);
+		if (stochastic) {
+			if ((random & ((1 << shift) - 1)) < remainder)
+				result++;
+		} else {
+			int half = 1 << (shift - 1);
+			if (remainder > half || (remainder == half && (result & 1) != 0))
+				result++;
+		}
+		return result;
+	}
+}
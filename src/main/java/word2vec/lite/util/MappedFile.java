@@ -0,0 +1,106 @@
+package word2vec.lite.util;
+
+import com.google.common.base.Preconditions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory mapping of a whole file, addressed with long positions
+ * <p>
+ * Java's NIO only maps up to 2GB at a time, so the file is mapped as segments of 1GB.  Each segment also maps the
+ * given number of bytes past its end, so that any range of up to that many bytes starting in a segment can be
+ * read from that segment alone, e.g. a whole vector.  Mappings are shared with other processes through the page
+ * cache, and are released when this is garbage collected.
+ */
+public final class MappedFile {
+	/** log2 of the size of a segment */
+	public static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	private final MappedByteBuffer[] segments;
+	private final long size;
+
+	private MappedFile(MappedByteBuffer[] segments, long size) {
+		this.segments = segments;
+		this.size = size;
+	}
+
+	/**
+	 * @param overlap Maximum length of the ranges to read with {@link #segment(long)}
+	 * @return Mapping of the given file in the given byte order
+	 */
+	public static MappedFile map(File file, ByteOrder order, int overlap) throws IOException {
+		Preconditions.checkArgument(overlap >= 0 && overlap <= Integer.MAX_VALUE - (1 << SEGMENT_SHIFT), "Overlap out of range: %s", overlap);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			int count = (int)((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+			MappedByteBuffer[] segments = new MappedByteBuffer[Math.max(count, 1)];
+			for (int i = 0; i < segments.length; i++) {
+				long start = (long)i << SEGMENT_SHIFT;
+				long length = Math.min(size - start, (1L << SEGMENT_SHIFT) + overlap);
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(length, 0));
+				segments[i].order(order);
+			}
+			return new MappedFile(segments, size);
+		}
+	}
+
+	/** @return Size of the file */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return Segment containing the given position, which is at index {@link #offset(long)} of the segment.
+	 * The returned buffer is shared, so only its absolute get methods may be used.
+	 */
+	public ByteBuffer segment(long position) {
+		return segments[(int)(position >>> SEGMENT_SHIFT)];
+	}
+
+	/** @return Index of the given position within its {@link #segment(long)} */
+	public static int offset(long position) {
+		return (int)(position & SEGMENT_MASK);
+	}
+
+	/** @return Byte at the given position */
+	public byte get(long position) {
+		return segment(position).get(offset(position));
+	}
+
+	/** @return Int at the given position */
+	public int getInt(long position) {
+		return segment(position).getInt(offset(position));
+	}
+
+	/** @return Long at the given position */
+	public long getLong(long position) {
+		return segment(position).getLong(offset(position));
+	}
+
+	/** @return Float at the given position */
+	public float getFloat(long position) {
+		return segment(position).getFloat(offset(position));
+	}
+
+	/** Reads length bytes starting at the given position, which must be within the overlap, into the given array */
+	public void get(long position, byte[] dst, int length) {
+		ByteBuffer view = segment(position).duplicate();
+		view.position(offset(position));
+		view.get(dst, 0, length);
+	}
+
+	/** Reads floats starting at the given position, which must be within the overlap, into the given array */
+	public void getFloats(long position, float[] dst) {
+		ByteBuffer view = segment(position).duplicate().order(segments[0].order());
+		view.position(offset(position));
+		view.asFloatBuffer().get(dst);
+	}
+}
@@ -0,0 +1,111 @@
+package word2vec.lite.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * {@link ReadableByteChannel} which reads ahead from another channel on a thread of its own
+ * <p>
+ * Reading a compressed stream spends most of its time decompressing, so reading ahead lets decompressing and
+ * decoding the data run concurrently.  Chunks read ahead are recycled, so at most a few of them are allocated.
+ * Closing this stops the thread, but doesn't close the underlying channel.
+ */
+public final class PrefetchingChannel implements ReadableByteChannel {
+	/** Marks the end of the underlying channel */
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	private final ReadableByteChannel source;
+	private final BlockingQueue<ByteBuffer> full;
+	private final BlockingQueue<ByteBuffer> empty;
+	/** Error of the thread, set before {@link #END} is queued */
+	private volatile Exception error;
+	private volatile boolean open = true;
+	private ByteBuffer current;
+
+	/**
+	 * Starts reading ahead from the given channel
+	 * @param chunkSize Size of the chunks read at a time
+	 * @param numChunks Number of chunks read ahead, at least 1
+	 */
+	public PrefetchingChannel(ReadableByteChannel source, int chunkSize, int numChunks) {
+		Preconditions.checkArgument(chunkSize > 0 && numChunks > 0, "Value must be positive");
+		this.source = source;
+		// Room for every chunk and END, so that END is never dropped when the reader holds no chunk
+		this.full = new ArrayBlockingQueue<>(numChunks + 2);
+		this.empty = new ArrayBlockingQueue<>(numChunks + 1);
+		for (int i = 0; i <= numChunks; i++)
+			empty.add(ByteBuffer.allocate(chunkSize));
+		// Decompressing is CPU-bound, so this runs on a platform thread rather than on a virtual one
+		Threads.daemonThreadFactory("word2vec-prefetch-%d").newThread(new Runnable() {
+			@Override public void run() {
+				prefetch();
+			}
+		}).start();
+	}
+
+	private void prefetch() {
+		try {
+			int n = 0;
+			while (open && n >= 0) {
+				ByteBuffer chunk = empty.take();
+				chunk.clear();
+				while (chunk.hasRemaining() && (n = source.read(chunk)) >= 0) { }
+				chunk.flip();
+				if (chunk.hasRemaining())
+					full.put(chunk);
+			}
+		} catch (IOException | RuntimeException e) {
+			error = e;
+		} catch (InterruptedException e) {
+			return;
+		}
+		full.offer(END);
+	}
+
+	@Override public int read(ByteBuffer dst) throws IOException {
+		Preconditions.checkState(open, "Channel is closed");
+		if (current == END)
+			return -1;
+		try {
+			if (current == null || !current.hasRemaining()) {
+				if (current != null)
+					empty.put(current);
+				current = full.take();
+				if (current == END) {
+					if (error != null) {
+						Throwables.propagateIfPossible(error, IOException.class);
+						throw new IOException("Error reading ahead", error);
+					}
+					return -1;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading ahead");
+		}
+		int n = Math.min(dst.remaining(), current.remaining());
+		int limit = current.limit();
+		current.limit(current.position() + n);
+		dst.put(current);
+		current.limit(limit);
+		return n;
+	}
+
+	@Override public boolean isOpen() {
+		return open;
+	}
+
+	/** Stops the thread after its current read, without interrupting it, which would close the underlying channel */
+	@Override public void close() {
+		open = false;
+		full.clear();
+		empty.offer(ByteBuffer.allocate(1));
+	}
+}
@@ -0,0 +1,39 @@
+package word2vec.lite.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/** Utilities for creating threads */
+public class Threads {
+	/** Factory of virtual threads, or null if the JVM doesn't support them */
+	private static final ThreadFactory VIRTUAL_THREAD_FACTORY = virtualThreadFactory();
+
+	/** @return {@link ThreadFactory} for daemon platform threads named with the given format, e.g. for CPU-bound work */
+	public static ThreadFactory daemonThreadFactory(String nameFormat) {
+		return new ThreadFactoryBuilder().setDaemon(true).setNameFormat(nameFormat).build();
+	}
+
+	/**
+	 * @return {@link ThreadFactory} for threads that mostly block on I/O, named with the given format: virtual threads
+	 * where the JVM supports them, daemon platform threads otherwise
+	 */
+	public static ThreadFactory ioThreadFactory(String nameFormat) {
+		if (VIRTUAL_THREAD_FACTORY == null)
+			return daemonThreadFactory(nameFormat);
+		return new ThreadFactoryBuilder().setThreadFactory(VIRTUAL_THREAD_FACTORY).setNameFormat(nameFormat).build();
+	}
+
+	/** @return <code>Thread.ofVirtual().factory()</code>, looked up reflectively so that this compiles and runs on older JVMs */
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Object builder = ofVirtual.invoke(null);
+			Method factory = ofVirtual.getReturnType().getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+}
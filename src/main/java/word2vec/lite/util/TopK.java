@@ -0,0 +1,97 @@
+package word2vec.lite.util;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps the k ids with the highest scores offered, in a min-heap of primitives
+ * <p>
+ * Used by searchers that scan many rows, so that only the best candidates are turned into objects.
+ */
+public final class TopK {
+	private final int k;
+	private final int[] ids;
+	private final double[] scores;
+	private int size;
+
+	/** @param k Number of ids to keep */
+	public TopK(int k) {
+		Preconditions.checkArgument(k >= 0, "Value must be non-negative");
+		this.k = k;
+		this.ids = new int[k];
+		this.scores = new double[k];
+	}
+
+	/** @return Lowest score kept once k ids are kept, so that lower scores can be skipped, negative infinity before */
+	public double threshold() {
+		return size < k ? Double.NEGATIVE_INFINITY : scores[0];
+	}
+
+	/** Offers the given id with the given score */
+	public void offer(int id, double score) {
+		if (size < k) {
+			ids[size] = id;
+			scores[size] = score;
+			siftUp(size++);
+		} else if (k > 0 && score > scores[0]) {
+			ids[0] = id;
+			scores[0] = score;
+			siftDown(0);
+		}
+	}
+
+	/** Offers all of the ids kept by the given {@link TopK} */
+	public void offerAll(TopK other) {
+		for (int i = 0; i < other.size; i++)
+			offer(other.ids[i], other.scores[i]);
+	}
+
+	/** @return Number of ids kept */
+	public int size() {
+		return size;
+	}
+
+	/** Removes the ids kept, sorting them by score descending into the given arrays of at least {@link #size()} */
+	public void drainDescending(int[] idsOut, double[] scoresOut) {
+		for (int i = size - 1; i >= 0; i--) {
+			idsOut[i] = ids[0];
+			scoresOut[i] = scores[0];
+			size--;
+			ids[0] = ids[size];
+			scores[0] = scores[size];
+			siftDown(0);
+		}
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (scores[parent] <= scores[i])
+				return;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size)
+				return;
+			if (child + 1 < size && scores[child + 1] < scores[child])
+				child++;
+			if (scores[i] <= scores[child])
+				return;
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int id = ids[i];
+		ids[i] = ids[j];
+		ids[j] = id;
+		double score = scores[i];
+		scores[i] = scores[j];
+		scores[j] = score;
+	}
+}
@@ -0,0 +1,80 @@
+package word2vec.lite.util;
+
+import com.google.common.base.Charsets;
+
+import java.nio.ByteBuffer;
+
+/** Static utility functions for words stored as UTF-8 bytes */
+public final class Utf8 {
+	private Utf8() { }
+
+	/** @return UTF-8 bytes of the given word */
+	public static byte[] encode(CharSequence word) {
+		return word.toString().getBytes(Charsets.UTF_8);
+	}
+
+	/**
+	 * @return Number of bytes of the UTF-8 encoding of the given word, without encoding it.  Unpaired surrogates
+	 * count as the single byte they are replaced with, like {@link String#getBytes(java.nio.charset.Charset)} does.
+	 */
+	public static int length(CharSequence word) {
+		int length = 0;
+		for (int i = 0; i < word.length(); i++) {
+			char c = word.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < word.length() && Character.isLowSurrogate(word.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				length++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/** @return Word decoded from length UTF-8 bytes of the given buffer starting at the given index */
+	public static String decode(ByteBuffer buffer, int index, int length) {
+		if (buffer.hasArray())
+			return new String(buffer.array(), buffer.arrayOffset() + index, length, Charsets.UTF_8);
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = buffer.get(index + i);
+		return new String(bytes, Charsets.UTF_8);
+	}
+
+	/** @return 32 bit FNV-1a hash of the given bytes, so that persisted hash tables are stable across runs */
+	public static int hash(byte[] bytes, int from, int to) {
+		int hash = 0x811C_9DC5;
+		for (int i = from; i < to; i++) {
+			hash ^= bytes[i] & 0xFF;
+			hash *= 0x0100_0193;
+		}
+		return hash;
+	}
+
+	/** @return {@link #hash(byte[], int, int)} of length bytes of the given buffer starting at the given index */
+	public static int hash(ByteBuffer buffer, int index, int length) {
+		int hash = 0x811C_9DC5;
+		for (int i = index; i < index + length; i++) {
+			hash ^= buffer.get(i) & 0xFF;
+			hash *= 0x0100_0193;
+		}
+		return hash;
+	}
+
+	/** @return true if length bytes of the given buffer starting at the given index equal the given bytes */
+	public static boolean equals(ByteBuffer buffer, int index, int length, byte[] bytes) {
+		if (length != bytes.length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (buffer.get(index + i) != bytes[i])
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,51 @@
+package word2vec.lite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import word2vec.lite.Word2VecTrainerBuilder.TrainingProgressListener;
+import word2vec.lite.Word2VecTrainerBuilder.TrainingProgressListener.Stage;
+
+/**
+ * Tests for {@link AsyncProgressDispatcher}
+ */
+public class AsyncProgressDispatcherTest {
+	/**
+	 * Test that a slow listener gets coalesced updates at most at the maximum rate, and that the
+	 * last update is delivered when the dispatcher is closed
+	 */
+	@Test
+	public void testCoalescesUpdates() throws InterruptedException {
+		final List<Double> delivered = new CopyOnWriteArrayList<>();
+		TrainingProgressListener slow = new TrainingProgressListener() {
+			@Override public void update(Stage stage, double progress) {
+				delivered.add(progress);
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+
+		long start = System.nanoTime();
+		try (AsyncProgressDispatcher dispatcher = new AsyncProgressDispatcher(slow, 10)) {
+			for (int i = 1; i <= 1000; i++) {
+				dispatcher.update(Stage.TRAIN_NEURAL_NETWORK, i / 1000.0);
+				Thread.sleep(1);
+			}
+		}
+		double seconds = (System.nanoTime() - start) / (double)TimeUnit.SECONDS.toNanos(1);
+
+		// One update per interval of 100ms, plus the first one and the final one on close
+		assertTrue("Delivered " + delivered.size() + " updates in " + seconds + "s", delivered.size() <= seconds * 10 + 2);
+		assertTrue(delivered.size() >= 2);
+		assertEquals(1.0, delivered.get(delivered.size() - 1), 0);
+	}
+}
@@ -0,0 +1,56 @@
+package word2vec.lite;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultiset;
+
+/**
+ * Tests for {@link VocabFiles}
+ */
+public class VocabFilesTest {
+	private static final ImmutableMultiset<String> VOCAB = ImmutableMultiset.<String>builder()
+			.addCopies("the", 12)
+			.addCopies("of", 7)
+			.addCopies("naïve", 3)
+			.build();
+
+	/** Test that the text and binary formats preserve the tokens, their counts and their order */
+	@Test
+	public void testRoundTrip() throws IOException {
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		VocabFiles.writeText(VOCAB, text);
+		assertVocabEquals(VocabFiles.read(new ByteArrayInputStream(text.toByteArray())));
+
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		VocabFiles.writeBinary(VOCAB, binary);
+		assertVocabEquals(VocabFiles.read(new ByteArrayInputStream(binary.toByteArray())));
+	}
+
+	/** Test that the injected end of sentence token of the C version is skipped */
+	@Test
+	public void testReadCFormat() throws IOException {
+		byte[] c = "</s> 0\nthe 12\nof 7\nnaïve 3\n".getBytes(Charsets.UTF_8);
+		assertVocabEquals(VocabFiles.read(new ByteArrayInputStream(c)));
+	}
+
+	/** Test that counts of the C version that don't fit in an int saturate */
+	@Test
+	public void testReadLargeCount() throws IOException {
+		byte[] c = "the 5000000000\nof 7\n".getBytes(Charsets.UTF_8);
+		ImmutableMultiset<String> vocab = VocabFiles.read(new ByteArrayInputStream(c));
+		assertEquals(Integer.MAX_VALUE, vocab.count("the"));
+		assertEquals(7, vocab.count("of"));
+	}
+
+	private static void assertVocabEquals(ImmutableMultiset<String> actual) {
+		assertEquals(ImmutableList.copyOf(VOCAB.entrySet()), ImmutableList.copyOf(actual.entrySet()));
+	}
+}
@@ -0,0 +1,70 @@
+package word2vec.lite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+/**
+ * Tests for {@link Word2Phrase}
+ */
+public class Word2PhraseTest {
+	/** 50 tokens in which every bigram and each of its tokens occur 10 times, so each bigram scores 10 / 10 / 10 * 50 = 5 */
+	private static final Iterable<List<String>> CORPUS = Iterables.concat(
+			Collections.<List<String>>nCopies(10, ImmutableList.of("new", "york", "city")),
+			Collections.<List<String>>nCopies(10, ImmutableList.of("big", "apple")));
+
+	/** Test that a pair scoring above the threshold is joined, and that its second token doesn't start another phrase */
+	@Test
+	public void testApply() throws InterruptedException {
+		Word2Phrase phrases = builder().setThreshold(4).learn(CORPUS);
+
+		assertEquals(3, phrases.size());
+		assertEquals(ImmutableList.of("big_apple"), phrases.apply(ImmutableList.of("big", "apple")));
+		assertEquals(ImmutableList.of("new_york", "city"), phrases.apply(ImmutableList.of("new", "york", "city")));
+		assertEquals(ImmutableList.of("york_city", "big"), phrases.apply(ImmutableList.of("york", "city", "big")));
+	}
+
+	/** Test that no pair is joined with a threshold above its score */
+	@Test
+	public void testThreshold() throws InterruptedException {
+		Word2Phrase phrases = builder().setThreshold(6).learn(CORPUS);
+
+		assertEquals(0, phrases.size());
+		assertEquals(ImmutableList.of("big", "apple"), phrases.apply(ImmutableList.of("big", "apple")));
+	}
+
+	/** Test that no pair is joined when its tokens occur less than the minimum count */
+	@Test
+	public void testMinCount() throws InterruptedException {
+		Word2Phrase phrases = builder().setThreshold(4).setMinCount(11).learn(CORPUS);
+
+		assertEquals(0, phrases.size());
+	}
+
+	/** Test that the tokens of a pair stay apart when they contain spaces */
+	@Test
+	public void testTokensWithSpaces() throws InterruptedException {
+		Word2Phrase phrases = builder()
+				.setThreshold(0)
+				.learn(Collections.<List<String>>nCopies(10, ImmutableList.of("a b", "c")));
+
+		assertTrue(phrases.isPhrase("a b", "c"));
+		assertFalse(phrases.isPhrase("a", "b c"));
+	}
+
+	/** @return {@link Word2PhraseBuilder} without discount, which counts on a single thread */
+	private static Word2PhraseBuilder builder() {
+		return Word2Phrase.builder()
+				.setMinCount(1)
+				.setDelta(0)
+				.useNumThreads(1);
+	}
+}
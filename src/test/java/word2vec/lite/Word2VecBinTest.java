@@ -1,17 +1,32 @@
 package word2vec.lite;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
 import word2vec.lite.util.Common;
+import word2vec.lite.util.HalfFloat;
+import word2vec.lite.util.IO;
 
 /**
  * Tests converting the binary models into
@@ -22,6 +37,22 @@ import word2vec.lite.util.Common;
  *      java.nio.ByteOrder)
  */
 public class Word2VecBinTest {
+  private File binFile;
+  /** The same model as {@link #binFile}, in the text format of the C version */
+  private File txtFile;
+  /** Model read from {@link #binFile} before each test, which a test may modify */
+  private Word2VecModel model;
+
+  @Before
+  public void readModel() throws IOException {
+    binFile = Common.getResourceAsFile(
+            this.getClass(),
+            "/word2vec/lite/tokensModel.bin");
+    txtFile = Common.getResourceAsFile(
+            this.getClass(),
+            "/word2vec/lite/tokensModel.txt");
+    model = Word2VecModel.fromBinFile(binFile);
+  }
 
   /**
    * Tests that the Word2VecModels created from a binary and text
@@ -38,6 +69,349 @@ public class Word2VecBinTest {
 
   }
 
+  /**
+   * Tests that text files are written byte for byte like the C version, and
+   * that files without a header line, like GloVe's, are read back
+   */
+  @Test
+  public void testTextRoundTrip()
+      throws IOException
+  {
+    tempFile = Files.createTempFile("tokensModel", ".txt");
+
+    model.toTextFile(tempFile.toFile());
+    assertTrue(Arrays.equals(Files.readAllBytes(txtFile.toPath()), Files.readAllBytes(tempFile)));
+
+    TextFiles.write(model, tempFile.toFile(), false, 3);
+    Word2VecModel glove = TextFiles.read(tempFile.toFile(), 3);
+    assertEquals(ImmutableList.copyOf(model.getVocab()), ImmutableList.copyOf(glove.getVocab()));
+    assertVectorsEqual(model.getVectors(), glove.getVectors(), 1e-6);
+  }
+
+  /**
+   * Tests that the Word2VecModels read from the binary and text
+   * representations of the same model are equivalent
+   */
+  @Test
+  public void testTextMatchesBin()
+      throws IOException
+  {
+    Word2VecModel txtModel = Word2VecModel.fromTextFile(txtFile);
+
+    assertEquals(ImmutableList.copyOf(model.getVocab()), ImmutableList.copyOf(txtModel.getVocab()));
+    assertVectorsEqual(model.getVectors(), txtModel.getVectors(), 1e-6);
+  }
+
+  private static void assertVectorsEqual(float[][] expected, float[][] actual, double delta) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i].length, actual[i].length);
+      for (int j = 0; j < expected[i].length; j++)
+        assertEquals(expected[i][j], actual[i][j], delta);
+    }
+  }
+
+  /**
+   * Tests that models read from plain and gzipped streams are the same as the
+   * model read from the file
+   */
+  @Test
+  public void testStream()
+      throws IOException
+  {
+    byte[] bytes = Files.readAllBytes(binFile.toPath());
+
+    for (byte[] stream : ImmutableList.of(bytes, IO.gzip(bytes))) {
+      Word2VecModel streamed = Word2VecModel.fromBinFile(new ByteArrayInputStream(stream));
+      assertEquals(ImmutableList.copyOf(model.getVocab()), ImmutableList.copyOf(streamed.getVocab()));
+      assertTrue(Arrays.deepEquals(model.getVectors(), streamed.getVectors()));
+    }
+  }
+
+  /**
+   * Tests reading only the first records or the records of given words
+   */
+  @Test
+  public void testPartial()
+      throws IOException
+  {
+    List<String> vocab = ImmutableList.copyOf(model.getVocab());
+
+    Word2VecModel first = Word2VecModel.fromBinFile(binFile, ByteOrder.LITTLE_ENDIAN, 100);
+    assertEquals(vocab.subList(0, 100), ImmutableList.copyOf(first.getVocab()));
+    assertTrue(Arrays.equals(model.getVectors()[99], first.getVectors()[99]));
+
+    Word2VecModel filtered = Word2VecModel.fromBinFile(binFile, ByteOrder.LITTLE_ENDIAN,
+        ImmutableList.of("the", vocab.get(1000), "not a word", vocab.get(3)));
+    assertEquals(ImmutableList.of(vocab.get(3), "the", vocab.get(1000)), ImmutableList.copyOf(filtered.getVocab()));
+    assertTrue(Arrays.equals(model.getVectors()[1000], filtered.getVectors()[2]));
+  }
+
+  /**
+   * Tests converting files between formats without reading the whole model,
+   * giving the same files as converting the whole model
+   */
+  @Test
+  public void testConvert()
+      throws IOException
+  {
+    List<String> vocab = ImmutableList.copyOf(model.getVocab());
+    tempFile = Files.createTempFile("tokensModel", ".out");
+    File out = tempFile.toFile();
+    File expected = File.createTempFile("tokensModel", ".expected");
+    try {
+      assertEquals(1186, Word2VecModel.converter().convert(binFile, ModelConverterBuilder.Format.BIN, out, ModelConverterBuilder.Format.TEXT));
+      assertTrue(Arrays.equals(Files.readAllBytes(txtFile.toPath()), Files.readAllBytes(tempFile)));
+
+      byte[] gzipped = IO.gzip(Files.readAllBytes(binFile.toPath()));
+      Word2VecModel.converter().useNumThreads(3).convert(new ByteArrayInputStream(gzipped), ModelConverterBuilder.Format.BIN, out, ModelConverterBuilder.Format.BIN);
+      assertTrue(Arrays.equals(Files.readAllBytes(binFile.toPath()), Files.readAllBytes(tempFile)));
+
+      Word2VecModel.converter().setMaxWords(100).normalize().convert(binFile, ModelConverterBuilder.Format.BIN, out, ModelConverterBuilder.Format.BIN);
+      Word2VecModel first = Word2VecModel.fromBinFile(out);
+      assertEquals(vocab.subList(0, 100), ImmutableList.copyOf(first.getVocab()));
+      Word2VecModel normalized = Word2VecModel.fromBinFile(binFile, ByteOrder.LITTLE_ENDIAN, 100);
+      normalized.normalize();
+      assertTrue(Arrays.deepEquals(normalized.getVectors(), first.getVectors()));
+
+      // The number of words of GloVe files is unknown, so the header line is padded
+      TextFiles.write(model, expected, false, 3);
+      Word2VecModel.converter().setWords(ImmutableList.of("the", vocab.get(1000), "not a word", vocab.get(3)))
+          .convert(expected, ModelConverterBuilder.Format.GLOVE, out, ModelConverterBuilder.Format.BIN);
+      Word2VecModel filtered = Word2VecModel.fromBinFile(out);
+      assertEquals(ImmutableList.of(vocab.get(3), "the", vocab.get(1000)), ImmutableList.copyOf(filtered.getVocab()));
+      assertVectorsEqual(new float[][] { model.getVectors()[1000] }, new float[][] { filtered.getVectors()[2] }, 1e-6);
+
+      Word2VecModel.converter().convert(binFile, ModelConverterBuilder.Format.BIN, out, ModelConverterBuilder.Format.HALF);
+      HalfWord2VecModel.of(model, HalfFloat.FLOAT16).toFile(expected);
+      assertTrue(Arrays.equals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(tempFile)));
+
+      Word2VecModel.converter().convert(binFile, ModelConverterBuilder.Format.BIN, out, ModelConverterBuilder.Format.QUANTIZED);
+      QuantizedWord2VecModel.quantize(model).toFile(expected);
+      assertTrue(Arrays.equals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(tempFile)));
+    } finally {
+      expected.delete();
+    }
+  }
+
+  /**
+   * Tests that a {@link MappedWord2VecModel} finds the same matches as the
+   * {@link Word2VecModel} read from the same file
+   */
+  @Test
+  public void testMapped()
+      throws IOException, Searcher.UnknownWordException
+  {
+    tempFile = Files.createTempFile("tokensModel", ".idx");
+    MappedWord2VecModel mappedModel = MappedWord2VecModel.open(binFile, tempFile.toFile(), ByteOrder.LITTLE_ENDIAN);
+    Searcher expected = model.forSearch();
+    Searcher actual = mappedModel.forSearch();
+
+    assertEquals(1186, mappedModel.getVocabSize());
+    for (String word : mappedModel.getVocab()) {
+      assertTrue(actual.contains(word));
+      assertEquals(expected.cosineDistance(word, "the"), actual.cosineDistance(word, "the"), 1e-6);
+    }
+    assertEquals(
+        Lists.transform(expected.getMatches("of", 10), Searcher.Match.TO_WORD),
+        Lists.transform(actual.getMatches("of", 10), Searcher.Match.TO_WORD));
+    assertEquals(1186, expected.getMatches("of", Integer.MAX_VALUE).size());
+    assertEquals(1186, actual.getMatches("of", Integer.MAX_VALUE).size());
+    assertTrue(!actual.contains("not a word"));
+  }
+
+  /**
+   * Tests that words with multi-byte UTF-8 characters survive a round trip
+   * through the binary format
+   */
+  @Test
+  public void testUtf8RoundTrip()
+      throws IOException
+  {
+    List<String> vocab = ImmutableList.of("caf\u00e9", "\u00fcber", "\u65e5\u672c");
+    float[][] vectors = { { 1, 2 }, { 3, 4 }, { 5, 6 } };
+    tempFile = Files.createTempFile("utf8Model", ".bin");
+    try (OutputStream out = Files.newOutputStream(tempFile)) {
+      new Word2VecModel(vocab, vectors).toBinFile(out);
+    }
+
+    Word2VecModel model = Word2VecModel.fromBinFile(tempFile.toFile());
+    assertEquals(vocab, ImmutableList.copyOf(model.getVocab()));
+    assertEquals(6, model.getVectors()[2][1], 0);
+  }
+
+  /**
+   * Tests that a model converted to an {@link IndexedWord2VecModel} finds the
+   * same matches, and converts back to the same binary file
+   */
+  @Test
+  public void testIndexedRoundTrip()
+      throws IOException, Searcher.UnknownWordException
+  {
+    tempFile = Files.createTempFile("tokensModel", ".w2v");
+    IndexedWord2VecModel.fromBinFile(binFile, ByteOrder.LITTLE_ENDIAN, tempFile.toFile());
+    IndexedWord2VecModel indexedModel = IndexedWord2VecModel.open(tempFile.toFile());
+    Searcher expected = model.forSearch();
+    Searcher actual = indexedModel.forSearch();
+
+    assertEquals(1186, indexedModel.getVocabSize());
+    for (String word : indexedModel.getVocab())
+      assertEquals(expected.cosineDistance(word, "the"), actual.cosineDistance(word, "the"), 1e-6);
+    assertEquals(
+        Lists.transform(expected.getMatches("of", 10), Searcher.Match.TO_WORD),
+        Lists.transform(actual.getMatches("of", 10), Searcher.Match.TO_WORD));
+    assertTrue(!actual.contains("not a word"));
+
+    File copy = File.createTempFile("tokensModel", ".bin");
+    try {
+      indexedModel.toBinFile(copy);
+      assertTrue(Arrays.equals(Files.readAllBytes(binFile.toPath()), Files.readAllBytes(copy.toPath())));
+    } finally {
+      copy.delete();
+    }
+  }
+
+  /**
+   * Tests that a {@link QuantizedWord2VecModel} survives a round trip through
+   * its file format, and that reranking finds the same matches as the
+   * {@link Word2VecModel} it was quantized from
+   */
+  @Test
+  public void testQuantized()
+      throws IOException, Searcher.UnknownWordException
+  {
+    tempFile = Files.createTempFile("tokensModel", ".w2vq");
+    QuantizedWord2VecModel.quantize(model).toFile(tempFile.toFile());
+    QuantizedWord2VecModel quantizedModel = QuantizedWord2VecModel.fromFile(tempFile.toFile());
+    Searcher expected = model.forSearch();
+
+    Searcher quantized = quantizedModel.forSearch();
+    assertEquals(expected.cosineDistance("of", "the"), quantized.cosineDistance("of", "the"), 1e-2);
+    assertEquals(10, quantized.getMatches("of", 10).size());
+    assertEquals(1186, quantized.getMatches("of", Integer.MAX_VALUE).size());
+    try {
+      QuantizedWord2VecModel.fromFile(withHugeSizes(tempFile, 8, 12));
+      fail("Expected the sizes to be rejected");
+    } catch (IllegalStateException expectedException) {
+      // vocabSize * layerSize overflows an int
+    }
+
+    // The vectors of this small model are too close to each other for the
+    // quantized ranking alone to find the exact matches, so rerank them all
+    Searcher reranked = quantizedModel.forSearch(model, 1186);
+    assertEquals(
+        Lists.transform(expected.getMatches("of", 10), Searcher.Match.TO_WORD),
+        Lists.transform(reranked.getMatches("of", 10), Searcher.Match.TO_WORD));
+    assertEquals(1186, reranked.getMatches("of", Integer.MAX_VALUE).size());
+  }
+
+  /**
+   * Tests that a {@link ProductQuantizedWord2VecModel} survives a round trip
+   * through its file format, and that reranking finds the same matches as the
+   * {@link Word2VecModel} it was quantized from
+   */
+  @Test
+  public void testProductQuantized()
+      throws IOException, InterruptedException, Searcher.UnknownWordException
+  {
+    tempFile = Files.createTempFile("tokensModel", ".w2vp");
+    ProductQuantizedWord2VecModel.builder()
+        .setNumSubspaces(10)
+        .setNumCentroids(16)
+        .setIterations(5)
+        .quantize(model)
+        .toFile(tempFile.toFile());
+    ProductQuantizedWord2VecModel quantizedModel = ProductQuantizedWord2VecModel.fromFile(tempFile.toFile());
+    Searcher expected = model.forSearch();
+
+    assertEquals(10, quantizedModel.getNumSubspaces());
+    assertEquals(10, quantizedModel.forSearch().getMatches("of", 10).size());
+    assertEquals(1186, quantizedModel.forSearch().getMatches("of", Integer.MAX_VALUE).size());
+    try {
+      ProductQuantizedWord2VecModel.fromFile(withHugeSizes(tempFile, 8, 12, 16));
+      fail("Expected the sizes to be rejected");
+    } catch (IllegalStateException expectedException) {
+      // vocabSize * numSubspaces overflows an int
+    }
+    Searcher reranked = quantizedModel.forSearch(model, 1186);
+    assertEquals(
+        Lists.transform(expected.getMatches("of", 10), Searcher.Match.TO_WORD),
+        Lists.transform(reranked.getMatches("of", 10), Searcher.Match.TO_WORD));
+  }
+
+  /**
+   * Tests that a {@link HalfWord2VecModel} survives a round trip through its
+   * file format in each {@link HalfFloat} format, with similarities close to
+   * those of the {@link Word2VecModel} it was made from
+   */
+  @Test
+  public void testHalf()
+      throws IOException, Searcher.UnknownWordException
+  {
+    Searcher expected = model.forSearch();
+    tempFile = Files.createTempFile("tokensModel", ".w2vh");
+    for (HalfFloat format : HalfFloat.values()) {
+      HalfWord2VecModel.of(model, format).toFile(tempFile.toFile());
+      HalfWord2VecModel halfModel = HalfWord2VecModel.fromFile(tempFile.toFile());
+      Searcher actual = halfModel.forSearch();
+
+      assertEquals(format, halfModel.getFormat());
+      assertEquals(ImmutableList.copyOf(model.getVocab()), ImmutableList.copyOf(halfModel.getVocab()));
+      assertEquals(expected.cosineDistance("of", "the"), actual.cosineDistance("of", "the"), 1e-2);
+      assertEquals(10, actual.getMatches("of", 10).size());
+      assertEquals(1186, actual.getMatches("of", Integer.MAX_VALUE).size());
+    }
+    try {
+      HalfWord2VecModel.fromFile(withHugeSizes(tempFile, 8, 12));
+      fail("Expected the sizes to be rejected");
+    } catch (IllegalStateException expectedException) {
+      // vocabSize * layerSize overflows an int
+    }
+  }
+
+  /**
+   * Tests looking words up in the {@link Vocabulary} by chars and by UTF-8
+   * bytes, and that it is shared by the models made from a model
+   */
+  @Test
+  public void testVocabulary()
+      throws IOException
+  {
+    Vocabulary vocab = model.getVocab();
+    for (int i = 0; i < vocab.size(); i++) {
+      String word = vocab.get(i);
+      byte[] bytes = ("[" + word + "]").getBytes(Charsets.UTF_8);
+      assertEquals(i, vocab.row(word));
+      assertEquals(i, vocab.row(new StringBuilder(word)));
+      assertEquals(i, vocab.row(bytes, 1, bytes.length - 2));
+    }
+    assertEquals(-1, vocab.row("not-a-word"));
+    assertTrue(vocab.contains("protein"));
+    assertSame(vocab, QuantizedWord2VecModel.quantize(model).getVocab());
+    assertSame(vocab, HalfWord2VecModel.of(model, HalfFloat.FLOAT16).getVocab());
+
+    Vocabulary unicode = Vocabulary.copyOf(ImmutableList.of("caf\u00e9", "\u6587\u5b57", "\ud83d\ude00", "cafe", "cafe"));
+    assertEquals(ImmutableList.of("caf\u00e9", "\u6587\u5b57", "\ud83d\ude00", "cafe", "cafe"), unicode);
+    assertEquals(0, unicode.row("caf\u00e9"));
+    assertEquals(2, unicode.row("\ud83d\ude00"));
+    assertEquals(3, unicode.row("cafe"));
+    assertEquals(-1, unicode.row("caf"));
+  }
+
+  /**
+   * @return The bytes of the given model file with 2^20 written at each of the
+   *         given offsets of its header, so that the product of those sizes
+   *         overflows an int
+   */
+  private static ByteArrayInputStream withHugeSizes(Path file, int... offsets)
+      throws IOException
+  {
+    ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+    for (int offset : offsets)
+      bytes.putInt(offset, 1 << 20);
+    return new ByteArrayInputStream(bytes.array());
+  }
+
   private Path tempFile = null;
 
   @After
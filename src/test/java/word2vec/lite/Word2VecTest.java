@@ -1,14 +1,42 @@
 package word2vec.lite;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.junit.After;
 import org.junit.Rule;
+import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import word2vec.lite.Searcher.UnknownWordException;
+import word2vec.lite.Word2VecTrainerBuilder.TrainingMetricsListener;
+import word2vec.lite.Word2VecTrainerBuilder.TrainingProgressListener.Stage;
+import word2vec.lite.neuralnetwork.EarlyStoppingPolicy;
 import word2vec.lite.neuralnetwork.NeuralNetworkType;
+import word2vec.lite.neuralnetwork.Optimizer;
+import word2vec.lite.neuralnetwork.TrainingMetrics;
+import word2vec.lite.util.Common;
+import word2vec.lite.util.HalfFloat;
 
 /**
  * Tests for {@link Word2VecModel} and related classes.
@@ -19,6 +47,8 @@ import word2vec.lite.neuralnetwork.NeuralNetworkType;
 public class Word2VecTest {
 	@Rule
 	public ExpectedException expected = ExpectedException.none();
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
 
 	/** Clean up after a test run */
 	@After
@@ -192,6 +222,340 @@ public class Word2VecTest {
     }*/
 
 
+	/** 
+	 * Test that {@link NeuralNetworkType#SKIP_GRAM} with negative sampling trains the word vectors, i.e. that
+	 * they move away from the initial weights they keep with a learning rate of 0
+	 */
+	@Test
+	public void testSkipGramNegativeSamplingTrainsVectors() throws IOException, InterruptedException {
+		float[][] initial = negativeSamplingTrainer()
+			.setInitialLearningRate(0)
+			.train(testData())
+			.getVectors();
+		float[][] trained = negativeSamplingTrainer()
+			.train(testData())
+			.getVectors();
+
+		assertEquals(initial.length, trained.length);
+		for (int i = 0; i < initial.length; i++)
+			assertFalse("Vector " + i + " was not trained", Arrays.equals(initial[i], trained[i]));
+	}
+
+	/** 
+	 * Test that the initial weights, which are all that a learning rate of 0 leaves, don't depend on the
+	 * number of threads that initialize them
+	 */
+	@Test
+	public void testInitializationIndependentOfThreads() throws IOException, InterruptedException {
+		Word2VecModel single = trainer()
+			.setInitialLearningRate(0)
+			.train(testData());
+		Word2VecModel parallel = trainer()
+			.setInitialLearningRate(0)
+			.useNumThreads(3)
+			.train(testData());
+
+		assertEquals(ImmutableList.copyOf(single.getVocab()), ImmutableList.copyOf(parallel.getVocab()));
+		assertTrue(Arrays.deepEquals(single.getVectors(), parallel.getVectors()));
+	}
+
+	/** Test that {@link TrainingHandle} reports the progress and takes snapshots while training asynchronously */
+	@Test
+	public void testTrainAsync() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+		TrainingHandle handle = trainer()
+			.setNumIterations(20)
+			.trainAsync(testData());
+		Optional<Word2VecModel> snapshot = handle.snapshot();
+		while (!snapshot.isPresent() && !handle.isDone()) {
+			Thread.sleep(10);
+			snapshot = handle.snapshot();
+		}
+		double progress = handle.getProgress();
+		Word2VecModel model = handle.get(1, TimeUnit.MINUTES);
+
+		assertTrue("No snapshot was taken", snapshot.isPresent());
+		assertTrue("Progress " + progress, progress >= 0 && progress <= 1);
+		assertEquals(Stage.TRAIN_NEURAL_NETWORK, handle.getStage());
+		assertEquals(ImmutableList.copyOf(model.getVocab()), ImmutableList.copyOf(snapshot.get().getVocab()));
+		assertEquals(model.getVectors()[0].length, snapshot.get().getVectors()[0].length);
+	}
+
+	/** Test that cancelling a {@link TrainingHandle} stops the training */
+	@Test
+	public void testCancelTrainAsync() throws IOException, InterruptedException {
+		TrainingHandle handle = trainer()
+			.setNumIterations(1000)
+			.trainAsync(testData());
+		while (handle.getStage() != Stage.TRAIN_NEURAL_NETWORK)
+			Thread.sleep(10);
+
+		assertTrue(handle.cancel(true));
+		assertTrue(handle.isCancelled());
+		assertFalse(handle.snapshot().isPresent());
+		// The driver thread stops the workers, then ends
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (hasThreadNamed("word2vec-train-")) {
+			assertTrue("Training wasn't stopped", System.nanoTime() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	/** Test that trainings sharing one pool give the same models as training each of them on its own */
+	@Test
+	public void testTrainAsyncOnSharedPool() throws IOException, InterruptedException, ExecutionException {
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			TrainingHandle cbow = trainer().trainAsync(testData(), pool);
+			TrainingHandle skipGram = negativeSamplingTrainer().trainAsync(testData(), pool);
+			float[][] cbowVectors = cbow.get().getVectors();
+			float[][] skipGramVectors = skipGram.get().getVectors();
+
+			assertFalse(pool.isShutdown());
+			assertTrue(Arrays.deepEquals(trainer().train(testData()).getVectors(), cbowVectors));
+			assertTrue(Arrays.deepEquals(negativeSamplingTrainer().train(testData()).getVectors(), skipGramVectors));
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/** @return true if a live thread's name starts with the given prefix */
+	private static boolean hasThreadNamed(String prefix) {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith(prefix))
+				return true;
+		}
+		return false;
+	}
+
+	/** Test that {@link Optimizer#ADAGRAD} trains different vectors than {@link Optimizer#SGD}, which are all finite */
+	@Test
+	public void testAdagrad() throws IOException, InterruptedException {
+		float[][] sgd = trainer()
+			.setOptimizer(Optimizer.SGD)
+			.train(testData())
+			.getVectors();
+		float[][] adagrad = trainer()
+			.setOptimizer(Optimizer.ADAGRAD)
+			.train(testData())
+			.getVectors();
+
+		assertFalse(Arrays.deepEquals(sgd, adagrad));
+		for (float[] vector : adagrad) {
+			for (float value : vector)
+				assertFalse("Non-finite weight " + value, Float.isNaN(value) || Float.isInfinite(value));
+		}
+	}
+
+	/** Test that a word hashed into a bucket while training resolves to the vector of its bucket */
+	@Test
+	public void testHashedBuckets() throws IOException, InterruptedException, UnknownWordException {
+		// With a single bucket, every word outside of the vocabulary resolves to the same vector
+		Searcher searcher = trainer()
+			.useHashedBuckets(50, 1)
+			.train(testData())
+			.forSearch();
+		String tailWord = null;
+		for (String word : Iterables.concat(testData())) {
+			if (!searcher.contains(word)) {
+				tailWord = word;
+				break;
+			}
+		}
+
+		assertTrue(tailWord != null);
+		assertArrayEquals(searcher.getRawVector(tailWord), searcher.getRawVector("unseenword"), 0);
+	}
+
+	/** Test that a word that was never seen gets a vector synthesized from its character n-grams */
+	@Test
+	public void testCharNGrams() throws IOException, InterruptedException, UnknownWordException {
+		Searcher searcher = trainer()
+			.useCharNGrams(3, 6, 1000)
+			.train(testData())
+			.forSearch();
+
+		assertFalse(searcher.contains("unseenword"));
+		float[] vector = searcher.getRawVector("unseenword");
+		assertEquals(25, vector.length);
+		assertFalse(Arrays.equals(vector, searcher.getRawVector("qqqqqq")));
+	}
+
+	/** 
+	 * Test that a GloVe model trained on the co-occurrences has the filtered vocabulary, places related words
+	 * closer than unrelated ones and leaves no spilled counts behind
+	 */
+	@Test
+	public void testGlove() throws IOException, InterruptedException, UnknownWordException {
+		File tempDirectory = folder.newFolder();
+		Word2VecModel model = Word2VecModel.gloveTrainer()
+			.setMinVocabFrequency(6)
+			.useNumThreads(1)
+			.setWindowSize(8)
+			.setLayerSize(25)
+			.setTempDirectory(tempDirectory)
+			.train(testData());
+
+		assertEquals(498, model.getVocab().size());
+		assertEquals("the", model.getVocab().get(0));
+		assertEquals(25, model.getVectors()[0].length);
+		assertEquals(0, tempDirectory.list().length);
+
+		Searcher searcher = model.forSearch();
+		assertTrue(searcher.cosineDistance("two", "three") > searcher.cosineDistance("two", "autism") + 0.3);
+	}
+
+	/** Test that a sweep trains every variant as if it were trained on its own */
+	@Test
+	public void testSweepMatchesSeparateTraining() throws IOException, InterruptedException {
+		List<Word2VecModel> sweep = trainer().trainSweep(
+				ImmutableList.of(trainer(), negativeSamplingTrainer()),
+				testData());
+		List<Word2VecModel> separate = ImmutableList.of(
+				trainer().train(testData()),
+				negativeSamplingTrainer().train(testData()));
+
+		assertEquals(separate.size(), sweep.size());
+		for (int i = 0; i < separate.size(); i++) {
+			assertEquals(ImmutableList.copyOf(separate.get(i).getVocab()), ImmutableList.copyOf(sweep.get(i).getVocab()));
+			assertTrue("Variant " + i + " differs from training it separately",
+					Arrays.deepEquals(separate.get(i).getVectors(), sweep.get(i).getVectors()));
+		}
+	}
+
+	/** Test that the published metrics report the throughput, the decaying learning rate and a decreasing loss */
+	@Test
+	public void testMetrics() throws IOException, InterruptedException {
+		List<TrainingMetrics> metrics = new CopyOnWriteArrayList<>();
+		trainer()
+			.setNumIterations(5)
+			.setInitialLearningRate(0.05)
+			.setLossSampleRate(0.1)
+			.setMetricsListener(recordMetrics(metrics), 100)
+			.train(testData());
+
+		double maxWordsPerSecond = 0;
+		for (TrainingMetrics snapshot : metrics)
+			maxWordsPerSecond = Math.max(maxWordsPerSecond, snapshot.getWordsPerSecond());
+		assertTrue("No throughput was reported", maxWordsPerSecond > 0);
+
+		TrainingMetrics last = metrics.get(metrics.size() - 1);
+		assertTrue("Processed " + last.getTokensProcessed(), last.getTokensProcessed() > 0);
+		assertTrue(last.getTokensSkipped() > 0 && last.getTokensSkipped() < last.getTokensProcessed());
+		assertTrue("Alpha " + last.getAlpha(), last.getAlpha() > 0 && last.getAlpha() < 0.05);
+		assertTrue(last.getStageMillis().containsKey(Stage.TRAIN_NEURAL_NETWORK));
+
+		List<Double> losses = last.getEpochLosses();
+		assertEquals(5, losses.size());
+		for (int i = 1; i < losses.size(); i++)
+			assertTrue("Loss increased: " + losses, losses.get(i) < losses.get(i - 1));
+	}
+
+	/**
+	 * Test that output layers stored in each {@link HalfFloat} format train reproducibly, with similarities
+	 * between the most frequent words close to those trained with float output layers
+	 */
+	@Test
+	public void testHalfOutputLayers() throws IOException, InterruptedException, UnknownWordException {
+		for (Word2VecTrainerBuilder builder : ImmutableList.of(trainer(), negativeSamplingTrainer())) {
+			Word2VecModel floats = builder.train(testData());
+			List<String> words = floats.getVocab().subList(0, 50);
+			Searcher expected = floats.forSearch();
+			for (HalfFloat format : HalfFloat.values()) {
+				builder.setOutputLayerFormat(format);
+				Word2VecModel model = builder.train(testData());
+				assertTrue(format + " training isn't reproducible",
+						Arrays.deepEquals(model.getVectors(), builder.train(testData()).getVectors()));
+
+				Searcher actual = model.forSearch();
+				double sum = 0;
+				int count = 0;
+				for (int i = 0; i < words.size(); i++) {
+					for (int j = i + 1; j < words.size(); j++) {
+						double difference = Math.abs(expected.cosineDistance(words.get(i), words.get(j))
+								- actual.cosineDistance(words.get(i), words.get(j)));
+						assertTrue(format + " changed " + words.get(i) + "/" + words.get(j) + " by " + difference,
+								difference < 0.2);
+						sum += difference;
+						count++;
+					}
+				}
+				assertTrue(format + " changed similarities by " + sum / count + " on average", sum / count < 0.01);
+			}
+		}
+	}
+
+	/** Test that early stopping ends training before the configured number of iterations */
+	@Test
+	public void testEarlyStopping() throws IOException, InterruptedException {
+		AtomicReference<TrainingMetrics> metrics = new AtomicReference<>();
+		trainer()
+			.setNumIterations(20)
+			.setLossSampleRate(0.1)
+			.setEarlyStopping(EarlyStoppingPolicy.heldOutLoss(Iterables.limit(testData(), 2), 0.01))
+			.setMetricsListener(latestMetrics(metrics), 1000)
+			.train(testData());
+
+		// Convergence is first checked after the second iteration, and one last iteration anneals
+		int epochs = metrics.get().getEpochLosses().size();
+		assertTrue("Trained " + epochs + " iterations", epochs > 3 && epochs < 20);
+	}
+
+	/** 
+	 * Test that the deadline ends training soon after it passes, before the configured number of iterations,
+	 * with the learning rate annealed to the deadline
+	 */
+	@Test
+	public void testDeadline() throws IOException, InterruptedException {
+		AtomicReference<TrainingMetrics> metrics = new AtomicReference<>();
+		long start = System.nanoTime();
+		trainer()
+			.setNumIterations(1000)
+			.setInitialLearningRate(0.05)
+			.setLossSampleRate(0.1)
+			.setDeadline(3, TimeUnit.SECONDS)
+			.setMetricsListener(latestMetrics(metrics), 1000)
+			.train(testData());
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue("Trained for " + elapsedMillis + "ms", elapsedMillis >= 3000 && elapsedMillis < 4000);
+		int epochs = metrics.get().getEpochLosses().size();
+		assertTrue("Trained " + epochs + " iterations", epochs > 0 && epochs < 1000);
+		// Without rescheduling, alpha would still be close to its initial value after a few of the 1000 iterations
+		double alpha = metrics.get().getAlpha();
+		assertTrue("Alpha " + alpha, alpha < 0.05 * 0.01);
+	}
+
+	/** @return {@link Word2VecTrainer} for {@link NeuralNetworkType#SKIP_GRAM} with negative sampling only */
+	private static Word2VecTrainerBuilder negativeSamplingTrainer() {
+		return Word2VecModel.trainer()
+			.setMinVocabFrequency(6)
+			.useNumThreads(1)
+			.setWindowSize(8)
+			.type(NeuralNetworkType.SKIP_GRAM)
+			.useNegativeSamples(5)
+			.setLayerSize(25)
+			.setDownSamplingRate(1e-3)
+			.setNumIterations(1);
+	}
+
+	/** @return {@link TrainingMetricsListener} which keeps the latest {@link TrainingMetrics} in the given reference */
+	private static TrainingMetricsListener latestMetrics(final AtomicReference<TrainingMetrics> latest) {
+		return new TrainingMetricsListener() {
+			@Override public void update(TrainingMetrics metrics) {
+				latest.set(metrics);
+			}
+		};
+	}
+
+	/** @return {@link TrainingMetricsListener} which adds every {@link TrainingMetrics} to the given list */
+	private static TrainingMetricsListener recordMetrics(final List<TrainingMetrics> all) {
+		return new TrainingMetricsListener() {
+			@Override public void update(TrainingMetrics metrics) {
+				all.add(metrics);
+			}
+		};
+	}
+
 	/** @return {@link Word2VecTrainer} which by default uses all of the supported features */
 	@VisibleForTesting
 	public static Word2VecTrainerBuilder trainer() {
@@ -207,14 +571,14 @@ public class Word2VecTest {
 	}
 
 	/** @return raw test dataset. The tokens are separated by newlines. */
-	/*@VisibleForTesting
+	@VisibleForTesting
 	public static Iterable<List<String>> testData() throws IOException {
 		List<String> lines = Common.readResource(Word2VecTest.class, "word2vec.short.txt");
 		Iterable<List<String>> partitioned = Iterables.partition(lines, 1000);
 		return partitioned;
 	}
 
-	private void assertModelMatches(String expectedResource, Word2VecModel model) throws TException {
+	/*private void assertModelMatches(String expectedResource, Word2VecModel model) throws TException {
 		final String thrift;
 		try {
 			thrift = Common.readResourceToStringChecked(getClass(), expectedResource);
@@ -0,0 +1,86 @@
+package word2vec.lite.glove;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Tests for {@link CooccurrenceCounter}
+ */
+public class CooccurrenceCounterTest {
+	private static final int VOCAB_SIZE = 30;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Test that spilling many small runs from several threads and merging them sums the counts of each
+	 * pair to the same value as counting everything in memory
+	 */
+	@Test
+	public void testSpillAndMerge() throws IOException, InterruptedException {
+		List<List<String>> sentences = randomSentences();
+		Map<Long, Float> inMemory = count(sentences, 1, Integer.MAX_VALUE);
+		Map<Long, Float> spilled = count(sentences, 3, 500);
+
+		assertEquals(inMemory.keySet(), spilled.keySet());
+		for (Map.Entry<Long, Float> e : inMemory.entrySet())
+			assertEquals("Count of pair " + e.getKey(), e.getValue(), spilled.get(e.getKey()), 1e-5 * e.getValue());
+	}
+
+	/** @return Co-occurrences counted with the given number of threads and entries per thread, by pair */
+	private Map<Long, Float> count(List<List<String>> sentences, int numThreads, int maxEntriesPerThread)
+			throws IOException, InterruptedException {
+		GloveConfig config = new GloveConfig(numThreads, 1, 10, 5, 0.05, 100, 0.75, maxEntriesPerThread, null);
+		ImmutableMap.Builder<String, Integer> index = ImmutableMap.builder();
+		for (int i = 0; i < VOCAB_SIZE; i++)
+			index.put("w" + i, i);
+
+		ListeningExecutorService ex = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(numThreads));
+		CooccurrenceCounter.Run run;
+		try {
+			run = new CooccurrenceCounter(config, index.build(), folder.newFolder()).count(sentences, ex);
+		} finally {
+			ex.shutdownNow();
+		}
+
+		Map<Long, Float> result = new HashMap<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file)))) {
+			for (long r = 0; r < run.size; r++) {
+				long key = ((long)in.readInt() << 32) | in.readInt();
+				result.put(key, in.readFloat());
+			}
+		}
+		return result;
+	}
+
+	/** @return Enough sentences of random tokens, including some outside of the vocabulary, for several blocks */
+	private static List<List<String>> randomSentences() {
+		Random random = new Random(42);
+		List<List<String>> sentences = new ArrayList<>();
+		for (int s = 0; s < 25_000; s++) {
+			List<String> sentence = new ArrayList<>();
+			for (int t = random.nextInt(12); t > 0; t--)
+				sentence.add("w" + random.nextInt(VOCAB_SIZE + 5));
+			sentences.add(sentence);
+		}
+		return sentences;
+	}
+}